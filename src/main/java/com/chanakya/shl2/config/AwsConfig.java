@@ -6,8 +6,12 @@ import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.net.URI;
+
 @Configuration
 public class AwsConfig {
 
@@ -19,18 +23,30 @@ public class AwsConfig {
 
     @Bean
     public S3AsyncClient s3AsyncClient() {
-        return S3AsyncClient.builder()
+        ShlProperties.S3 s3 = properties.aws().s3();
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
                 .region(Region.of(properties.aws().region()))
                 .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+                .forcePathStyle(s3.pathStyleAccess());
+        if (s3.endpoint() != null && !s3.endpoint().isBlank()) {
+            builder.endpointOverride(URI.create(s3.endpoint()));
+        }
+        return builder.build();
     }
 
     @Bean
     public S3Presigner s3Presigner() {
-        return S3Presigner.builder()
+        ShlProperties.S3 s3 = properties.aws().s3();
+        S3Presigner.Builder builder = S3Presigner.builder()
                 .region(Region.of(properties.aws().region()))
                 .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(s3.pathStyleAccess())
+                        .build());
+        if (s3.endpoint() != null && !s3.endpoint().isBlank()) {
+            builder.endpointOverride(URI.create(s3.endpoint()));
+        }
+        return builder.build();
     }
 
     @Bean
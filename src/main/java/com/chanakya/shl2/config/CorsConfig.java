@@ -26,6 +26,7 @@ public class CorsConfig {
         publicConfig.setAllowedHeaders(List.of("*"));
         source.registerCorsConfiguration("/api/shl/manifest/**", publicConfig);
         source.registerCorsConfiguration("/api/shl/direct/**", publicConfig);
+        source.registerCorsConfiguration("/api/shl/blob", publicConfig);
         source.registerCorsConfiguration("/.well-known/**", publicConfig);
 
         // Management and member endpoints — configurable origins
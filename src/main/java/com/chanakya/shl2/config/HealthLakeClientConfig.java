@@ -0,0 +1,96 @@
+package com.chanakya.shl2.config;
+
+import com.chanakya.shl2.crypto.AwsSigV4Signer;
+import io.netty.channel.ChannelOption;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+
+import java.time.Duration;
+
+/**
+ * Dedicated HTTP client for AWS HealthLake: SigV4-signed, gzip-enabled, with its own
+ * bounded connection pool. Pool and request metrics are published to Micrometer under
+ * the {@code reactor.netty.*} meters.
+ */
+@Configuration
+public class HealthLakeClientConfig {
+
+    private static final String POOL_NAME = "healthlake";
+    private static final String SIGNING_SERVICE = "healthlake";
+
+    private final ShlProperties properties;
+
+    public HealthLakeClientConfig(ShlProperties properties) {
+        this.properties = properties;
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider healthLakeConnectionProvider() {
+        ShlProperties.HealthLake config = properties.healthlake();
+        return ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(config.maxConnections())
+                .pendingAcquireMaxCount(config.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofSeconds(config.pendingAcquireTimeoutSeconds()))
+                .maxIdleTime(Duration.ofSeconds(config.maxIdleTimeSeconds()))
+                .maxLifeTime(Duration.ofSeconds(config.maxLifeTimeSeconds()))
+                .evictInBackground(Duration.ofSeconds(config.evictionIntervalSeconds()))
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient healthLakeWebClient(ConnectionProvider healthLakeConnectionProvider) {
+        ShlProperties.HealthLake config = properties.healthlake();
+
+        HttpClient httpClient = HttpClient.create(healthLakeConnectionProvider)
+                .compress(true)
+                .keepAlive(true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.connectTimeoutMillis())
+                .responseTimeout(Duration.ofSeconds(config.responseTimeoutSeconds()))
+                .metrics(true, HealthLakeClientConfig::uriTag);
+
+        AwsSigV4Signer signer = new AwsSigV4Signer(
+                DefaultCredentialsProvider.create(), properties.aws().region(), SIGNING_SERVICE);
+
+        return WebClient.builder()
+                .baseUrl(baseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(config.maxInMemorySizeBytes()))
+                .defaultHeader("Content-Type", "application/fhir+json")
+                .filter(signer.filter())
+                .build();
+    }
+
+    private String baseUrl() {
+        String endpoint = properties.healthlake().endpoint();
+        if (endpoint != null && !endpoint.isBlank()) {
+            return endpoint;
+        }
+        return String.format("https://healthlake.%s.amazonaws.com/datastore/%s/r4",
+                properties.aws().region(), properties.aws().healthlakeDatastoreId());
+    }
+
+    /**
+     * Collapses request URIs to their FHIR resource type so patient and resource ids
+     * do not explode metric tag cardinality.
+     */
+    private static String uriTag(String uri) {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+        int r4Index = path.indexOf("/r4");
+        if (r4Index >= 0) {
+            path = path.substring(r4Index + 3);
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int slash = path.indexOf('/');
+        return "/" + (slash >= 0 ? path.substring(0, slash) : path);
+    }
+}
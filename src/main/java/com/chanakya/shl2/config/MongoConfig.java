@@ -0,0 +1,16 @@
+package com.chanakya.shl2.config;
+
+import org.springframework.boot.mongodb.autoconfigure.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoRoundTripCustomizer(MongoRoundTrips roundTrips) {
+        return settings -> settings
+                .addCommandListener(roundTrips)
+                .contextProvider(roundTrips.contextProvider());
+    }
+}
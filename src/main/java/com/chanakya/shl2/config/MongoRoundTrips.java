@@ -0,0 +1,107 @@
+package com.chanakya.shl2.config;
+
+import com.mongodb.RequestContext;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.reactivestreams.client.ReactiveContextProvider;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Counts the MongoDB commands a pipeline sends. {@link #track} puts a counter in the pipeline's
+ * Reactor context; the driver passes it to this listener with each command, and the total is
+ * recorded under {@code shl.mongo.round_trips} with an {@code operation} tag when the pipeline completes.
+ */
+@Component
+public class MongoRoundTrips implements CommandListener {
+
+    private static final Object KEY = MongoRoundTrips.class;
+
+    private final MeterRegistry meterRegistry;
+
+    public MongoRoundTrips(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> Mono<T> track(String operation, Mono<T> pipeline) {
+        DistributionSummary roundTrips = DistributionSummary.builder("shl.mongo.round_trips")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        return Mono.defer(() -> {
+            AtomicInteger commands = new AtomicInteger();
+            return pipeline
+                    .doOnSuccess(ignored -> roundTrips.record(commands.get()))
+                    .contextWrite(context -> context.put(KEY, commands));
+        });
+    }
+
+    /**
+     * Copies a tracked pipeline's counter into the driver's request context.
+     */
+    public ReactiveContextProvider contextProvider() {
+        return subscriber -> {
+            CounterContext context = new CounterContext();
+            if (subscriber instanceof CoreSubscriber<?> coreSubscriber) {
+                coreSubscriber.currentContext().getOrEmpty(KEY).ifPresent(counter -> context.put(KEY, counter));
+            }
+            return context;
+        };
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        RequestContext context = event.getRequestContext();
+        if (context != null && context.hasKey(KEY)) {
+            context.<AtomicInteger>get(KEY).incrementAndGet();
+        }
+    }
+
+    private static final class CounterContext implements RequestContext {
+
+        private final Map<Object, Object> values = new HashMap<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Object key) {
+            return (T) values.get(key);
+        }
+
+        @Override
+        public boolean hasKey(Object key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void delete(Object key) {
+            values.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public Stream<Map.Entry<Object, Object>> stream() {
+            return values.entrySet().stream();
+        }
+    }
+}
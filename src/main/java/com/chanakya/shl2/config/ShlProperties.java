@@ -1,7 +1,10 @@
 package com.chanakya.shl2.config;
 
+import com.chanakya.shl2.model.enums.AttachmentOversizePolicy;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
+
 @ConfigurationProperties(prefix = "shl")
 public record ShlProperties(
         String baseUrl,
@@ -9,17 +12,200 @@ public record ShlProperties(
         int defaultPasscodeAttempts,
         int passcodeLockoutDurationMinutes,
         Shc shc,
-        Aws aws
+        Aws aws,
+        HealthLake healthlake,
+        Workers workers,
+        Crypto crypto,
+        ManifestCache manifestCache,
+        ContentCache contentCache,
+        Purge purge,
+        Storage storage,
+        Jobs jobs,
+        Bulk bulk
 ) {
+    /**
+     * compressionLevel (1-9) is the raw DEFLATE level of the signed health card payload; 9 keeps
+     * QR codes smallest, lower levels trade size for CPU.
+     * verificationKeyPaths are retired (or upcoming) keys published in the JWKS next to the signing
+     * key. Key files are re-read every keyReloadIntervalSeconds (0 disables), so a rotated secret
+     * takes effect without a restart; verifiers may cache the JWKS for jwksMaxAgeSeconds.
+     */
     public record Shc(
             String issuerUrl,
-            String signingKeyPath
+            String signingKeyPath,
+            int compressionLevel,
+            List<String> verificationKeyPaths,
+            int keyReloadIntervalSeconds,
+            int jwksMaxAgeSeconds
     ) {}
 
     public record Aws(
             String region,
             String healthlakeDatastoreId,
             String s3BucketName,
-            String dynamoAccessLogTable
+            String dynamoAccessLogTable,
+            S3 s3
+    ) {}
+
+    /**
+     * Payloads up to multipartPartSizeBytes go up in one PutObject; larger streams are sent as a
+     * multipart upload with at most multipartConcurrency parts buffered and in flight.
+     * Endpoint and path-style access allow pointing the client at a local S3-compatible store.
+     */
+    public record S3(
+            String endpoint,
+            boolean pathStyleAccess,
+            int multipartPartSizeBytes,
+            int multipartConcurrency
+    ) {}
+
+    public record HealthLake(
+            String endpoint,
+            int maxConnections,
+            int pendingAcquireMaxCount,
+            int pendingAcquireTimeoutSeconds,
+            int maxIdleTimeSeconds,
+            int maxLifeTimeSeconds,
+            int evictionIntervalSeconds,
+            int connectTimeoutMillis,
+            int responseTimeoutSeconds,
+            int maxInMemorySizeBytes,
+            boolean batchEnabled,
+            Limiter limiter,
+            Cache cache,
+            Attachments attachments
+    ) {}
+
+    public record Limiter(
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            double backoffRatio,
+            int maxQueueSize,
+            int queueTimeoutSeconds,
+            int maxRetries,
+            int retryBaseDelayMillis,
+            int retryMaxDelayMillis
+    ) {}
+
+    /**
+     * Limits for inlining DocumentReference Binary attachments. Attachments over a limit either keep
+     * their Binary url (KEEP_URL) or fail the fetch (FAIL), per oversizePolicy.
+     */
+    public record Attachments(
+            int concurrency,
+            long maxAttachmentBytes,
+            long maxBundleBytes,
+            AttachmentOversizePolicy oversizePolicy
+    ) {}
+
+    /**
+     * ttlSeconds bounds how long fetched PHI may stay in memory; set enabled=false to disable caching entirely.
+     */
+    public record Cache(
+            boolean enabled,
+            long maxBytes,
+            int ttlSeconds
+    ) {}
+
+    /**
+     * Dedicated schedulers for CPU-heavy work, kept off the Netty event loop and off the shared
+     * boundedElastic pool. Each pool rejects work once queuedTaskCap tasks are waiting.
+     */
+    public record Workers(
+            Pool crypto,
+            Pool json,
+            Pool imaging,
+            Pool passwordHashing
+    ) {}
+
+    public record Pool(
+            int threadCap,
+            int queuedTaskCap
+    ) {}
+
+    /**
+     * aesGcmProvider names the JCA provider for AES/GCM; blank uses the highest-priority provider,
+     * which on HotSpot is SunJCE with AES-NI and CLMUL intrinsics. compressPayloads is the
+     * default for SHLs that do not choose zip=DEF themselves. maxInflatedBytes caps how far a
+     * zip=DEF payload is inflated on decryption.
+     */
+    public record Crypto(
+            String aesGcmProvider,
+            boolean compressPayloads,
+            int compressionLevel,
+            int maxInflatedBytes
+    ) {}
+
+    /**
+     * Cached manifests are served until their presigned URLs have less than
+     * minUrlLifetimeSeconds of the fileUrlExpirySeconds lifetime left.
+     */
+    public record ManifestCache(
+            boolean enabled,
+            int maxEntries,
+            int minUrlLifetimeSeconds
+    ) {}
+
+    /**
+     * Encrypted file contents embedded in manifests; maxBytes bounds the total cached ciphertext.
+     */
+    public record ContentCache(
+            boolean enabled,
+            long maxBytes,
+            boolean offHeap,
+            int ttlSeconds
+    ) {}
+
+    /**
+     * Background S3 purge worker. Each poll leases up to maxPurgesPerDrain queued purges for
+     * leaseSeconds and deletes at most maxKeysPerDrain of their keys, so a drain finishes well
+     * within its lease; deleteRequestsPerSecond caps DeleteObjects calls.
+     */
+    public record Purge(
+            int pollIntervalSeconds,
+            int leaseSeconds,
+            int maxPurgesPerDrain,
+            int maxKeysPerDrain,
+            int maxAttempts,
+            int deleteRequestsPerSecond
+    ) {}
+
+    /**
+     * backend is "s3" (default) or "local"; local is only read for the local backend.
+     * Files whose plaintext is at least multipartThresholdBytes are encrypted and uploaded as a
+     * stream instead of being held whole in memory.
+     */
+    public record Storage(
+            String backend,
+            int multipartThresholdBytes,
+            Local local
+    ) {}
+
+    public record Local(
+            String root,
+            String signingSecret,
+            int mmapChunkBytes
+    ) {}
+
+    /**
+     * Asynchronous SHL creation worker. A running job renews its lease every leaseSeconds / 3,
+     * so leaseSeconds only bounds how long a job of a dead pod waits before it is claimed again.
+     */
+    public record Jobs(
+            int pollIntervalSeconds,
+            int leaseSeconds,
+            int maxConcurrentJobs,
+            int maxAttempts
+    ) {}
+
+    /**
+     * Bulk creation builds and completes at most maxConcurrentItems SHLs at a time, and inserts
+     * the built documents in batches of up to insertBatchSize, flushed after insertBatchWindowMillis.
+     */
+    public record Bulk(
+            int maxConcurrentItems,
+            int insertBatchSize,
+            int insertBatchWindowMillis
     ) {}
 }
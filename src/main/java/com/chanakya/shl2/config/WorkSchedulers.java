@@ -0,0 +1,76 @@
+package com.chanakya.shl2.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * Named, bounded schedulers for each class of CPU-heavy work, so a large encryption or SHC build
+ * never runs on (or stalls) a Netty event loop and one class of work cannot starve another.
+ * Each scheduler is metered under {@code shl.workers.scheduler.*} with a {@code pool} tag.
+ */
+@Component
+public class WorkSchedulers implements DisposableBean {
+
+    private static final int THREAD_TTL_SECONDS = 60;
+
+    private final Scheduler crypto;
+    private final Scheduler json;
+    private final Scheduler imaging;
+    private final Scheduler passwordHashing;
+    private final List<Scheduler> all;
+
+    public WorkSchedulers(ShlProperties properties, MeterRegistry meterRegistry) {
+        ShlProperties.Workers workers = properties.workers();
+        this.crypto = create("crypto", workers.crypto(), meterRegistry);
+        this.json = create("json", workers.json(), meterRegistry);
+        this.imaging = create("imaging", workers.imaging(), meterRegistry);
+        this.passwordHashing = create("password-hashing", workers.passwordHashing(), meterRegistry);
+        this.all = List.of(crypto, json, imaging, passwordHashing);
+    }
+
+    /**
+     * JWE encryption and decryption.
+     */
+    public Scheduler crypto() {
+        return crypto;
+    }
+
+    /**
+     * Bundle merging and SMART Health Card building.
+     */
+    public Scheduler json() {
+        return json;
+    }
+
+    /**
+     * QR code rendering.
+     */
+    public Scheduler imaging() {
+        return imaging;
+    }
+
+    /**
+     * BCrypt hashing and verification.
+     */
+    public Scheduler passwordHashing() {
+        return passwordHashing;
+    }
+
+    @Override
+    public void destroy() {
+        all.forEach(Scheduler::dispose);
+    }
+
+    private static Scheduler create(String name, ShlProperties.Pool pool, MeterRegistry meterRegistry) {
+        Scheduler scheduler = Schedulers.newBoundedElastic(
+                pool.threadCap(), pool.queuedTaskCap(), "shl-" + name, THREAD_TTL_SECONDS, true);
+        return Micrometer.timedScheduler(scheduler, meterRegistry, "shl.workers", Tags.of("pool", name));
+    }
+}
@@ -0,0 +1,49 @@
+package com.chanakya.shl2.controller;
+
+import com.chanakya.shl2.service.LocalBlobStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Serves files of the local blob store through the signed URLs it issues in place of S3
+ * presigned URLs. Only registered when {@code shl.storage.backend=local}.
+ */
+@RestController
+@ConditionalOnProperty(name = "shl.storage.backend", havingValue = "local")
+public class BlobController {
+
+    private final LocalBlobStore blobStore;
+
+    public BlobController(LocalBlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * GET /api/shl/blob?key=...&expires=...&signature=...
+     */
+    @GetMapping(LocalBlobStore.DOWNLOAD_PATH)
+    public Mono<ResponseEntity<Flux<DataBuffer>>> download(
+            @RequestParam String key,
+            @RequestParam long expires,
+            @RequestParam String signature,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (!blobStore.verifyDownloadUrl(key, expires, signature)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        return blobStore.downloadStream(key, range, ifNoneMatch)
+                .map(BlobResponses::toResponse)
+                .onErrorResume(NoSuchFileException.class, e -> Mono.just(ResponseEntity.notFound().build()));
+    }
+}
@@ -0,0 +1,41 @@
+package com.chanakya.shl2.controller;
+
+import com.chanakya.shl2.service.BlobStore;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+
+/**
+ * Maps a streamed blob to an {@code application/jose} response, wrapping each buffer as a
+ * DataBuffer without copying.
+ */
+final class BlobResponses {
+
+    private static final MediaType JOSE = MediaType.parseMediaType("application/jose");
+
+    private BlobResponses() {}
+
+    static ResponseEntity<Flux<DataBuffer>> toResponse(BlobStore.ObjectStream object) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(object.status())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (object.eTag() != null) {
+            builder.eTag(object.eTag());
+        }
+        if (object.contentRange() != null) {
+            builder.header(HttpHeaders.CONTENT_RANGE, object.contentRange());
+        }
+        if (object.status() == HttpStatus.NOT_MODIFIED || object.status() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) {
+            return builder.build();
+        }
+        if (object.contentLength() != null) {
+            builder.contentLength(object.contentLength());
+        }
+        return builder
+                .contentType(JOSE)
+                .body(object.content().map(DefaultDataBufferFactory.sharedInstance::wrap));
+    }
+}
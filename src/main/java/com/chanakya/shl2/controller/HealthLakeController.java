@@ -1,8 +1,10 @@
 package com.chanakya.shl2.controller;
 
+import com.chanakya.shl2.model.dto.response.PreviewResourceLine;
 import com.chanakya.shl2.model.enums.FhirCategory;
 import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
 import com.chanakya.shl2.service.HealthLakeService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -52,4 +54,16 @@ public class HealthLakeController {
             @RequestParam(required = false) Instant to) {
         return healthLakeService.fetchResourcesByCategory(patientId, categories, from, to);
     }
+
+    /**
+     * Stream FHIR resources one per line as HealthLake pages arrive (Accept: application/x-ndjson).
+     */
+    @GetMapping(value = "/preview", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<PreviewResourceLine> streamPreviewResources(
+            @RequestParam String patientId,
+            @RequestParam List<FhirCategory> categories,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to) {
+        return healthLakeService.streamResourcesByCategory(patientId, categories, from, to);
+    }
 }
@@ -1,14 +1,21 @@
 package com.chanakya.shl2.controller;
 
 import com.chanakya.shl2.model.dto.request.CreateShlRequest;
+import com.chanakya.shl2.model.dto.response.BulkShlResult;
+import com.chanakya.shl2.model.dto.response.CreateShlJobResponse;
 import com.chanakya.shl2.model.dto.response.CreateShlResponse;
+import com.chanakya.shl2.model.dto.response.ShlCreationJobResponse;
 import com.chanakya.shl2.model.dto.response.ShlStatusResponse;
+import com.chanakya.shl2.model.enums.RefreshMode;
+import com.chanakya.shl2.service.ShlBulkCreationService;
+import com.chanakya.shl2.service.ShlCreationJobService;
 import com.chanakya.shl2.service.ShlCreationService;
 import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 // TODO: Add authentication (OAuth2/JWT) — management endpoints must be protected
@@ -17,9 +24,15 @@ import reactor.core.publisher.Mono;
 public class ShlManagementController {
 
     private final ShlCreationService shlCreationService;
+    private final ShlCreationJobService jobService;
+    private final ShlBulkCreationService bulkCreationService;
 
-    public ShlManagementController(ShlCreationService shlCreationService) {
+    public ShlManagementController(ShlCreationService shlCreationService,
+                                   ShlCreationJobService jobService,
+                                   ShlBulkCreationService bulkCreationService) {
         this.shlCreationService = shlCreationService;
+        this.jobService = jobService;
+        this.bulkCreationService = bulkCreationService;
     }
 
     /**
@@ -31,6 +44,36 @@ public class ShlManagementController {
         return shlCreationService.createShl(request);
     }
 
+    /**
+     * Create a new SHL asynchronously (POST /api/shl?async=true). Returns 202 with the job id and
+     * management token at once; poll GET /manage/{managementToken}/job for progress.
+     */
+    @PostMapping(params = "async=true")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public Mono<CreateShlJobResponse> createShlAsync(@Valid @RequestBody CreateShlRequest request) {
+        return jobService.submit(request);
+    }
+
+    /**
+     * Create many SHLs from an NDJSON stream or JSON array of create requests. Results stream
+     * back one per line as items complete; requests are validated per item, so one bad item
+     * becomes an error line instead of failing the batch.
+     */
+    @PostMapping(value = "/bulk",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BulkShlResult> createShls(@RequestBody Flux<CreateShlRequest> requests) {
+        return bulkCreationService.createShls(requests);
+    }
+
+    /**
+     * Get the creation job of an asynchronously created SHL, with per-category progress.
+     */
+    @GetMapping("/manage/{managementToken}/job")
+    public Mono<ShlCreationJobResponse> getCreationJob(@PathVariable String managementToken) {
+        return jobService.getJob(managementToken);
+    }
+
     /**
      * Get SHL status by management token.
      */
@@ -49,12 +92,13 @@ public class ShlManagementController {
     }
 
     /**
-     * Refresh SHL data (L-flag only).
+     * Refresh SHL data (L-flag only). INCREMENTAL rebuilds only categories changed since the last refresh.
      */
     @PostMapping("/manage/{managementToken}/refresh")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public Mono<Void> refreshShl(@PathVariable String managementToken) {
-        return shlCreationService.refreshShlData(managementToken);
+    public Mono<Void> refreshShl(@PathVariable String managementToken,
+                                 @RequestParam(defaultValue = "FULL") RefreshMode mode) {
+        return shlCreationService.refreshShlData(managementToken, mode);
     }
 
     /**
@@ -4,9 +4,11 @@ import com.chanakya.shl2.model.dto.request.ManifestRequest;
 import com.chanakya.shl2.model.dto.response.ManifestResponse;
 import com.chanakya.shl2.service.ManifestService;
 import jakarta.validation.Valid;
-import org.springframework.http.MediaType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -34,15 +36,16 @@ public class ShlProtocolController {
      * Direct file access for U-flag SHLs.
      * GET /api/shl/direct/{manifestId}?recipient=...
      * Per SHL spec, recipient query parameter is required.
+     * The stored body is streamed through without buffering; Range and If-None-Match are supported.
      */
     @GetMapping("/direct/{manifestId}")
-    public Mono<ResponseEntity<String>> getDirectFile(
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getDirectFile(
             @PathVariable String manifestId,
-            @RequestParam String recipient) {
-        return manifestService.handleDirectFileRequest(manifestId, recipient)
-                .map(content -> ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType("application/jose"))
-                        .body(content))
+            @RequestParam String recipient,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return manifestService.handleDirectFileRequest(manifestId, recipient, range, ifNoneMatch)
+                .map(BlobResponses::toResponse)
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 }
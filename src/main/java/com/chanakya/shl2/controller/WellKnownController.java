@@ -1,27 +1,39 @@
 package com.chanakya.shl2.controller;
 
+import com.chanakya.shl2.config.ShlProperties;
 import com.chanakya.shl2.crypto.JwsService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
 
-import java.util.List;
-import java.util.Map;
+import java.time.Duration;
 
 @RestController
 public class WellKnownController {
 
     private final JwsService jwsService;
+    private final CacheControl jwksCacheControl;
 
-    public WellKnownController(JwsService jwsService) {
+    public WellKnownController(JwsService jwsService, ShlProperties properties) {
         this.jwsService = jwsService;
+        this.jwksCacheControl = CacheControl.maxAge(Duration.ofSeconds(properties.shc().jwksMaxAgeSeconds()))
+                .cachePublic();
     }
 
     /**
-     * JWKS endpoint for SHC public key verification.
+     * JWKS endpoint for SHC public key verification. Serves the precomputed document; a request
+     * whose If-None-Match matches the ETag gets 304 from the ResponseEntity result handler.
      */
     @GetMapping("/.well-known/jwks.json")
-    public Mono<Map<String, Object>> getJwks() {
-        return Mono.just(Map.of("keys", List.of(jwsService.getPublicJwk())));
+    public Mono<ResponseEntity<byte[]>> getJwks() {
+        JwsService.Jwks jwks = jwsService.jwks();
+        return Mono.just(ResponseEntity.ok()
+                .eTag(jwks.eTag())
+                .cacheControl(jwksCacheControl)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(jwks.json()));
     }
 }
@@ -0,0 +1,61 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.util.Base64UrlUtil;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+
+/**
+ * A 256-bit AES key whose bytes are zeroized by {@link #destroy()}.
+ * Unlike {@link javax.crypto.spec.SecretKeySpec}, the held copy can be wiped when a cached
+ * handle is evicted.
+ */
+final class AesKey implements SecretKey {
+
+    static final int LENGTH = 32;
+
+    private final byte[] key;
+    private volatile boolean destroyed;
+
+    private AesKey(byte[] key) {
+        this.key = key;
+    }
+
+    static AesKey fromBase64Url(String keyBase64Url) {
+        byte[] keyBytes = Base64UrlUtil.decode(keyBase64Url);
+        if (keyBytes.length != LENGTH) {
+            Arrays.fill(keyBytes, (byte) 0);
+            throw new IllegalArgumentException("A256GCM requires a 256-bit key");
+        }
+        return new AesKey(keyBytes);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "AES";
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (destroyed) {
+            throw new IllegalStateException("AES key has been destroyed");
+        }
+        return key.clone();
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        Arrays.fill(key, (byte) 0);
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+}
@@ -0,0 +1,84 @@
+package com.chanakya.shl2.crypto;
+
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+
+import java.time.Clock;
+
+/**
+ * Signs outgoing WebClient requests with AWS Signature Version 4 using the SDK's
+ * {@link AwsV4HttpSigner}. Credentials are resolved on the boundedElastic scheduler, since a
+ * refresh from the instance metadata or STS endpoint blocks; the provider caches them between
+ * refreshes. Only host and the x-amz-* headers the signer adds are signed, so headers the
+ * client adds after this filter cannot invalidate the signature.
+ */
+public final class AwsSigV4Signer {
+
+    /**
+     * Request attribute carrying the request body bytes, which the signature covers.
+     * Requests without it are signed as having an empty payload.
+     */
+    public static final String PAYLOAD_ATTRIBUTE = AwsSigV4Signer.class.getName() + ".payload";
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final AwsV4HttpSigner signer = AwsV4HttpSigner.create();
+    private final AwsCredentialsProvider credentialsProvider;
+    private final String region;
+    private final String service;
+    private final Clock clock;
+
+    public AwsSigV4Signer(AwsCredentialsProvider credentialsProvider, String region, String service) {
+        this(credentialsProvider, region, service, Clock.systemUTC());
+    }
+
+    AwsSigV4Signer(AwsCredentialsProvider credentialsProvider, String region, String service, Clock clock) {
+        this.credentialsProvider = credentialsProvider;
+        this.region = region;
+        this.service = service;
+        this.clock = clock;
+    }
+
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> Mono.fromCallable(credentialsProvider::resolveCredentials)
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(credentials -> sign(request, credentials))
+                .flatMap(next::exchange);
+    }
+
+    ClientRequest sign(ClientRequest request, AwsCredentials credentials) {
+        SdkHttpRequest unsigned = SdkHttpRequest.builder()
+                .method(SdkHttpMethod.fromValue(request.method().name()))
+                .uri(request.url())
+                .build();
+        byte[] payload = request.attribute(PAYLOAD_ATTRIBUTE)
+                .map(byte[].class::cast)
+                .orElse(EMPTY_PAYLOAD);
+
+        SignedRequest signed = signer.sign(r -> r
+                .identity(credentials)
+                .request(unsigned)
+                .payload(ContentStreamProvider.fromByteArrayUnsafe(payload))
+                .putProperty(AwsV4HttpSigner.REGION_NAME, region)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, service)
+                .putProperty(AwsV4HttpSigner.SIGNING_CLOCK, clock));
+
+        return ClientRequest.from(request)
+                .headers(headers -> signed.request().forEachHeader((name, values) -> {
+                    // The client derives Host from the URL, exactly as the signer did
+                    if (!"Host".equalsIgnoreCase(name)) {
+                        headers.put(name, values);
+                    }
+                }))
+                .build();
+    }
+}
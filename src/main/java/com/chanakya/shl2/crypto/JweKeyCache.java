@@ -0,0 +1,86 @@
+package com.chanakya.shl2.crypto;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reference-counted decoded SHL encryption keys, keyed by SHL id, so the files of one creation
+ * or refresh, and any pipelines running concurrently for the same SHL, share a single key handle
+ * instead of decoding the key per file. A handle is zeroized only when its last lease is closed,
+ * so no pipeline can encrypt with a key another pipeline has already wiped.
+ */
+@Component
+public class JweKeyCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+
+        private final AesKey key;
+        private int holders;
+
+        private Entry(AesKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A pipeline's hold on an SHL's key handle. Closing it more than once has no effect.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final String shlId;
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(String shlId, Entry entry) {
+            this.shlId = shlId;
+            this.entry = entry;
+        }
+
+        public SecretKey key() {
+            return entry.key;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(shlId, entry);
+            }
+        }
+    }
+
+    public JweKeyCache(MeterRegistry meterRegistry) {
+        Gauge.builder("shl.jwe.keys.active", entries, Map::size)
+                .description("Decoded SHL keys currently leased by pipelines")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Leases the SHL's key handle, decoding the key if no other pipeline holds it.
+     */
+    public Lease acquire(String shlId, String keyBase64Url) {
+        Entry entry = entries.compute(shlId, (id, current) -> {
+            Entry held = current != null ? current : new Entry(AesKey.fromBase64Url(keyBase64Url));
+            held.holders++;
+            return held;
+        });
+        return new Lease(shlId, entry);
+    }
+
+    private void release(String shlId, Entry entry) {
+        entries.computeIfPresent(shlId, (id, current) -> {
+            if (current != entry || --current.holders > 0) {
+                return current;
+            }
+            current.key.destroy();
+            return null;
+        });
+    }
+}
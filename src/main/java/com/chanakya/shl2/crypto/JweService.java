@@ -1,53 +1,471 @@
 package com.chanakya.shl2.crypto;
 
+import com.chanakya.shl2.config.ShlProperties;
 import com.chanakya.shl2.util.Base64UrlUtil;
 import com.nimbusds.jose.*;
-import com.nimbusds.jose.crypto.DirectDecrypter;
-import com.nimbusds.jose.crypto.DirectEncrypter;
+import com.nimbusds.jose.util.Base64URL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
+import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * JWE compact serialization with {@code alg=dir} and {@code enc=A256GCM}, per the SHL spec.
+ * The byte-oriented methods seal the plaintext once into a buffer sized up front and encode each
+ * part directly into a single output array of precomputed length, so no intermediate Strings or
+ * per-part copies are made. The String methods are conveniences over the byte API.
+ * Each thread reuses one AES/GCM cipher, re-initialized per message with a fresh IV and re-keyed
+ * with a throwaway key once the message is done, so a pooled cipher never holds the key schedule
+ * of a message key after its caller has zeroized that key.
+ * Payloads may be raw-DEFLATE compressed before encryption ({@code zip=DEF}); each thread reuses
+ * one Deflater and one Inflater, reset after every message.
+ */
 @Service
 public class JweService {
 
+    private static final Logger log = LoggerFactory.getLogger(JweService.class);
+
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final Provider provider;
+    private final int compressionLevel;
+    // Refuses to inflate past this size, so a crafted zip=DEF payload cannot exhaust the heap
+    private final int maxInflatedBytes;
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(this::newCipher);
+    // Never encrypts anything; pooled ciphers are re-keyed with it after every message
+    private final SecretKey scrubKey;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public JweService(ShlProperties properties) {
+        this.provider = resolveProvider(properties.crypto().aesGcmProvider());
+        this.compressionLevel = properties.crypto().compressionLevel();
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("shl.crypto.compression-level must be between 1 and 9");
+        }
+        this.maxInflatedBytes = properties.crypto().maxInflatedBytes();
+        if (maxInflatedBytes <= 0) {
+            throw new IllegalArgumentException("shl.crypto.max-inflated-bytes must be positive");
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(compressionLevel, true));
+        byte[] scrubKeyBytes = new byte[32];
+        SECURE_RANDOM.nextBytes(scrubKeyBytes);
+        this.scrubKey = new SecretKeySpec(scrubKeyBytes, "AES");
+        log.info("event=jwe_cipher_provider provider={}", provider.getName());
+    }
+
     /**
      * Encrypts plaintext using AES-256-GCM with direct key agreement.
-     * Nimbus auto-generates a unique IV per call.
      * Per SHL spec, the JWE header includes cty indicating the content type of the plaintext.
      */
     public String encrypt(String plaintext, String keyBase64Url, String contentType) {
+        byte[] compact = encrypt(plaintext.getBytes(StandardCharsets.UTF_8), keyBase64Url, contentType);
+        return new String(compact, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encrypts plaintext bytes and returns the JWE compact serialization as ASCII bytes.
+     */
+    public byte[] encrypt(byte[] plaintext, String keyBase64Url, String contentType) {
+        AesKey key = AesKey.fromBase64Url(keyBase64Url);
         try {
-            SecretKey key = toSecretKey(keyBase64Url);
-            JWEHeader header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
-                    .contentType(contentType)
-                    .build();
-            JWEObject jwe = new JWEObject(header, new Payload(plaintext.getBytes(StandardCharsets.UTF_8)));
-            jwe.encrypt(new DirectEncrypter(key));
-            return jwe.serialize();
-        } catch (JOSEException e) {
+            return encrypt(ByteBuffer.wrap(plaintext), key, contentType);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /**
+     * Encrypts plaintext bytes with a key handle, e.g. one from {@link JweKeyCache}.
+     */
+    public byte[] encrypt(byte[] plaintext, SecretKey key, String contentType) {
+        return encrypt(ByteBuffer.wrap(plaintext), key, contentType);
+    }
+
+    /**
+     * Encrypts the remaining bytes of the buffer and returns the JWE compact serialization as
+     * ASCII bytes. A fresh random IV is used per call.
+     */
+    public byte[] encrypt(ByteBuffer plaintext, SecretKey key, String contentType) {
+        return encrypt(plaintext, key, contentType, false);
+    }
+
+    /**
+     * Encrypts plaintext bytes, raw-DEFLATE compressing them first and adding {@code zip=DEF}
+     * to the header when {@code compress} is set.
+     */
+    public byte[] encrypt(byte[] plaintext, SecretKey key, String contentType, boolean compress) {
+        return encrypt(ByteBuffer.wrap(plaintext), key, contentType, compress);
+    }
+
+    public byte[] encrypt(ByteBuffer plaintext, SecretKey key, String contentType, boolean compress) {
+        if (compress) {
+            plaintext = deflate(plaintext);
+        }
+        Cipher cipher = ciphers.get();
+        try {
+            byte[] protectedHeader = protectedHeader(contentType, compress);
+            byte[] iv = new byte[IV_LENGTH];
+            SECURE_RANDOM.nextBytes(iv);
+
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(protectedHeader);
+
+            byte[] sealed = new byte[cipher.getOutputSize(plaintext.remaining())];
+            int sealedLength = cipher.doFinal(plaintext, ByteBuffer.wrap(sealed));
+            return compact(protectedHeader, iv, sealed, sealedLength - TAG_LENGTH);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("JWE encryption failed", e);
+        } finally {
+            release(cipher);
         }
     }
 
+    /**
+     * Encrypts like {@link #encrypt(ByteBuffer, SecretKey, String, boolean)} but emits the compact
+     * serialization lazily, one chunk per {@code chunkBytes} of plaintext, so the whole JWE is never
+     * held in memory. The stream seals with its own cipher, since its chunks may be generated on
+     * different threads, and re-keys it with the throwaway key once it terminates or is cancelled;
+     * subscribe to it on the crypto scheduler.
+     */
+    public Flux<ByteBuffer> encryptStream(ByteBuffer plaintext, SecretKey key, String contentType,
+                                          boolean compress, int chunkBytes) {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("chunkBytes must be positive");
+        }
+        return Flux.generate(
+                () -> new SealingStream(compress ? deflate(plaintext.slice()) : plaintext.slice(), key,
+                        protectedHeader(contentType, compress), chunkBytes),
+                (stream, sink) -> {
+                    try {
+                        ByteBuffer chunk = stream.next();
+                        if (chunk != null) {
+                            sink.next(chunk);
+                        } else {
+                            sink.complete();
+                        }
+                    } catch (GeneralSecurityException e) {
+                        sink.error(new RuntimeException("JWE encryption failed", e));
+                    }
+                    return stream;
+                },
+                SealingStream::close);
+    }
+
     /**
      * Decrypts a JWE compact serialization.
      */
     public String decrypt(String jweCompact, String keyBase64Url) {
+        byte[] plaintext = decrypt(jweCompact.getBytes(StandardCharsets.US_ASCII), keyBase64Url);
+        return new String(plaintext, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypts a JWE compact serialization given as ASCII bytes and returns the plaintext bytes.
+     */
+    public byte[] decrypt(byte[] jweCompact, String keyBase64Url) {
+        AesKey key = AesKey.fromBase64Url(keyBase64Url);
         try {
-            SecretKey key = toSecretKey(keyBase64Url);
-            JWEObject jwe = JWEObject.parse(jweCompact);
-            jwe.decrypt(new DirectDecrypter(key));
-            return jwe.getPayload().toString();
+            return decrypt(jweCompact, key);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /**
+     * Decrypts a JWE compact serialization with a key handle, e.g. one from {@link JweKeyCache}.
+     */
+    public byte[] decrypt(byte[] jweCompact, SecretKey key) {
+        try {
+            int[] dots = dots(jweCompact);
+            if (dots[0] + 1 != dots[1]) {
+                throw new IllegalArgumentException("Direct encryption must not carry an encrypted key");
+            }
+            JWEHeader header = JWEHeader.parse(new Base64URL(new String(jweCompact, 0, dots[0], StandardCharsets.US_ASCII)));
+            if (!JWEAlgorithm.DIR.equals(header.getAlgorithm())
+                    || !EncryptionMethod.A256GCM.equals(header.getEncryptionMethod())) {
+                throw new IllegalArgumentException("Unsupported JWE algorithm " + header.getAlgorithm()
+                        + "/" + header.getEncryptionMethod());
+            }
+            CompressionAlgorithm zip = header.getCompressionAlgorithm();
+            if (zip != null && !CompressionAlgorithm.DEF.equals(zip)) {
+                throw new IllegalArgumentException("Unsupported JWE compression " + zip);
+            }
+
+            byte[] iv = new byte[Base64UrlUtil.decodedLength(dots[2] - dots[1] - 1)];
+            Base64UrlUtil.decodeInto(jweCompact, dots[1] + 1, dots[2] - dots[1] - 1, iv, 0);
+
+            // Ciphertext and tag are decoded back to back, which is the layout the GCM cipher expects
+            int ciphertextChars = dots[3] - dots[2] - 1;
+            int tagChars = jweCompact.length - dots[3] - 1;
+            if (Base64UrlUtil.decodedLength(tagChars) != TAG_LENGTH) {
+                throw new IllegalArgumentException("Invalid authentication tag length");
+            }
+            byte[] sealed = new byte[Base64UrlUtil.decodedLength(ciphertextChars) + TAG_LENGTH];
+            int offset = Base64UrlUtil.decodeInto(jweCompact, dots[2] + 1, ciphertextChars, sealed, 0);
+            Base64UrlUtil.decodeInto(jweCompact, dots[3] + 1, tagChars, sealed, offset);
+
+            Cipher cipher = ciphers.get();
+            byte[] plaintext;
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+                cipher.updateAAD(jweCompact, 0, dots[0]);
+                plaintext = cipher.doFinal(sealed);
+            } finally {
+                release(cipher);
+            }
+            return zip != null ? inflate(plaintext) : plaintext;
         } catch (Exception e) {
             throw new RuntimeException("JWE decryption failed", e);
         }
     }
 
-    private SecretKey toSecretKey(String keyBase64Url) {
-        byte[] keyBytes = Base64UrlUtil.decode(keyBase64Url);
-        return new SecretKeySpec(keyBytes, "AES");
+    private static byte[] protectedHeader(String contentType, boolean compressed) {
+        JWEHeader header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+                .contentType(contentType)
+                .compressionAlgorithm(compressed ? CompressionAlgorithm.DEF : null)
+                .build();
+        return header.toBase64URL().toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private ByteBuffer deflate(ByteBuffer plaintext) {
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(plaintext);
+            deflater.finish();
+            // JSON usually shrinks 5-10x; start at a quarter and grow if it does not
+            byte[] out = new byte[Math.max(64, plaintext.remaining() / 4)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return ByteBuffer.wrap(out, 0, length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[(int) Math.min(maxInflatedBytes, Math.max(64, compressed.length * 4L))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    if (out.length >= maxInflatedBytes) {
+                        throw new IllegalArgumentException("Inflated JWE payload exceeds " + maxInflatedBytes + " bytes");
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(maxInflatedBytes, out.length * 2L));
+                }
+                int n = inflater.inflate(out, length, out.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated DEFLATE payload");
+                }
+                length += n;
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Writes header..iv.ciphertext.tag into one array; the encrypted key is empty for direct encryption.
+     */
+    private static byte[] compact(byte[] protectedHeader, byte[] iv, byte[] sealed, int ciphertextLength) {
+        byte[] out = new byte[protectedHeader.length + 4
+                + Base64UrlUtil.encodedLength(IV_LENGTH)
+                + Base64UrlUtil.encodedLength(ciphertextLength)
+                + Base64UrlUtil.encodedLength(TAG_LENGTH)];
+
+        System.arraycopy(protectedHeader, 0, out, 0, protectedHeader.length);
+        int pos = protectedHeader.length;
+        out[pos++] = '.';
+        out[pos++] = '.';
+        pos = Base64UrlUtil.encodeInto(iv, 0, IV_LENGTH, out, pos);
+        out[pos++] = '.';
+        pos = Base64UrlUtil.encodeInto(sealed, 0, ciphertextLength, out, pos);
+        out[pos++] = '.';
+        Base64UrlUtil.encodeInto(sealed, ciphertextLength, TAG_LENGTH, out, pos);
+        return out;
+    }
+
+    /**
+     * Seals a plaintext chunk by chunk. The first chunk is header..iv. and the last one carries
+     * the final ciphertext bytes and .tag; ciphertext is base64url-encoded in groups of three
+     * bytes, so up to two bytes are carried over to the next chunk.
+     */
+    private final class SealingStream {
+
+        private final ByteBuffer plaintext;
+        private final SecretKey key;
+        private final byte[] protectedHeader;
+        private final int chunkBytes;
+        private final byte[] carry = new byte[2];
+        private int carried;
+        private Cipher cipher;
+        private boolean done;
+
+        SealingStream(ByteBuffer plaintext, SecretKey key, byte[] protectedHeader, int chunkBytes) {
+            this.plaintext = plaintext;
+            this.key = key;
+            this.protectedHeader = protectedHeader;
+            this.chunkBytes = chunkBytes;
+        }
+
+        ByteBuffer next() throws GeneralSecurityException {
+            if (done) {
+                return null;
+            }
+            if (cipher == null) {
+                return start();
+            }
+            if (plaintext.hasRemaining()) {
+                int n = Math.min(chunkBytes, plaintext.remaining());
+                ByteBuffer slice = plaintext.slice(plaintext.position(), n);
+                plaintext.position(plaintext.position() + n);
+                byte[] ciphertext = new byte[cipher.getOutputSize(n)];
+                int length = cipher.update(slice, ByteBuffer.wrap(ciphertext));
+                return encode(ciphertext, length, false);
+            }
+            done = true;
+            byte[] sealed = cipher.doFinal();
+            return encode(sealed, sealed.length - TAG_LENGTH, true);
+        }
+
+        void close() {
+            if (cipher != null) {
+                scrub(cipher);
+                cipher = null;
+            }
+        }
+
+        private ByteBuffer start() throws GeneralSecurityException {
+            byte[] iv = new byte[IV_LENGTH];
+            SECURE_RANDOM.nextBytes(iv);
+            cipher = newCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(protectedHeader);
+
+            byte[] out = new byte[protectedHeader.length + 3 + Base64UrlUtil.encodedLength(IV_LENGTH)];
+            System.arraycopy(protectedHeader, 0, out, 0, protectedHeader.length);
+            int pos = protectedHeader.length;
+            out[pos++] = '.';
+            out[pos++] = '.';
+            pos = Base64UrlUtil.encodeInto(iv, 0, IV_LENGTH, out, pos);
+            out[pos] = '.';
+            return ByteBuffer.wrap(out);
+        }
+
+        /**
+         * Encodes the carried bytes plus {@code ciphertextLength} bytes of {@code sealed}. On the
+         * last chunk the rest of {@code sealed} is the tag, which follows after a dot.
+         */
+        private ByteBuffer encode(byte[] sealed, int ciphertextLength, boolean last) {
+            byte[] pending = new byte[carried + ciphertextLength];
+            System.arraycopy(carry, 0, pending, 0, carried);
+            System.arraycopy(sealed, 0, pending, carried, ciphertextLength);
+            int encodable = last ? pending.length : pending.length - pending.length % 3;
+            carried = pending.length - encodable;
+            System.arraycopy(pending, encodable, carry, 0, carried);
+
+            byte[] out = new byte[Base64UrlUtil.encodedLength(encodable)
+                    + (last ? 1 + Base64UrlUtil.encodedLength(TAG_LENGTH) : 0)];
+            int pos = Base64UrlUtil.encodeInto(pending, 0, encodable, out, 0);
+            if (last) {
+                out[pos++] = '.';
+                Base64UrlUtil.encodeInto(sealed, ciphertextLength, TAG_LENGTH, out, pos);
+            }
+            return ByteBuffer.wrap(out);
+        }
+    }
+
+    private static int[] dots(byte[] jweCompact) {
+        int[] dots = new int[4];
+        int found = 0;
+        for (int i = 0; i < jweCompact.length; i++) {
+            if (jweCompact[i] == '.') {
+                if (found == dots.length) {
+                    throw new IllegalArgumentException("JWE compact serialization must have five parts");
+                }
+                dots[found++] = i;
+            }
+        }
+        if (found != dots.length) {
+            throw new IllegalArgumentException("JWE compact serialization must have five parts");
+        }
+        return dots;
+    }
+
+    /**
+     * Re-keys a cipher with the throwaway key, replacing both the key schedule and the copy of the
+     * key bytes the provider keeps from the last encrypt-mode init; a decrypt-mode init would
+     * leave that copy in place. The IV only has to differ from the previous init's, so it need
+     * not come from the secure generator. Returns false if the cipher could not be re-keyed.
+     */
+    private boolean scrub(Cipher cipher) {
+        byte[] iv = new byte[IV_LENGTH];
+        ThreadLocalRandom.current().nextBytes(iv);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, scrubKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            return true;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Scrubs a pooled cipher, dropping it from the pool if it cannot be re-keyed.
+     */
+    private void release(Cipher cipher) {
+        if (!scrub(cipher)) {
+            ciphers.remove();
+        }
+    }
+
+    private Cipher newCipher() {
+        try {
+            return Cipher.getInstance(CIPHER_TRANSFORMATION, provider);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM unavailable from provider " + provider.getName(), e);
+        }
+    }
+
+    private static Provider resolveProvider(String name) {
+        if (name == null || name.isBlank()) {
+            try {
+                return Cipher.getInstance(CIPHER_TRANSFORMATION).getProvider();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("No JCA provider offers " + CIPHER_TRANSFORMATION, e);
+            }
+        }
+        Provider provider = Security.getProvider(name);
+        if (provider == null) {
+            throw new IllegalStateException("JCA provider not installed: " + name);
+        }
+        return provider;
     }
 }
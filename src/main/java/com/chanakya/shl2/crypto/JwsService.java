@@ -1,28 +1,56 @@
 package com.chanakya.shl2.crypto;
 
 import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.util.Base64UrlUtil;
 import com.nimbusds.jose.*;
 import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.ThumbprintUtils;
+import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.util.Base64URL;
 import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * ES256 signing for SMART Health Cards and the matching JWKS. The signing key, its signer and the
+ * serialized JWKS (signing key plus any retired verification keys) form one immutable snapshot,
+ * built at startup and rebuilt only when the key files change, so requests never rebuild JWKs.
+ */
 @Service
-public class JwsService {
+public class JwsService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(JwsService.class);
 
     private final ShlProperties properties;
-    private ECKey signingKey;
-    private String kid;
-    private ECDSASigner signer;
+    private volatile Keys keys;
+    private volatile Disposable reloader;
+
+    /**
+     * The serialized JWKS document and its strong ETag (quoted).
+     */
+    public record Jwks(byte[] json, String eTag) {}
+
+    private record Keys(String kid, ECDSASigner signer, Jwks jwks, int published) {}
 
     public JwsService(ShlProperties properties) {
         this.properties = properties;
@@ -30,15 +58,37 @@ public class JwsService {
 
     @PostConstruct
     public void init() throws Exception {
-        Resource resource = new DefaultResourceLoader().getResource(properties.shc().signingKeyPath());
-        String jwkJson = resource.getContentAsString(StandardCharsets.UTF_8);
-        signingKey = ECKey.parse(jwkJson);
+        keys = loadKeys();
+        log.info("event=shc_keys_loaded kid={} published={}", keys.kid(), keys.published());
+    }
 
-        // Compute kid as base64url SHA-256 of JWK Thumbprint (RFC 7638)
-        Base64URL thumbprint = signingKey.computeThumbprint("SHA-256");
-        kid = thumbprint.toString();
+    /**
+     * Re-reads the key files periodically so a rotated secret is picked up without a restart.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startReloading() {
+        int interval = properties.shc().keyReloadIntervalSeconds();
+        if (interval <= 0) {
+            return;
+        }
+        reloader = Flux.interval(Duration.ofSeconds(interval))
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.fromCallable(this::loadKeys)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .doOnNext(this::swapIfChanged)
+                        .onErrorResume(e -> {
+                            log.warn("event=shc_keys_reload_failed error=\"{}\"", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
 
-        signer = new ECDSASigner(signingKey);
+    @Override
+    public void destroy() {
+        Disposable current = reloader;
+        if (current != null) {
+            current.dispose();
+        }
     }
 
     /**
@@ -46,13 +96,14 @@ public class JwsService {
      * Header: {alg: ES256, zip: DEF, kid: ...}
      */
     public String sign(byte[] deflatedPayload) {
+        Keys current = keys;
         try {
             JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256)
                     .customParam("zip", "DEF")
-                    .keyID(kid)
+                    .keyID(current.kid())
                     .build();
             JWSObject jws = new JWSObject(header, new Payload(deflatedPayload));
-            jws.sign(signer);
+            jws.sign(current.signer());
             return jws.serialize();
         } catch (JOSEException e) {
             throw new RuntimeException("JWS signing failed", e);
@@ -60,14 +111,65 @@ public class JwsService {
     }
 
     /**
-     * Returns the public key as a Map for .well-known/jwks.json.
+     * Returns the precomputed JWKS for .well-known/jwks.json.
      */
-    public Map<String, Object> getPublicJwk() {
-        ECKey publicKey = signingKey.toPublicJWK();
-        Map<String, Object> jwk = publicKey.toJSONObject();
-        jwk.put("kid", kid);
-        jwk.put("use", "sig");
-        jwk.put("alg", "ES256");
-        return jwk;
+    public Jwks jwks() {
+        return keys.jwks();
+    }
+
+    private void swapIfChanged(Keys loaded) {
+        Keys current = keys;
+        if (current.kid().equals(loaded.kid()) && current.jwks().eTag().equals(loaded.jwks().eTag())) {
+            return;
+        }
+        keys = loaded;
+        log.info("event=shc_keys_rotated kid={} previousKid={} published={}",
+                loaded.kid(), current.kid(), loaded.published());
+    }
+
+    private Keys loadKeys() throws Exception {
+        ECKey signingKey = ECKey.parse(read(properties.shc().signingKeyPath()));
+        String kid = kid(signingKey);
+
+        // Published keys by kid, signing key first; a retired key listed twice appears once
+        Map<String, JWK> published = new LinkedHashMap<>();
+        published.put(kid, publicJwk(signingKey, kid));
+        List<String> verificationKeyPaths = properties.shc().verificationKeyPaths();
+        if (verificationKeyPaths != null) {
+            for (String path : verificationKeyPaths) {
+                if (path.isBlank()) {
+                    continue;
+                }
+                ECKey key = ECKey.parse(read(path.strip()));
+                String verificationKid = kid(key);
+                published.putIfAbsent(verificationKid, publicJwk(key, verificationKid));
+            }
+        }
+
+        byte[] json = new JWKSet(List.copyOf(published.values())).toString(true).getBytes(StandardCharsets.UTF_8);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+        String eTag = "\"" + Base64UrlUtil.encode(Arrays.copyOf(digest, 16)) + "\"";
+        return new Keys(kid, new ECDSASigner(signingKey), new Jwks(json, eTag), published.size());
+    }
+
+    /**
+     * kid is the base64url SHA-256 JWK Thumbprint (RFC 7638).
+     */
+    private static String kid(ECKey key) throws JOSEException {
+        Base64URL thumbprint = key.computeThumbprint("SHA-256");
+        return thumbprint.toString();
+    }
+
+    private static JWK publicJwk(ECKey key, String kid) {
+        return new ECKey.Builder(key.toPublicJWK())
+                .keyID(kid)
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.ES256)
+                .build();
+    }
+
+    private static String read(String location) throws Exception {
+        Resource resource = new DefaultResourceLoader().getResource(location);
+        return resource.getContentAsString(StandardCharsets.UTF_8);
     }
 }
@@ -3,6 +3,7 @@ package com.chanakya.shl2.exception;
 import com.chanakya.shl2.model.dto.response.ErrorResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -11,6 +12,7 @@ import org.springframework.web.bind.support.WebExchangeBindException;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @RestControllerAdvice
@@ -73,6 +75,17 @@ public class GlobalExceptionHandler {
                 .body(new ErrorResponse("healthlake_error", "Failed to retrieve health data")));
     }
 
+    /**
+     * A worker scheduler's task queue is full: shed the request instead of queueing it unboundedly.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public Mono<ResponseEntity<ErrorResponse>> handleRejected(RejectedExecutionException ex) {
+        log.warn("event=work_rejected error=\"{}\"", ex.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse("overloaded", "Server is busy, retry shortly")));
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public Mono<ResponseEntity<ErrorResponse>> handleIllegalArgument(IllegalArgumentException ex) {
         return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST)
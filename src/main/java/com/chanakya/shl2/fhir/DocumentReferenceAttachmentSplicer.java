@@ -0,0 +1,343 @@
+package com.chanakya.shl2.fhir;
+
+import com.chanakya.shl2.exception.HealthLakeException;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Streams a DocumentReference searchset Bundle to find and inline {@code Binary/{id}} attachments.
+ * {@link #scan} collects the distinct Binary ids referenced from
+ * {@code entry[].resource.content[].attachment.url}; {@link #splice} copies the bundle verbatim
+ * except for those DocumentReference entries, which are rewritten token by token with each resolved
+ * Binary's base64 payload copied straight from its raw bytes. Neither the bundle nor the Binary
+ * resources are materialized as trees.
+ */
+public class DocumentReferenceAttachmentSplicer {
+
+    private static final Pattern BINARY_REFERENCE = Pattern.compile("Binary/[\\w-]+");
+    private static final String BINARY_PREFIX = "Binary/";
+    /** Upper bound on what inlining adds to an attachment besides its data and contentType. */
+    private static final int ATTACHMENT_OVERHEAD = 32;
+
+    private final ObjectMapper objectMapper;
+
+    public DocumentReferenceAttachmentSplicer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Binary ids to resolve, each with the number of attachments that reference it, and the indexes
+     * of the DocumentReference entries that hold those attachments.
+     */
+    public record Scan(Map<String, Integer> binaryReferences, Set<Integer> documentEntries) {
+
+        public Set<String> binaryIds() {
+            return binaryReferences.keySet();
+        }
+
+        public int references(String binaryId) {
+            return binaryReferences.getOrDefault(binaryId, 0);
+        }
+    }
+
+    /**
+     * A fetched Binary resource: raw JSON bytes plus the range of the base64 data (without quotes).
+     */
+    public record BinaryPayload(byte[] raw, int dataStart, int dataEnd, String contentType) {
+        public int dataLength() {
+            return dataEnd - dataStart;
+        }
+    }
+
+    public Scan scan(byte[] bundle) {
+        Map<String, Integer> binaryReferences = new LinkedHashMap<>();
+        Set<Integer> documentEntries = new HashSet<>();
+
+        try (JsonParser parser = objectMapper.createParser(bundle)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HealthLakeException("FHIR bundle is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"entry".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int index = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    List<String> references = scanEntry(parser);
+                    if (!references.isEmpty()) {
+                        documentEntries.add(index);
+                        for (String reference : references) {
+                            binaryReferences.merge(reference.substring(BINARY_PREFIX.length()), 1, Integer::sum);
+                        }
+                    }
+                    index++;
+                }
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to scan DocumentReference bundle", e);
+        }
+
+        return new Scan(binaryReferences, documentEntries);
+    }
+
+    public BinaryPayload scanBinary(byte[] binary) {
+        int dataStart = -1;
+        int dataEnd = -1;
+        String contentType = null;
+
+        try (JsonParser parser = objectMapper.createParser(binary)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HealthLakeException("Binary resource is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                    FhirSearchPage.Range range = JsonRanges.skipValue(parser, binary);
+                    dataStart = range.start() + 1;
+                    dataEnd = range.end() - 1;
+                } else if ("contentType".equals(field) && value == JsonToken.VALUE_STRING) {
+                    contentType = parser.getString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to parse Binary resource", e);
+        }
+
+        return dataStart < 0 ? null : new BinaryPayload(binary, dataStart, dataEnd, contentType);
+    }
+
+    /**
+     * Rewrites the bundle, replacing each resolved attachment url with its Binary's data and
+     * contentType. Attachments whose Binary is absent from {@code resolved} keep their url, and
+     * everything outside the scanned DocumentReference entries is copied byte for byte.
+     * The result wraps the output buffer, which is sized for the bundle plus every inlined
+     * payload, once per referencing attachment, so the spliced bundle is neither regrown nor
+     * copied on the way out.
+     */
+    public ByteBuffer splice(byte[] bundle, Scan scan, Map<String, BinaryPayload> resolved) {
+        SpliceBuffer out = new SpliceBuffer((int) Math.min(Integer.MAX_VALUE - 8, splicedSize(bundle, scan, resolved)));
+        int copied = 0;
+
+        try (JsonParser parser = objectMapper.createParser(bundle)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"entry".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int index = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (scan.documentEntries().contains(index) && parser.currentToken() == JsonToken.START_OBJECT) {
+                        int start = offset(parser.currentTokenLocation().getByteOffset(), bundle);
+                        out.write(bundle, copied, start - copied);
+                        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                            copyObject(parser, generator, resolved, Level.ENTRY);
+                        }
+                        copied = offset(parser.currentLocation().getByteOffset(), bundle);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    index++;
+                }
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to splice Binary attachments", e);
+        }
+        out.write(bundle, copied, bundle.length - copied);
+
+        return out.contents();
+    }
+
+    /**
+     * The bundle size plus, for every attachment that references a resolved Binary, its data,
+     * its contentType and the member syntax around them. Dropping the url only shrinks it.
+     */
+    private static long splicedSize(byte[] bundle, Scan scan, Map<String, BinaryPayload> resolved) {
+        long size = bundle.length;
+        for (Map.Entry<String, BinaryPayload> binary : resolved.entrySet()) {
+            BinaryPayload payload = binary.getValue();
+            int contentTypeLength = payload.contentType() != null ? payload.contentType().length() : 0;
+            size += (long) scan.references(binary.getKey())
+                    * (payload.dataLength() + contentTypeLength + ATTACHMENT_OVERHEAD);
+        }
+        return size;
+    }
+
+    private static int offset(long byteOffset, byte[] bundle) {
+        if (byteOffset < 0 || byteOffset > bundle.length) {
+            throw new HealthLakeException("Unable to locate entry offsets in FHIR bundle");
+        }
+        return (int) byteOffset;
+    }
+
+    /**
+     * Returns the Binary references of a DocumentReference entry, or an empty list for any other entry.
+     */
+    private List<String> scanEntry(JsonParser parser) {
+        List<String> references = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return references;
+        }
+        boolean documentReference = false;
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (!"resource".equals(field) || value != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String resourceField = parser.currentName();
+                JsonToken resourceValue = parser.nextToken();
+                if ("resourceType".equals(resourceField) && resourceValue == JsonToken.VALUE_STRING) {
+                    documentReference = "DocumentReference".equals(parser.getString());
+                } else if ("content".equals(resourceField) && resourceValue == JsonToken.START_ARRAY) {
+                    scanContent(parser, references);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!documentReference) {
+            references.clear();
+        }
+        return references;
+    }
+
+    private void scanContent(JsonParser parser, List<String> references) {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"attachment".equals(field) || value != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String attachmentField = parser.currentName();
+                    JsonToken attachmentValue = parser.nextToken();
+                    if ("url".equals(attachmentField) && attachmentValue == JsonToken.VALUE_STRING) {
+                        String url = parser.getString();
+                        if (BINARY_REFERENCE.matcher(url).matches()) {
+                            references.add(url);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class SpliceBuffer extends ByteArrayOutputStream {
+
+        SpliceBuffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private enum Level {
+        ENTRY, RESOURCE, CONTENT
+    }
+
+    /**
+     * Copies an entry, resource or content object, descending only along
+     * entry.resource.content[].attachment and copying everything else verbatim.
+     */
+    private void copyObject(JsonParser parser, JsonGenerator generator,
+                            Map<String, BinaryPayload> resolved, Level level) {
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            generator.writeName(field);
+            if (level == Level.ENTRY && "resource".equals(field) && value == JsonToken.START_OBJECT) {
+                copyObject(parser, generator, resolved, Level.RESOURCE);
+            } else if (level == Level.RESOURCE && "content".equals(field) && value == JsonToken.START_ARRAY) {
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        copyObject(parser, generator, resolved, Level.CONTENT);
+                    } else {
+                        generator.copyCurrentStructure(parser);
+                    }
+                }
+                generator.writeEndArray();
+            } else if (level == Level.CONTENT && "attachment".equals(field) && value == JsonToken.START_OBJECT) {
+                copyAttachment(parser, generator, resolved);
+            } else {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void copyAttachment(JsonParser parser, JsonGenerator generator, Map<String, BinaryPayload> resolved) {
+        String url = null;
+        String contentType = null;
+
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("url".equals(field) && value == JsonToken.VALUE_STRING) {
+                url = parser.getString();
+            } else if ("contentType".equals(field) && value == JsonToken.VALUE_STRING) {
+                contentType = parser.getString();
+            } else {
+                generator.writeName(field);
+                generator.copyCurrentStructure(parser);
+            }
+        }
+
+        BinaryPayload payload = url != null && url.startsWith(BINARY_PREFIX)
+                ? resolved.get(url.substring(BINARY_PREFIX.length()))
+                : null;
+        if (payload != null) {
+            String resolvedContentType = payload.contentType() != null ? payload.contentType() : contentType;
+            if (resolvedContentType != null) {
+                generator.writeStringProperty("contentType", resolvedContentType);
+            }
+            generator.writeName("data");
+            generator.writeRawUTF8String(payload.raw(), payload.dataStart(), payload.dataLength());
+        } else {
+            if (contentType != null) {
+                generator.writeStringProperty("contentType", contentType);
+            }
+            if (url != null) {
+                generator.writeStringProperty("url", url);
+            }
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,12 @@
+package com.chanakya.shl2.fhir;
+
+/**
+ * One entry of a FHIR batch-response Bundle: the byte range of its resource and the
+ * response status line (e.g. "200 OK"). The resource range is null when the entry has none.
+ */
+public record FhirBatchEntry(FhirSearchPage.Range resource, String status) {
+
+    public boolean isSuccess() {
+        return resource != null && status != null && status.startsWith("2");
+    }
+}
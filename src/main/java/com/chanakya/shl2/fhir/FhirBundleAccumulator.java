@@ -0,0 +1,87 @@
+package com.chanakya.shl2.fhir;
+
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Merges consecutive FHIR searchset pages into a single Bundle.
+ * Pages arrive pre-scanned by {@link FhirSearchPageScanner}, so each entry is copied once as raw
+ * bytes into a shared output buffer; pagination links are dropped and the final total is written
+ * when the bundle is built. Merge cost is linear in the total number of page bytes.
+ * Not thread-safe — create one instance per pagination pipeline.
+ */
+public class FhirBundleAccumulator {
+
+    private final ObjectMapper objectMapper;
+    private final ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream entryBuffer = new ByteArrayOutputStream();
+    private boolean headerCaptured;
+    private int entryCount;
+
+    public FhirBundleAccumulator(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Appends the entries of a single searchset page.
+     * Top-level fields other than entry, link and total are taken from the first page only.
+     */
+    public FhirBundleAccumulator append(FhirSearchPage page) {
+        byte[] content = page.content();
+
+        if (!headerCaptured) {
+            for (FhirSearchPage.Field field : page.headerFields()) {
+                headerBuffer.writeBytes(objectMapper.writeValueAsBytes(field.name()));
+                headerBuffer.write(':');
+                headerBuffer.write(content, field.value().start(), field.value().length());
+                headerBuffer.write(',');
+            }
+            headerCaptured = true;
+        }
+
+        for (FhirSearchPage.Range entry : page.entries()) {
+            if (entryCount > 0) {
+                entryBuffer.write(',');
+            }
+            entryBuffer.write(content, entry.start(), entry.length());
+            entryCount++;
+        }
+        return this;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Builds the merged Bundle JSON.
+     */
+    public String toJson() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the merged Bundle as UTF-8 JSON bytes.
+     */
+    public byte[] toBytes() {
+        byte[] total = ("\"total\":" + entryCount + ",\"entry\":[").getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream merged = new ByteArrayOutputStream(
+                headerBuffer.size() + total.length + entryBuffer.size() + 3);
+        try {
+            merged.write('{');
+            headerBuffer.writeTo(merged);
+            merged.write(total);
+            entryBuffer.writeTo(merged);
+            merged.write(']');
+            merged.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return merged.toByteArray();
+    }
+}
@@ -0,0 +1,30 @@
+package com.chanakya.shl2.fhir;
+
+import java.util.List;
+
+/**
+ * A single FHIR searchset page as raw UTF-8 bytes, plus the positions of its parts
+ * as located by {@link FhirSearchPageScanner}. Ranges are byte offsets into {@code content}.
+ */
+public record FhirSearchPage(
+        byte[] content,
+        String nextUrl,
+        Integer total,
+        List<Field> headerFields,
+        List<Range> entries
+) {
+    public record Range(int start, int end) {
+        public int length() {
+            return end - start;
+        }
+    }
+
+    /**
+     * A top-level Bundle field other than entry, link and total (e.g. resourceType, id, meta, type).
+     */
+    public record Field(String name, Range value) {}
+
+    public boolean hasNext() {
+        return nextUrl != null;
+    }
+}
@@ -0,0 +1,183 @@
+package com.chanakya.shl2.fhir;
+
+import com.chanakya.shl2.exception.HealthLakeException;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a FHIR searchset page once with the streaming parser, without building a tree.
+ * Extracts the next-page link, the total and the byte range of every entry so pages can be
+ * paginated, counted and merged by copying raw bytes.
+ */
+public class FhirSearchPageScanner {
+
+    private final ObjectMapper objectMapper;
+
+    public FhirSearchPageScanner(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public FhirSearchPage scan(byte[] content) {
+        String nextUrl = null;
+        Integer total = null;
+        List<FhirSearchPage.Field> headerFields = new ArrayList<>();
+        List<FhirSearchPage.Range> entries = new ArrayList<>();
+
+        try (JsonParser parser = objectMapper.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HealthLakeException("FHIR search page is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "entry" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                entries.add(JsonRanges.skipValue(parser, content));
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "link" -> nextUrl = findNextLink(parser, value);
+                    case "total" -> {
+                        if (value == JsonToken.VALUE_NUMBER_INT) {
+                            total = parser.getIntValue();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> headerFields.add(new FhirSearchPage.Field(field, JsonRanges.skipValue(parser, content)));
+                }
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to parse bundle for pagination", e);
+        }
+
+        return new FhirSearchPage(content, nextUrl, total, headerFields, entries);
+    }
+
+    /**
+     * Returns the raw JSON of the entry's {@code resource}, or null when the entry has none.
+     */
+    public String resource(byte[] content, FhirSearchPage.Range entry) {
+        byte[] entryBytes = Arrays.copyOfRange(content, entry.start(), entry.end());
+
+        try (JsonParser parser = objectMapper.createParser(entryBytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("resource".equals(field)) {
+                    FhirSearchPage.Range resource = JsonRanges.skipValue(parser, entryBytes);
+                    return new String(entryBytes, resource.start(), resource.length(), StandardCharsets.UTF_8);
+                }
+                parser.skipChildren();
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to parse bundle entry", e);
+        }
+        return null;
+    }
+
+    /**
+     * Scans a batch-response Bundle and returns its entries in response order.
+     * Each entry's resource is located by byte range so it can be scanned as a page on its own.
+     */
+    public List<FhirBatchEntry> scanBatchResponse(byte[] content) {
+        List<FhirBatchEntry> entries = new ArrayList<>();
+
+        try (JsonParser parser = objectMapper.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HealthLakeException("FHIR batch response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"entry".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    entries.add(scanBatchEntry(parser, content));
+                }
+            }
+        } catch (JacksonException e) {
+            throw new HealthLakeException("Failed to parse batch response", e);
+        }
+
+        return entries;
+    }
+
+    private FhirBatchEntry scanBatchEntry(JsonParser parser, byte[] content) {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return new FhirBatchEntry(null, null);
+        }
+
+        FhirSearchPage.Range resource = null;
+        String status = null;
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("resource".equals(field)) {
+                resource = JsonRanges.skipValue(parser, content);
+            } else if ("response".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String responseField = parser.currentName();
+                    JsonToken token = parser.nextToken();
+                    if ("status".equals(responseField) && token == JsonToken.VALUE_STRING) {
+                        status = parser.getString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new FhirBatchEntry(resource, status);
+    }
+
+    private String findNextLink(JsonParser parser, JsonToken value) {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String nextUrl = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String relation = null;
+            String url = null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_STRING && "relation".equals(field)) {
+                    relation = parser.getString();
+                } else if (token == JsonToken.VALUE_STRING && "url".equals(field)) {
+                    url = parser.getString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (nextUrl == null && "next".equals(relation)) {
+                nextUrl = url;
+            }
+        }
+        return nextUrl;
+    }
+}
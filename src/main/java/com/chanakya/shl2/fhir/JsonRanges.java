@@ -0,0 +1,46 @@
+package com.chanakya.shl2.fhir;
+
+import com.chanakya.shl2.exception.HealthLakeException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+
+/**
+ * Locates raw JSON values by byte offset while streaming, so they can be copied without decoding.
+ */
+final class JsonRanges {
+
+    private JsonRanges() {}
+
+    /**
+     * Skips the value at the parser's current token and returns its byte range in {@code content}.
+     * String values are located by scanning for the closing quote, so large strings (e.g. base64
+     * attachment data) are never decoded; the parser skips them cheaply on the next token.
+     */
+    static FhirSearchPage.Range skipValue(JsonParser parser, byte[] content) {
+        long start = parser.currentTokenLocation().getByteOffset();
+        if (start < 0 || start >= content.length) {
+            throw new HealthLakeException("Unable to locate value offsets in FHIR JSON");
+        }
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            return new FhirSearchPage.Range((int) start, closingQuote(content, (int) start) + 1);
+        }
+        parser.skipChildren();
+        long end = parser.currentLocation().getByteOffset();
+        if (end < start) {
+            throw new HealthLakeException("Unable to locate value offsets in FHIR JSON");
+        }
+        return new FhirSearchPage.Range((int) start, (int) end);
+    }
+
+    private static int closingQuote(byte[] content, int openingQuote) {
+        for (int i = openingQuote + 1; i < content.length; i++) {
+            byte b = content[i];
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                return i;
+            }
+        }
+        throw new HealthLakeException("Unterminated string in FHIR JSON");
+    }
+}
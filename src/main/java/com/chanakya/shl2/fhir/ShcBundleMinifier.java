@@ -0,0 +1,261 @@
+package com.chanakya.shl2.fhir;
+
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minifies a FHIR Bundle for a SMART Health Card while copying it token by token into a generator.
+ * A skim over the entries first collects the {@code resource:N} targets for reference rewriting;
+ * the copy pass then applies every rule as it writes, without building a tree of the bundle:
+ * <ul>
+ *   <li>{@code entry[].fullUrl} becomes {@code resource:N}</li>
+ *   <li>{@code Resource.id} and {@code DomainResource.text} are dropped, {@code Resource.meta}
+ *       keeps only {@code security}</li>
+ *   <li>{@code CodeableConcept.text} and {@code Coding.display} are dropped</li>
+ *   <li>{@code Reference.reference} values pointing at bundle entries become {@code resource:N}</li>
+ * </ul>
+ * Fields may come out in a different order than they went in (e.g. {@code fullUrl} first).
+ */
+public class ShcBundleMinifier {
+
+    private enum Scope { RESOURCE, CODING, OTHER }
+
+    private final ObjectMapper objectMapper;
+
+    public ShcBundleMinifier(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Writes the minified bundle as the generator's next value.
+     */
+    public void write(byte[] bundle, JsonGenerator generator) {
+        Map<String, String> references = referenceTargets(bundle);
+
+        try (JsonParser parser = objectMapper.createParser(bundle)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("FHIR bundle is not a JSON object");
+            }
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                generator.writeName(field);
+                if ("entry".equals(field) && value == JsonToken.START_ARRAY) {
+                    writeEntries(parser, generator, references);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Maps each entry's fullUrl and ResourceType/id to {@code resource:N}, reading only the
+     * first level of every entry and resource.
+     */
+    private Map<String, String> referenceTargets(byte[] bundle) {
+        Map<String, String> references = new HashMap<>();
+        try (JsonParser parser = objectMapper.createParser(bundle)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return references;
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"entry".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int index = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        scanEntry(parser, "resource:" + index, references);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    index++;
+                }
+            }
+        }
+        return references;
+    }
+
+    private static void scanEntry(JsonParser parser, String target, Map<String, String> references) {
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("fullUrl".equals(field) && value == JsonToken.VALUE_STRING) {
+                references.put(parser.getString(), target);
+            } else if ("resource".equals(field) && value == JsonToken.START_OBJECT) {
+                String resourceType = null;
+                String id = null;
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String resourceField = parser.currentName();
+                    JsonToken resourceValue = parser.nextToken();
+                    if ("resourceType".equals(resourceField) && resourceValue == JsonToken.VALUE_STRING) {
+                        resourceType = parser.getString();
+                    } else if ("id".equals(resourceField) && resourceValue == JsonToken.VALUE_STRING) {
+                        id = parser.getString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (resourceType != null && id != null) {
+                    references.put(resourceType + "/" + id, target);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void writeEntries(JsonParser parser, JsonGenerator generator, Map<String, String> references) {
+        generator.writeStartArray();
+        int index = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                generator.copyCurrentStructure(parser);
+                index++;
+                continue;
+            }
+            generator.writeStartObject();
+            generator.writeStringProperty("fullUrl", "resource:" + index);
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("fullUrl".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                generator.writeName(field);
+                if ("resource".equals(field) && value == JsonToken.START_OBJECT) {
+                    writeObject(parser, generator, references, Scope.RESOURCE);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+            index++;
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Copies the object at the parser's START_OBJECT. A string {@code text} is held back until
+     * the object ends, since only a later {@code coding} array may reveal it as a CodeableConcept.
+     */
+    private void writeObject(JsonParser parser, JsonGenerator generator, Map<String, String> references, Scope scope) {
+        generator.writeStartObject();
+        boolean codeableConcept = false;
+        String heldText = null;
+
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if (scope == Scope.RESOURCE && ("id".equals(field) || "text".equals(field))) {
+                parser.skipChildren();
+                continue;
+            }
+            if (scope == Scope.RESOURCE && "meta".equals(field) && value == JsonToken.START_OBJECT) {
+                writeMeta(parser, generator);
+                continue;
+            }
+            if (scope == Scope.CODING && "display".equals(field)) {
+                parser.skipChildren();
+                continue;
+            }
+
+            switch (field) {
+                case "text" -> {
+                    if (codeableConcept) {
+                        parser.skipChildren();
+                    } else if (value == JsonToken.VALUE_STRING) {
+                        heldText = parser.getString();
+                    } else {
+                        generator.writeName(field);
+                        writeValue(parser, generator, references);
+                    }
+                }
+                case "coding" -> {
+                    generator.writeName(field);
+                    if (value == JsonToken.START_ARRAY) {
+                        codeableConcept = true;
+                        heldText = null;
+                        writeCodings(parser, generator, references);
+                    } else {
+                        writeValue(parser, generator, references);
+                    }
+                }
+                case "reference" -> {
+                    generator.writeName(field);
+                    if (value == JsonToken.VALUE_STRING) {
+                        String reference = parser.getString();
+                        generator.writeString(references.getOrDefault(reference, reference));
+                    } else {
+                        writeValue(parser, generator, references);
+                    }
+                }
+                default -> {
+                    generator.writeName(field);
+                    writeValue(parser, generator, references);
+                }
+            }
+        }
+
+        if (heldText != null) {
+            generator.writeStringProperty("text", heldText);
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeCodings(JsonParser parser, JsonGenerator generator, Map<String, String> references) {
+        generator.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                writeObject(parser, generator, references, Scope.CODING);
+            } else {
+                writeValue(parser, generator, references);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeValue(JsonParser parser, JsonGenerator generator, Map<String, String> references) {
+        switch (parser.currentToken()) {
+            case START_OBJECT -> writeObject(parser, generator, references, Scope.OTHER);
+            case START_ARRAY -> {
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    writeValue(parser, generator, references);
+                }
+                generator.writeEndArray();
+            }
+            default -> generator.copyCurrentEvent(parser);
+        }
+    }
+
+    /**
+     * Meta is small, so it is read as a tree to learn whether any security labels survive.
+     */
+    private static void writeMeta(JsonParser parser, JsonGenerator generator) {
+        JsonNode meta = parser.readValueAsTree();
+        JsonNode security = meta.path("security");
+        if (security.isMissingNode() || security.isEmpty()) {
+            return;
+        }
+        generator.writeName("meta");
+        generator.writeStartObject();
+        generator.writeName("security");
+        generator.writeTree(security);
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,49 @@
+package com.chanakya.shl2.model.document;
+
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.JobStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Durable queue entry for an asynchronous SHL creation. leaseUntil is the earliest claim time
+ * while QUEUED and the worker lease while RUNNING; a RUNNING job whose lease has passed belongs
+ * to a worker that died and is claimed again.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "shl_creation_jobs")
+public class ShlCreationJobDocument {
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true)
+    private String shlId;
+
+    @Indexed
+    private JobStatus status;
+
+    private Map<FhirCategory, CategoryProgress> categories;
+
+    private int attempts;
+    private String error;
+
+    private Instant enqueuedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+
+    @Indexed
+    private Instant leaseUntil;
+}
@@ -13,6 +13,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Data
@@ -48,8 +49,17 @@ public class ShlDocument {
     private Instant timeframeStart;
     private Instant timeframeEnd;
 
+    // Per-category HealthLake _lastUpdated watermarks for incremental refresh
+    private Map<FhirCategory, Instant> categoryWatermarks;
+
+    // Per-category resource counts as of the watermark, so incremental refresh notices deletions
+    private Map<FhirCategory, Integer> categoryCounts;
+
     private boolean includeHealthCards;
 
+    // Files are raw-DEFLATE compressed before encryption (JWE zip=DEF)
+    private boolean compressPayload;
+
     private Instant createdAt;
     private Instant updatedAt;
 }
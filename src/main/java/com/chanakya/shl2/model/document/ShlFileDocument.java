@@ -1,5 +1,6 @@
 package com.chanakya.shl2.model.document;
 
+import com.chanakya.shl2.model.enums.FhirCategory;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -23,6 +24,9 @@ public class ShlFileDocument {
     @Indexed
     private String shlId;
 
+    // Category the file was built from; null for the merged U-flag file
+    private FhirCategory category;
+
     private String contentType;
     private String s3Key;
     private long contentLength;
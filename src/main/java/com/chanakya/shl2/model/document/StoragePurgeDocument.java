@@ -0,0 +1,38 @@
+package com.chanakya.shl2.model.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A pending S3 purge: either explicit keys or every object under a prefix.
+ * nextAttemptAt doubles as the worker lease, so a crashed worker's claim is retried once it lapses.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "storage_purges")
+public class StoragePurgeDocument {
+
+    @Id
+    private String id;
+
+    private String prefix;
+    private List<String> keys;
+
+    private int attempts;
+
+    @Indexed
+    private Instant enqueuedAt;
+
+    @Indexed
+    private Instant nextAttemptAt;
+}
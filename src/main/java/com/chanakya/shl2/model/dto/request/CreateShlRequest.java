@@ -20,5 +20,6 @@ public record CreateShlRequest(
         @Size(min = 4, max = 20) String passcode,
         Set<ShlFlag> flags,
         boolean includeHealthCards,
-        boolean generateQrCode
+        boolean generateQrCode,
+        Boolean compressPayload
 ) {}
@@ -0,0 +1,36 @@
+package com.chanakya.shl2.model.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One line of the bulk creation NDJSON stream: the created SHL or the error of the request at
+ * {@code index}, in completion order. The last line carries only the batch summary.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkShlResult(
+        Long index,
+        String patientId,
+        CreateShlResponse shl,
+        ErrorResponse error,
+        Summary summary
+) {
+    public record Summary(
+            long total,
+            long created,
+            long failed,
+            long elapsedMillis,
+            double itemsPerSecond
+    ) {}
+
+    public static BulkShlResult created(long index, String patientId, CreateShlResponse shl) {
+        return new BulkShlResult(index, patientId, shl, null, null);
+    }
+
+    public static BulkShlResult failed(long index, String patientId, ErrorResponse error) {
+        return new BulkShlResult(index, patientId, null, error, null);
+    }
+
+    public static BulkShlResult summary(Summary summary) {
+        return new BulkShlResult(null, null, null, null, summary);
+    }
+}
@@ -0,0 +1,10 @@
+package com.chanakya.shl2.model.dto.response;
+
+import com.chanakya.shl2.model.enums.JobStatus;
+
+public record CreateShlJobResponse(
+        String jobId,
+        String shlUri,
+        String managementToken,
+        JobStatus status
+) {}
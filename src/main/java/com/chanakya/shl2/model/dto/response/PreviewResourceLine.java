@@ -0,0 +1,12 @@
+package com.chanakya.shl2.model.dto.response;
+
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+/**
+ * One line of the NDJSON preview stream: a single FHIR resource, copied verbatim from the HealthLake page.
+ */
+public record PreviewResourceLine(
+        FhirCategory category,
+        @JsonRawValue String resource
+) {}
@@ -0,0 +1,19 @@
+package com.chanakya.shl2.model.dto.response;
+
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.JobStatus;
+
+import java.time.Instant;
+import java.util.Map;
+
+public record ShlCreationJobResponse(
+        String jobId,
+        JobStatus status,
+        Map<FhirCategory, CategoryProgress> categories,
+        int attempts,
+        String error,
+        Instant enqueuedAt,
+        Instant startedAt,
+        Instant finishedAt
+) {}
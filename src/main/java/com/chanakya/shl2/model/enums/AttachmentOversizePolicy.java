@@ -0,0 +1,6 @@
+package com.chanakya.shl2.model.enums;
+
+public enum AttachmentOversizePolicy {
+    KEEP_URL, // Leave the Binary reference unresolved
+    FAIL      // Fail the category fetch
+}
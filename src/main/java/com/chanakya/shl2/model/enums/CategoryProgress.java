@@ -0,0 +1,10 @@
+package com.chanakya.shl2.model.enums;
+
+/**
+ * Per-category progress of an asynchronous SHL creation job.
+ */
+public enum CategoryProgress {
+    PENDING,
+    FETCHED,
+    STORED
+}
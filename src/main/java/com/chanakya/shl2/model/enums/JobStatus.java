@@ -0,0 +1,9 @@
+package com.chanakya.shl2.model.enums;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,6 @@
+package com.chanakya.shl2.model.enums;
+
+public enum RefreshMode {
+    FULL,        // Delete and rebuild every file
+    INCREMENTAL  // Rebuild only files whose categories changed since the last refresh
+}
@@ -1,6 +1,8 @@
 package com.chanakya.shl2.model.enums;
 
 public enum ShlStatus {
+    // Created by an asynchronous job whose files are not stored yet; not served to recipients
+    PENDING,
     ACTIVE,
     REVOKED,
     EXPIRED
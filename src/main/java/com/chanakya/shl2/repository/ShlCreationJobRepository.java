@@ -0,0 +1,13 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.enums.JobStatus;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Mono;
+
+public interface ShlCreationJobRepository extends ReactiveMongoRepository<ShlCreationJobDocument, String>, ShlCreationJobRepositoryCustom {
+
+    Mono<ShlCreationJobDocument> findByShlId(String shlId);
+
+    Mono<Long> countByStatus(JobStatus status);
+}
@@ -0,0 +1,43 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.JobStatus;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public interface ShlCreationJobRepositoryCustom {
+
+    /**
+     * Atomically claims the oldest queued job, or a running job whose lease has lapsed.
+     */
+    Mono<ShlCreationJobDocument> claimNext(Instant now, Duration lease);
+
+    /**
+     * Records a category's progress and extends the lease of the running job. Like the other
+     * updates of a running job, it applies only while the job is RUNNING under the given attempt,
+     * and returns false once the lease has passed to another worker or the job was cancelled.
+     */
+    Mono<Boolean> updateProgress(String jobId, int attempt, FhirCategory category, CategoryProgress progress,
+                                 Instant leaseUntil);
+
+    /**
+     * Extends the lease of the running job without recording progress; false once the lease is lost.
+     */
+    Mono<Boolean> renewLease(String jobId, int attempt, Instant leaseUntil);
+
+    Mono<Boolean> finish(String jobId, int attempt, JobStatus status, String error, Instant finishedAt);
+
+    /**
+     * Returns a failed attempt to the queue, to be claimed again no earlier than {@code notBefore}.
+     */
+    Mono<Boolean> requeue(String jobId, int attempt, String error, Instant notBefore);
+
+    /**
+     * Cancels the SHL's job if it is queued or running; a running worker stops at its next update.
+     */
+    Mono<Void> cancel(String shlId, String reason, Instant finishedAt);
+}
@@ -0,0 +1,107 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.JobStatus;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Repository
+public class ShlCreationJobRepositoryCustomImpl implements ShlCreationJobRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ShlCreationJobRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<ShlCreationJobDocument> claimNext(Instant now, Duration lease) {
+        // Queued jobs carry leaseUntil as their not-before time, so one condition covers both cases
+        Query query = Query.query(
+                Criteria.where("status").in(JobStatus.QUEUED, JobStatus.RUNNING)
+                        .and("leaseUntil").lte(now)
+        ).with(Sort.by(Sort.Direction.ASC, "enqueuedAt"));
+        Update update = new Update()
+                .set("status", JobStatus.RUNNING)
+                .set("startedAt", now)
+                .set("leaseUntil", now.plus(lease))
+                .inc("attempts", 1);
+        return mongoTemplate.findAndModify(
+                query, update,
+                FindAndModifyOptions.options().returnNew(true),
+                ShlCreationJobDocument.class
+        );
+    }
+
+    @Override
+    public Mono<Boolean> updateProgress(String jobId, int attempt, FhirCategory category, CategoryProgress progress,
+                                        Instant leaseUntil) {
+        Update update = new Update()
+                .set("categories." + category.name(), progress)
+                .set("leaseUntil", leaseUntil);
+        return updateRunning(jobId, attempt, update);
+    }
+
+    @Override
+    public Mono<Boolean> renewLease(String jobId, int attempt, Instant leaseUntil) {
+        return updateRunning(jobId, attempt, new Update().set("leaseUntil", leaseUntil));
+    }
+
+    @Override
+    public Mono<Boolean> finish(String jobId, int attempt, JobStatus status, String error, Instant finishedAt) {
+        Update update = new Update()
+                .set("status", status)
+                .set("error", error)
+                .set("finishedAt", finishedAt)
+                .unset("leaseUntil");
+        return updateRunning(jobId, attempt, update);
+    }
+
+    @Override
+    public Mono<Boolean> requeue(String jobId, int attempt, String error, Instant notBefore) {
+        Update update = new Update()
+                .set("status", JobStatus.QUEUED)
+                .set("error", error)
+                .set("leaseUntil", notBefore);
+        return updateRunning(jobId, attempt, update);
+    }
+
+    @Override
+    public Mono<Void> cancel(String shlId, String reason, Instant finishedAt) {
+        Query query = Query.query(
+                Criteria.where("shlId").is(shlId)
+                        .and("status").in(JobStatus.QUEUED, JobStatus.RUNNING)
+        );
+        Update update = new Update()
+                .set("status", JobStatus.CANCELLED)
+                .set("error", reason)
+                .set("finishedAt", finishedAt)
+                .unset("leaseUntil");
+        return mongoTemplate.updateFirst(query, update, ShlCreationJobDocument.class).then();
+    }
+
+    /**
+     * Applies the update only while the job is still RUNNING under the caller's attempt, so a
+     * worker whose lease lapsed cannot overwrite the job after another worker claimed it.
+     */
+    private Mono<Boolean> updateRunning(String jobId, int attempt, Update update) {
+        Query query = Query.query(
+                Criteria.where("_id").is(jobId)
+                        .and("status").is(JobStatus.RUNNING)
+                        .and("attempts").is(attempt)
+        );
+        return mongoTemplate.updateFirst(query, update, ShlCreationJobDocument.class)
+                .map(result -> result.getMatchedCount() > 0);
+    }
+}
@@ -5,9 +5,13 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
 public interface ShlFileRepository extends ReactiveMongoRepository<ShlFileDocument, String> {
 
     Flux<ShlFileDocument> findByShlId(String shlId);
 
     Mono<Void> deleteByShlId(String shlId);
+
+    Mono<Void> deleteByS3KeyIn(Collection<String> s3Keys);
 }
@@ -1,9 +1,28 @@
 package com.chanakya.shl2.repository;
 
 import com.chanakya.shl2.model.document.ShlDocument;
+import com.chanakya.shl2.model.enums.FhirCategory;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.Map;
+
 public interface ShlRepositoryCustom {
 
     Mono<ShlDocument> decrementPasscodeAttempts(String manifestId);
+
+    /**
+     * Flips a PENDING SHL to ACTIVE and records the resource counts its files were built from;
+     * empty if it is no longer PENDING (e.g. revoked meanwhile).
+     */
+    Mono<ShlDocument> activatePending(String shlId, Map<FhirCategory, Integer> categoryCounts, Instant updatedAt);
+
+    /**
+     * Flips a PENDING SHL to REVOKED, e.g. once its creation job has given up; empty if it is no
+     * longer PENDING.
+     */
+    Mono<ShlDocument> revokePending(String shlId, Instant updatedAt);
+
+    Mono<ShlDocument> recordRefresh(String shlId, Map<FhirCategory, Instant> watermarks,
+                                    Map<FhirCategory, Integer> categoryCounts, Instant updatedAt);
 }
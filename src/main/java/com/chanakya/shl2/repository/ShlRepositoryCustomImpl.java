@@ -1,6 +1,8 @@
 package com.chanakya.shl2.repository;
 
 import com.chanakya.shl2.model.document.ShlDocument;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.ShlStatus;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -9,6 +11,9 @@ import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.Map;
+
 @Repository
 public class ShlRepositoryCustomImpl implements ShlRepositoryCustom {
 
@@ -31,4 +36,50 @@ public class ShlRepositoryCustomImpl implements ShlRepositoryCustom {
                 ShlDocument.class
         );
     }
+
+    @Override
+    public Mono<ShlDocument> activatePending(String shlId, Map<FhirCategory, Integer> categoryCounts,
+                                             Instant updatedAt) {
+        Update update = new Update()
+                .set("status", ShlStatus.ACTIVE)
+                .set("updatedAt", updatedAt);
+        setCategoryCounts(update, categoryCounts);
+        return transitionPending(shlId, update);
+    }
+
+    @Override
+    public Mono<ShlDocument> revokePending(String shlId, Instant updatedAt) {
+        return transitionPending(shlId, new Update()
+                .set("status", ShlStatus.REVOKED)
+                .set("updatedAt", updatedAt));
+    }
+
+    private Mono<ShlDocument> transitionPending(String shlId, Update update) {
+        Query query = Query.query(
+                Criteria.where("_id").is(shlId)
+                        .and("status").is(ShlStatus.PENDING)
+        );
+        return mongoTemplate.findAndModify(
+                query, update,
+                FindAndModifyOptions.options().returnNew(true),
+                ShlDocument.class
+        );
+    }
+
+    @Override
+    public Mono<ShlDocument> recordRefresh(String shlId, Map<FhirCategory, Instant> watermarks,
+                                           Map<FhirCategory, Integer> categoryCounts, Instant updatedAt) {
+        Update update = new Update().set("updatedAt", updatedAt);
+        watermarks.forEach((category, watermark) -> update.set("categoryWatermarks." + category.name(), watermark));
+        setCategoryCounts(update, categoryCounts);
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(shlId)), update,
+                FindAndModifyOptions.options().returnNew(true),
+                ShlDocument.class
+        );
+    }
+
+    private static void setCategoryCounts(Update update, Map<FhirCategory, Integer> categoryCounts) {
+        categoryCounts.forEach((category, count) -> update.set("categoryCounts." + category.name(), count));
+    }
 }
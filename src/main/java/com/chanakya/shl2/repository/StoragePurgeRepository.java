@@ -0,0 +1,10 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Mono;
+
+public interface StoragePurgeRepository extends ReactiveMongoRepository<StoragePurgeDocument, String>, StoragePurgeRepositoryCustom {
+
+    Mono<StoragePurgeDocument> findFirstByOrderByEnqueuedAtAsc();
+}
@@ -0,0 +1,15 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public interface StoragePurgeRepositoryCustom {
+
+    /**
+     * Atomically leases the most overdue purge, pushing its nextAttemptAt out by {@code lease}.
+     */
+    Mono<StoragePurgeDocument> claimNext(Instant now, Duration lease);
+}
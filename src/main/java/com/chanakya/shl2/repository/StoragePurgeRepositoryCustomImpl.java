@@ -0,0 +1,38 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Repository
+public class StoragePurgeRepositoryCustomImpl implements StoragePurgeRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public StoragePurgeRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<StoragePurgeDocument> claimNext(Instant now, Duration lease) {
+        Query query = Query.query(Criteria.where("nextAttemptAt").lte(now))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+        Update update = new Update()
+                .set("nextAttemptAt", now.plus(lease))
+                .inc("attempts", 1);
+        return mongoTemplate.findAndModify(
+                query, update,
+                FindAndModifyOptions.options().returnNew(true),
+                StoragePurgeDocument.class
+        );
+    }
+}
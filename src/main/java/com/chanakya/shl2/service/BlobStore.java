@@ -0,0 +1,61 @@
+package com.chanakya.shl2.service;
+
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Storage for encrypted SHL files. {@link S3StorageService} is the default backend;
+ * {@link LocalBlobStore} keeps files on the local filesystem for on-prem and load-test setups.
+ * The backend is chosen with {@code shl.storage.backend}.
+ */
+public interface BlobStore {
+
+    int MAX_KEYS_PER_DELETE = 1000;
+
+    /**
+     * A streamed blob. For 304 and 416 the content is empty; a 416 carries the object's size
+     * in {@code contentRange}, as bytes *&#47;size.
+     */
+    record ObjectStream(HttpStatus status, Flux<ByteBuffer> content, String eTag,
+                        Long contentLength, String contentRange) {}
+
+    /**
+     * Stores the encrypted bytes as-is; callers must not modify the array afterwards.
+     * {@code expirationDate} feeds the backend's retention policy, where it has one.
+     */
+    Mono<String> upload(String key, byte[] encryptedContent, Instant expirationDate);
+
+    /**
+     * Stores a stream of encrypted chunks and returns the number of bytes written.
+     */
+    Mono<Long> upload(String key, Publisher<ByteBuffer> encryptedContent, Instant expirationDate);
+
+    Mono<String> download(String key);
+
+    /**
+     * Streams the blob, honouring a single {@code bytes=} range and an If-None-Match header.
+     * Multi-range and non-byte ranges are ignored and the full blob is returned.
+     */
+    Mono<ObjectStream> downloadStream(String key, String range, String ifNoneMatch);
+
+    /**
+     * A URL from which the recipient can GET the blob without further authentication until
+     * {@code expiry} has passed.
+     */
+    String generateDownloadUrl(String key, Duration expiry);
+
+    Flux<String> listKeys(String prefix);
+
+    /**
+     * Deletes up to {@link #MAX_KEYS_PER_DELETE} keys and returns the keys that could not be
+     * deleted. Keys that do not exist count as deleted.
+     */
+    Mono<List<String>> deleteBatch(List<String> keys);
+}
@@ -0,0 +1,94 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Cache of encrypted file contents embedded in manifests, keyed by S3 key. Only JWE ciphertext is
+ * held, never plaintext. Bounded by total content bytes; with offHeap enabled the contents live in
+ * direct buffers, so -XX:MaxDirectMemorySize must leave room for maxBytes. S3 keys are never
+ * reused, so a replaced file simply ages out, but deletions invalidate eagerly to free the budget.
+ */
+@Component
+public class EmbeddedContentCache {
+
+    private static final String CACHE_NAME = "manifest.content";
+
+    private final Cache<String, ByteBuffer> cache;
+    private final boolean offHeap;
+
+    public EmbeddedContentCache(ShlProperties properties, MeterRegistry meterRegistry) {
+        ShlProperties.ContentCache config = properties.contentCache();
+        this.offHeap = config.offHeap();
+        if (!config.enabled()) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(config.maxBytes())
+                .weigher((String key, ByteBuffer content) -> content.capacity())
+                .expireAfterAccess(Duration.ofSeconds(config.ttlSeconds()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder("shl.manifest.content.cache.bytes", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .register(meterRegistry);
+    }
+
+    public String get(String s3Key) {
+        if (cache == null) {
+            return null;
+        }
+        ByteBuffer cached = cache.getIfPresent(s3Key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.hasArray()) {
+            return new String(cached.array(), StandardCharsets.US_ASCII);
+        }
+        byte[] content = new byte[cached.capacity()];
+        cached.get(0, content);
+        return new String(content, StandardCharsets.US_ASCII);
+    }
+
+    public void put(String s3Key, String content) {
+        if (cache == null) {
+            return;
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = offHeap
+                ? ByteBuffer.allocateDirect(bytes.length).put(0, bytes)
+                : ByteBuffer.wrap(bytes);
+        cache.put(s3Key, buffer);
+    }
+
+    public void invalidate(Collection<String> s3Keys) {
+        if (cache == null) {
+            return;
+        }
+        cache.invalidateAll(s3Keys);
+    }
+
+    /**
+     * Drops every cached file whose key starts with the prefix, e.g. all files of one SHL.
+     */
+    public void invalidatePrefix(String prefix) {
+        if (cache == null) {
+            return;
+        }
+        cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,85 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Short-lived cache of HealthLake category fetches, keyed by (patientId, category, from, to).
+ * Bounded by total bundle bytes and evicted with Caffeine's W-TinyLFU policy. Bundles are held as
+ * UTF-8 bytes rather than Strings. The TTL caps how long PHI stays in memory.
+ */
+@Component
+public class FhirBundleCache {
+
+    private static final String CACHE_NAME = "healthlake.fhir";
+
+    private final Cache<Key, CachedBundle> cache;
+
+    public FhirBundleCache(ShlProperties properties, MeterRegistry meterRegistry) {
+        ShlProperties.Cache config = properties.healthlake().cache();
+        if (!config.enabled()) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(config.maxBytes())
+                .weigher((Key key, CachedBundle value) -> value.bundleUtf8().length)
+                .expireAfterWrite(Duration.ofSeconds(config.ttlSeconds()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder("shl.healthlake.cache.bytes", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .register(meterRegistry);
+    }
+
+    public FhirBundleWrapper get(String patientId, FhirCategory category, Instant from, Instant to) {
+        if (cache == null) {
+            return null;
+        }
+        CachedBundle cached = cache.getIfPresent(new Key(patientId, category, from, to));
+        if (cached == null) {
+            return null;
+        }
+        return FhirBundleWrapper.builder()
+                .category(category)
+                .bundleJson(new String(cached.bundleUtf8(), StandardCharsets.UTF_8))
+                .resourceCount(cached.resourceCount())
+                .build();
+    }
+
+    public void put(String patientId, Instant from, Instant to, FhirBundleWrapper wrapper) {
+        if (cache == null) {
+            return;
+        }
+        cache.put(new Key(patientId, wrapper.getCategory(), from, to),
+                new CachedBundle(wrapper.getBundleJson().getBytes(StandardCharsets.UTF_8), wrapper.getResourceCount()));
+    }
+
+    /**
+     * Drops every cached category for the patient.
+     */
+    public void invalidatePatient(String patientId) {
+        if (cache == null) {
+            return;
+        }
+        cache.asMap().keySet().removeIf(key -> key.patientId().equals(patientId));
+    }
+
+    private record Key(String patientId, FhirCategory category, Instant from, Instant to) {}
+
+    private record CachedBundle(byte[] bundleUtf8, int resourceCount) {}
+}
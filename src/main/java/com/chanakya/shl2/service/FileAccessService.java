@@ -9,15 +9,15 @@ import java.time.Duration;
 @Service
 public class FileAccessService {
 
-    private final S3StorageService s3StorageService;
+    private final BlobStore blobStore;
     private final Duration urlExpiry;
 
-    public FileAccessService(S3StorageService s3StorageService, ShlProperties properties) {
-        this.s3StorageService = s3StorageService;
+    public FileAccessService(BlobStore blobStore, ShlProperties properties) {
+        this.blobStore = blobStore;
         this.urlExpiry = Duration.ofSeconds(properties.fileUrlExpirySeconds());
     }
 
     public String generatePresignedUrl(ShlFileDocument file) {
-        return s3StorageService.generatePresignedGetUrl(file.getS3Key(), urlExpiry);
+        return blobStore.generateDownloadUrl(file.getS3Key(), urlExpiry);
     }
 }
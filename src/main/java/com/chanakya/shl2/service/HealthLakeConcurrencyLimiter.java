@@ -0,0 +1,268 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.exception.HealthLakeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide AIMD concurrency limiter in front of every HealthLake call.
+ * The limit grows by roughly one per limit-window of successful calls and is multiplied by
+ * {@code backoffRatio} whenever HealthLake answers 429 or 503. Other failures and cancelled
+ * calls say nothing about HealthLake's capacity and leave the limit unchanged. Waiting callers are queued per
+ * {@link CallType} and served round-robin, so a burst of Binary fetches cannot starve searches.
+ * Throttled calls are retried with Retry-After-aware, jittered exponential backoff.
+ */
+@Component
+public class HealthLakeConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(HealthLakeConcurrencyLimiter.class);
+
+    public enum CallType {
+        SEARCH,
+        READ,
+        BINARY
+    }
+
+    /**
+     * What a finished call tells the limiter about HealthLake's capacity.
+     */
+    private enum Outcome {
+        SUCCEEDED,
+        CONGESTED,
+        NEUTRAL
+    }
+
+    private final ShlProperties.Limiter config;
+    private final Object lock = new Object();
+    private final Map<CallType, ArrayDeque<Waiter>> queues = new EnumMap<>(CallType.class);
+    private final Map<CallType, Counter> rejections = new EnumMap<>(CallType.class);
+    private final Counter throttled;
+    private final Counter retries;
+
+    private double limit;
+    private int inFlight;
+    private int nextQueue;
+
+    public HealthLakeConcurrencyLimiter(ShlProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.healthlake().limiter();
+        this.limit = config.initialLimit();
+
+        for (CallType type : CallType.values()) {
+            ArrayDeque<Waiter> queue = new ArrayDeque<>();
+            queues.put(type, queue);
+            Gauge.builder("shl.healthlake.limiter.queue.depth", this, limiter -> limiter.queueDepth(type))
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+            rejections.put(type, Counter.builder("shl.healthlake.limiter.rejections")
+                    .tag("type", type.name())
+                    .register(meterRegistry));
+        }
+        Gauge.builder("shl.healthlake.limiter.in_flight", this, HealthLakeConcurrencyLimiter::inFlight)
+                .register(meterRegistry);
+        Gauge.builder("shl.healthlake.limiter.limit", this, HealthLakeConcurrencyLimiter::currentLimit)
+                .register(meterRegistry);
+        this.throttled = Counter.builder("shl.healthlake.limiter.throttled").register(meterRegistry);
+        this.retries = Counter.builder("shl.healthlake.limiter.retries").register(meterRegistry);
+    }
+
+    /**
+     * Runs the call once a permit is available, feeding its outcome back into the limit.
+     * The supplier is invoked again for each retry after a 429/503.
+     */
+    public <T> Mono<T> execute(CallType type, Supplier<Mono<T>> call) {
+        return Mono.usingWhen(
+                        acquire(type),
+                        permit -> call.get(),
+                        permit -> Mono.fromRunnable(() -> permit.release(Outcome.SUCCEEDED)),
+                        (permit, error) -> Mono.fromRunnable(() -> permit.release(
+                                isCongestion(error) ? Outcome.CONGESTED : Outcome.NEUTRAL)),
+                        permit -> Mono.fromRunnable(() -> permit.release(Outcome.NEUTRAL)))
+                .retryWhen(congestionRetry());
+    }
+
+    private Mono<Permit> acquire(CallType type) {
+        return Mono.<Permit>create(sink -> {
+                    Waiter waiter = new Waiter(type, sink);
+                    boolean rejected = false;
+                    synchronized (lock) {
+                        ArrayDeque<Waiter> queue = queues.get(type);
+                        if (queue.size() >= config.maxQueueSize()) {
+                            rejected = true;
+                        } else {
+                            queue.addLast(waiter);
+                        }
+                    }
+                    if (rejected) {
+                        rejections.get(type).increment();
+                        sink.error(new HealthLakeException("HealthLake request queue full for " + type));
+                        return;
+                    }
+                    sink.onCancel(() -> {
+                        synchronized (lock) {
+                            queues.get(type).remove(waiter);
+                        }
+                    });
+                    drain();
+                })
+                // A permit granted concurrently with cancellation is discarded by the sink; give it back
+                .doOnDiscard(Permit.class, permit -> permit.release(Outcome.NEUTRAL))
+                .timeout(Duration.ofSeconds(config.queueTimeoutSeconds()), Mono.defer(() -> {
+                    rejections.get(type).increment();
+                    return Mono.error(new HealthLakeException("Timed out waiting for HealthLake capacity for " + type));
+                }));
+    }
+
+    private void drain() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (lock) {
+            while (inFlight < (int) limit) {
+                Waiter next = pollRoundRobin();
+                if (next == null) {
+                    break;
+                }
+                inFlight++;
+                granted.add(next);
+            }
+        }
+        for (Waiter waiter : granted) {
+            waiter.sink().success(new Permit());
+        }
+    }
+
+    private Waiter pollRoundRobin() {
+        CallType[] types = CallType.values();
+        for (int i = 0; i < types.length; i++) {
+            CallType type = types[(nextQueue + i) % types.length];
+            Waiter waiter = queues.get(type).pollFirst();
+            if (waiter != null) {
+                nextQueue = (nextQueue + i + 1) % types.length;
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private void onRelease(Outcome outcome) {
+        synchronized (lock) {
+            inFlight--;
+            if (outcome == Outcome.CONGESTED) {
+                limit = Math.max(config.minLimit(), limit * config.backoffRatio());
+            } else if (outcome == Outcome.SUCCEEDED) {
+                limit = Math.min(config.maxLimit(), limit + 1.0 / limit);
+            }
+        }
+        if (outcome == Outcome.CONGESTED) {
+            throttled.increment();
+        }
+        drain();
+    }
+
+    private Retry congestionRetry() {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            if (!isCongestion(failure) || signal.totalRetries() >= config.maxRetries()) {
+                return Mono.error(failure);
+            }
+            Duration delay = backoff(signal.totalRetries(), failure);
+            log.warn("event=healthlake_throttled status={} retry={} delayMs={}",
+                    ((WebClientResponseException) failure).getStatusCode().value(),
+                    signal.totalRetries() + 1, delay.toMillis());
+            retries.increment();
+            return Mono.delay(delay);
+        }));
+    }
+
+    /**
+     * Honors Retry-After when present; otherwise full-jitter exponential backoff.
+     */
+    private Duration backoff(long attempt, Throwable failure) {
+        long maxDelay = config.retryMaxDelayMillis();
+        long jitter = ThreadLocalRandom.current().nextLong(config.retryBaseDelayMillis() + 1L);
+
+        Duration retryAfter = retryAfter((WebClientResponseException) failure);
+        if (retryAfter != null) {
+            return Duration.ofMillis(Math.min(maxDelay, retryAfter.toMillis() + jitter));
+        }
+        long ceiling = Math.min(maxDelay, config.retryBaseDelayMillis() * (1L << Math.min(attempt, 20)));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private static Duration retryAfter(WebClientResponseException e) {
+        String value = e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds; fall through to HTTP-date
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(at.getZone()), at);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
+    private static boolean isCongestion(Throwable error) {
+        return error instanceof WebClientResponseException e
+                && (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || e.getStatusCode().value() == HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
+    private int queueDepth(CallType type) {
+        synchronized (lock) {
+            return queues.get(type).size();
+        }
+    }
+
+    private int inFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    private double currentLimit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    private record Waiter(CallType type, MonoSink<Permit> sink) {}
+
+    private final class Permit {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome);
+            }
+        }
+    }
+}
@@ -1,60 +1,185 @@
 package com.chanakya.shl2.service;
 
 import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.crypto.AwsSigV4Signer;
 import com.chanakya.shl2.exception.HealthLakeException;
+import com.chanakya.shl2.fhir.DocumentReferenceAttachmentSplicer;
+import com.chanakya.shl2.fhir.FhirBatchEntry;
+import com.chanakya.shl2.fhir.FhirBundleAccumulator;
+import com.chanakya.shl2.fhir.FhirSearchPage;
+import com.chanakya.shl2.fhir.FhirSearchPageScanner;
+import com.chanakya.shl2.model.dto.response.PreviewResourceLine;
+import com.chanakya.shl2.model.enums.AttachmentOversizePolicy;
 import com.chanakya.shl2.model.enums.FhirCategory;
 import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
-import tools.jackson.databind.JsonNode;
+import com.chanakya.shl2.service.HealthLakeConcurrencyLimiter.CallType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.node.ArrayNode;
 import tools.jackson.databind.node.ObjectNode;
-import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 @Service
 public class HealthLakeService {
 
-    private final ShlProperties properties;
-    private final ObjectMapper objectMapper;
-    private WebClient webClient;
-    private DefaultCredentialsProvider credentialsProvider;
+    private static final Logger log = LoggerFactory.getLogger(HealthLakeService.class);
+
+    /**
+     * Slack allowed on top of maxAttachmentBytes for the Binary resource's JSON envelope.
+     */
+    private static final long BINARY_ENVELOPE_ALLOWANCE = 4096;
 
-    public HealthLakeService(ShlProperties properties, ObjectMapper objectMapper) {
-        this.properties = properties;
+    private final WebClient webClient;
+    private final HealthLakeConcurrencyLimiter concurrencyLimiter;
+    private final FhirBundleCache bundleCache;
+    private final ObjectMapper objectMapper;
+    private final FhirSearchPageScanner pageScanner;
+    private final boolean batchEnabled;
+    private final ShlProperties.Attachments attachmentLimits;
+    private final DocumentReferenceAttachmentSplicer attachmentSplicer;
+    private final Map<FetchKey, Mono<FhirBundleWrapper>> inFlightFetches = new ConcurrentHashMap<>();
+    private final Counter coalescedFetches;
+
+    public HealthLakeService(WebClient healthLakeWebClient,
+                             HealthLakeConcurrencyLimiter concurrencyLimiter,
+                             FhirBundleCache bundleCache,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             ShlProperties properties) {
+        this.webClient = healthLakeWebClient;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.bundleCache = bundleCache;
         this.objectMapper = objectMapper;
+        this.pageScanner = new FhirSearchPageScanner(objectMapper);
+        this.batchEnabled = properties.healthlake().batchEnabled();
+        this.attachmentLimits = properties.healthlake().attachments();
+        this.attachmentSplicer = new DocumentReferenceAttachmentSplicer(objectMapper);
+        this.coalescedFetches = Counter.builder("shl.healthlake.coalesced").register(meterRegistry);
+        Gauge.builder("shl.healthlake.in_flight_fetches", inFlightFetches, Map::size).register(meterRegistry);
     }
 
-    @PostConstruct
-    public void init() {
-        String datastoreId = properties.aws().healthlakeDatastoreId();
-        String region = properties.aws().region();
-        String baseUrl = String.format("https://healthlake.%s.amazonaws.com/datastore/%s/r4",
-                region, datastoreId);
-
-        this.credentialsProvider = DefaultCredentialsProvider.create();
-        this.webClient = WebClient.builder()
-                .baseUrl(baseUrl)
-                .defaultHeader("Content-Type", "application/fhir+json")
-                .build();
+    /**
+     * Fetches FHIR resources for all requested categories.
+     */
+    public Flux<FhirBundleWrapper> fetchResourcesByCategory(
+            String patientId,
+            List<FhirCategory> categories,
+            Instant from,
+            Instant to) {
+        return fetchResourcesByCategory(patientId, categories, from, to, true);
     }
 
     /**
      * Fetches FHIR resources for all requested categories.
+     * With useCache=false, cached bundles are never served; fresh results still refill the cache.
      */
     public Flux<FhirBundleWrapper> fetchResourcesByCategory(
+            String patientId,
+            List<FhirCategory> categories,
+            Instant from,
+            Instant to,
+            boolean useCache) {
+        return Flux.defer(() -> {
+            List<FhirBundleWrapper> cached = new ArrayList<>();
+            List<FhirCategory> toFetch = new ArrayList<>();
+            for (FhirCategory category : categories) {
+                FhirBundleWrapper hit = useCache ? bundleCache.get(patientId, category, from, to) : null;
+                if (hit != null) {
+                    cached.add(hit);
+                } else {
+                    toFetch.add(category);
+                }
+            }
+
+            Flux<FhirBundleWrapper> fetched = batchEnabled && toFetch.size() > 1
+                    ? fetchBatch(patientId, toFetch, from, to)
+                    : Flux.fromIterable(toFetch).flatMap(category -> fetchCategory(patientId, category, from, to));
+            return Flux.fromIterable(cached).concatWith(fetched);
+        });
+    }
+
+    /**
+     * Streams individual resources for the requested categories as each HealthLake page arrives.
+     * Categories are fetched one after another and the next page is only requested once the
+     * current one has been drained, so at most one page is buffered per subscriber; cancelling
+     * the subscription cancels the in-flight request. Binary attachments are not resolved and
+     * nothing is read from or written to the cache.
+     */
+    public Flux<PreviewResourceLine> streamResourcesByCategory(
             String patientId,
             List<FhirCategory> categories,
             Instant from,
             Instant to) {
         return Flux.fromIterable(categories)
-                .flatMap(category -> fetchCategory(patientId, category, from, to));
+                .concatMap(category -> streamCategory(patientId, category, from, to)
+                        .onErrorMap(e -> !(e instanceof HealthLakeException),
+                                e -> new HealthLakeException(
+                                        "Failed to fetch " + category.name() + " for patient " + patientId, e)));
+    }
+
+    /**
+     * Returns the categories whose resources changed since their watermark, and the current
+     * resource count of every other category. A {@code _lastUpdated=gt} count query finds new and
+     * edited resources; deletions leave nothing behind to match it, so a category is also reported
+     * as updated when its current total differs from {@code counts}. Categories without a
+     * watermark or a recorded count are reported as updated without querying.
+     */
+    public Mono<UpdateCheck> findUpdatedCategories(
+            String patientId,
+            List<FhirCategory> categories,
+            Instant from,
+            Instant to,
+            Map<FhirCategory, Instant> watermarks,
+            Map<FhirCategory, Integer> counts) {
+        return Flux.fromIterable(categories)
+                .flatMap(category -> {
+                    Instant since = watermarks.get(category);
+                    Integer recorded = counts.get(category);
+                    if (since == null || recorded == null) {
+                        return Mono.just(new CategoryCheck(category, null));
+                    }
+                    return countIfUnchanged(patientId, category, from, to, since, recorded)
+                            .map(count -> new CategoryCheck(category, count))
+                            .defaultIfEmpty(new CategoryCheck(category, null));
+                })
+                .collect(() -> new UpdateCheck(EnumSet.noneOf(FhirCategory.class), new EnumMap<>(FhirCategory.class)),
+                        (check, category) -> {
+                            if (category.unchangedCount() == null) {
+                                check.updated().add(category.category());
+                            } else {
+                                check.unchangedCounts().put(category.category(), category.unchangedCount());
+                            }
+                        });
+    }
+
+    /**
+     * Drops cached and in-flight fetches for the patient so the next fetch goes to HealthLake.
+     */
+    public void invalidatePatient(String patientId) {
+        inFlightFetches.keySet().removeIf(key -> key.patientId().equals(patientId));
+        bundleCache.invalidatePatient(patientId);
     }
 
     private Mono<FhirBundleWrapper> fetchCategory(
@@ -62,15 +187,150 @@ public class HealthLakeService {
             FhirCategory category,
             Instant from,
             Instant to) {
+        return Mono.defer(() -> coalesce(new FetchKey(patientId, category, from, to),
+                () -> loadCategory(patientId, category, from, to)));
+    }
+
+    /**
+     * Coalesces identical concurrent fetches: callers asking for the same
+     * (patientId, category, from, to) while a fetch is in flight subscribe to that fetch
+     * instead of issuing their own, and the loader is only called when none is. The entry is
+     * dropped as soon as the fetch terminates, so no result outlives the request that produced it.
+     */
+    private Mono<FhirBundleWrapper> coalesce(FetchKey key, Supplier<Mono<FhirBundleWrapper>> loader) {
+        boolean[] created = {false};
+        Mono<FhirBundleWrapper> fetch = inFlightFetches.computeIfAbsent(key, k -> {
+            created[0] = true;
+            AtomicReference<Mono<FhirBundleWrapper>> self = new AtomicReference<>();
+            Mono<FhirBundleWrapper> shared = loader.get()
+                    .doOnNext(wrapper -> {
+                        // Skip the cache if the patient was invalidated while this fetch was running
+                        if (inFlightFetches.get(k) == self.get()) {
+                            bundleCache.put(k.patientId(), k.from(), k.to(), wrapper);
+                        }
+                    })
+                    .doFinally(signal -> inFlightFetches.remove(k, self.get()))
+                    .share();
+            self.set(shared);
+            return shared;
+        });
+        if (!created[0]) {
+            coalescedFetches.increment();
+        }
+        return fetch;
+    }
+
+    private Mono<FhirBundleWrapper> loadCategory(
+            String patientId,
+            FhirCategory category,
+            Instant from,
+            Instant to) {
 
         if (category.isDirectRead()) {
             // Direct read for Patient
-            return fetchResource("/" + category.getFhirResourceType() + "/" + patientId)
+            return fetchResource("/" + category.getFhirResourceType() + "/" + patientId, CallType.READ)
                     .map(json -> wrapAsBundle(category, json))
                     .onErrorMap(e -> new HealthLakeException(
                             "Failed to fetch " + category.name() + " for patient " + patientId, e));
         }
 
+        return paginate(fetchPage(searchPath(patientId, category, from, to)))
+                .flatMap(accumulator -> toWrapper(category, accumulator))
+                .onErrorMap(e -> !(e instanceof HealthLakeException),
+                        e -> new HealthLakeException(
+                                "Failed to fetch " + category.name() + " for patient " + patientId, e));
+    }
+
+    /**
+     * Fetches all categories with a single FHIR batch request, then follows each entry's
+     * pagination individually. Categories already being fetched join that fetch; the rest are
+     * registered as in flight before the batch is sent, so they coalesce and are cached exactly
+     * like single-category fetches. Entries the batch could not serve fall back to a regular search.
+     */
+    private Flux<FhirBundleWrapper> fetchBatch(
+            String patientId,
+            List<FhirCategory> categories,
+            Instant from,
+            Instant to) {
+        return Flux.defer(() -> {
+            List<FhirCategory> batched = new ArrayList<>();
+            Mono<BatchResponse> response = Mono.defer(() -> postBatch(patientId, List.copyOf(batched), from, to))
+                    .cache();
+            List<Mono<FhirBundleWrapper>> fetches = new ArrayList<>(categories.size());
+            for (FhirCategory category : categories) {
+                fetches.add(coalesce(new FetchKey(patientId, category, from, to), () -> {
+                    int index = batched.size();
+                    batched.add(category);
+                    return response.flatMap(batch -> loadBatchEntry(patientId, category, from, to, batch, index));
+                }));
+            }
+            return Flux.merge(fetches);
+        });
+    }
+
+    private Mono<BatchResponse> postBatch(
+            String patientId,
+            List<FhirCategory> categories,
+            Instant from,
+            Instant to) {
+        byte[] body = buildBatchBundle(patientId, categories, from, to);
+
+        return concurrencyLimiter.execute(CallType.SEARCH, () -> webClient.post()
+                        .uri("/")
+                        .attribute(AwsSigV4Signer.PAYLOAD_ATTRIBUTE, body)
+                        .bodyValue(body)
+                        .retrieve()
+                        .bodyToMono(byte[].class))
+                .onErrorMap(e -> !(e instanceof HealthLakeException),
+                        e -> new HealthLakeException("Failed to fetch batch for patient " + patientId, e))
+                .flatMap(content -> {
+                    List<FhirBatchEntry> entries = pageScanner.scanBatchResponse(content);
+                    if (entries.size() != categories.size()) {
+                        return Mono.error(new HealthLakeException("Batch response has " + entries.size()
+                                + " entries for " + categories.size() + " requests"));
+                    }
+                    return Mono.just(new BatchResponse(content, entries));
+                });
+    }
+
+    private Mono<FhirBundleWrapper> loadBatchEntry(
+            String patientId,
+            FhirCategory category,
+            Instant from,
+            Instant to,
+            BatchResponse batch,
+            int index) {
+        FhirBatchEntry entry = batch.entries().get(index);
+        if (!entry.isSuccess()) {
+            // This fetch already owns the in-flight entry, so load directly rather than coalescing onto itself
+            return loadCategory(patientId, category, from, to);
+        }
+        byte[] resource = Arrays.copyOfRange(batch.content(), entry.resource().start(), entry.resource().end());
+        Mono<FhirBundleWrapper> wrapper = category.isDirectRead()
+                ? Mono.fromCallable(() -> wrapAsBundle(category, new String(resource, StandardCharsets.UTF_8)))
+                : paginate(Mono.fromCallable(() -> pageScanner.scan(resource)))
+                        .flatMap(accumulator -> toWrapper(category, accumulator));
+        return wrapper.onErrorMap(e -> !(e instanceof HealthLakeException),
+                e -> new HealthLakeException("Failed to fetch " + category.name() + " for patient " + patientId, e));
+    }
+
+    private byte[] buildBatchBundle(String patientId, List<FhirCategory> categories, Instant from, Instant to) {
+        ObjectNode batch = objectMapper.createObjectNode();
+        batch.put("resourceType", "Bundle");
+        batch.put("type", "batch");
+        ArrayNode entries = batch.putArray("entry");
+        for (FhirCategory category : categories) {
+            String url = category.isDirectRead()
+                    ? category.getFhirResourceType() + "/" + patientId
+                    : searchPath(patientId, category, from, to).substring(1);
+            ObjectNode request = entries.addObject().putObject("request");
+            request.put("method", "GET");
+            request.put("url", url);
+        }
+        return objectMapper.writeValueAsBytes(batch);
+    }
+
+    private String searchPath(String patientId, FhirCategory category, Instant from, Instant to) {
         String searchParams = category.buildSearchParams(patientId);
         if (from != null) {
             searchParams += "&date=ge" + from;
@@ -78,80 +338,134 @@ public class HealthLakeService {
         if (to != null) {
             searchParams += "&date=le" + to;
         }
+        return "/" + category.getFhirResourceType() + "?" + searchParams;
+    }
 
-        String path = "/" + category.getFhirResourceType() + "?" + searchParams;
+    private Flux<PreviewResourceLine> streamCategory(
+            String patientId,
+            FhirCategory category,
+            Instant from,
+            Instant to) {
+        if (category.isDirectRead()) {
+            return fetchResource("/" + category.getFhirResourceType() + "/" + patientId, CallType.READ)
+                    .map(json -> new PreviewResourceLine(category, json))
+                    .flux();
+        }
 
-        return fetchBundleWithPagination(path)
-                .flatMap(bundleJson -> {
-                    int count = countResources(bundleJson);
-                    Mono<String> resolvedBundle = (category == FhirCategory.CLINICAL_DOCUMENTS)
-                            ? resolveDocumentReferenceBinaries(bundleJson)
-                            : Mono.just(bundleJson);
-                    return resolvedBundle.map(resolved -> FhirBundleWrapper.builder()
-                            .category(category)
-                            .bundleJson(resolved)
-                            .resourceCount(count)
-                            .build());
-                })
-                .onErrorMap(e -> !(e instanceof HealthLakeException),
-                        e -> new HealthLakeException(
-                                "Failed to fetch " + category.name() + " for patient " + patientId, e));
+        // Each page's lines are followed by a step naming the next page; expand subscribes to that
+        // step's fetch only after the page is drained, so a page is fetched only when a line of it
+        // is requested and no page is prefetched ahead of the subscriber
+        return Mono.just(StreamStep.next(searchPath(patientId, category, from, to)))
+                .expand(step -> step.nextPath() != null ? pageSteps(category, step.nextPath()) : Flux.empty())
+                .mapNotNull(StreamStep::line);
     }
 
-    private Mono<String> fetchResource(String path) {
-        return webClient.get()
-                .uri(path)
-                .retrieve()
-                .bodyToMono(String.class);
+    private Flux<StreamStep> pageSteps(FhirCategory category, String path) {
+        // Mono.just holds the fetch back until the step is requested
+        return Mono.just(path)
+                .flatMap(this::fetchPage)
+                .flatMapMany(page -> {
+                    Flux<StreamStep> lines = Flux.fromIterable(page.entries())
+                            .mapNotNull(entry -> pageScanner.resource(page.content(), entry))
+                            .map(resource -> StreamStep.line(new PreviewResourceLine(category, resource)));
+                    return page.hasNext()
+                            ? lines.concatWith(Mono.just(StreamStep.next(extractPath(page.nextUrl()))))
+                            : lines;
+                });
     }
 
-    private Mono<String> fetchBundleWithPagination(String path) {
-        return fetchResource(path)
-                .expand(bundleJson -> {
-                    try {
-                        JsonNode bundle = objectMapper.readTree(bundleJson);
-                        JsonNode links = bundle.path("link");
-                        for (JsonNode link : links) {
-                            if ("next".equals(link.path("relation").asText())) {
-                                String nextUrl = link.path("url").asText();
-                                return fetchResource(extractPath(nextUrl));
-                            }
-                        }
-                    } catch (Exception e) {
-                        return Mono.error(new HealthLakeException("Failed to parse bundle for pagination", e));
-                    }
-                    return Mono.empty();
-                })
-                .reduce(this::mergeBundles);
-    }
+    /**
+     * An element of a streamed category: a resource line, or the path of the page after it.
+     */
+    /**
+     * Result of {@link #findUpdatedCategories}: the categories to rebuild, and the current resource
+     * count of each category found unchanged.
+     */
+    public record UpdateCheck(Set<FhirCategory> updated, Map<FhirCategory, Integer> unchangedCounts) {}
 
-    private String mergeBundles(String bundle1, String bundle2) {
-        try {
-            ObjectNode b1 = (ObjectNode) objectMapper.readTree(bundle1);
-            JsonNode b2 = objectMapper.readTree(bundle2);
+    private record CategoryCheck(FhirCategory category, Integer unchangedCount) {}
 
-            ArrayNode entries1 = b1.has("entry")
-                    ? (ArrayNode) b1.get("entry")
-                    : b1.putArray("entry");
+    private record StreamStep(PreviewResourceLine line, String nextPath) {
 
-            JsonNode entries2 = b2.path("entry");
-            if (entries2.isArray()) {
-                for (JsonNode entry : entries2) {
-                    entries1.add(entry);
-                }
-            }
+        static StreamStep line(PreviewResourceLine line) {
+            return new StreamStep(line, null);
+        }
 
-            // Update total
-            int total = entries1.size();
-            b1.put("total", total);
+        static StreamStep next(String path) {
+            return new StreamStep(null, path);
+        }
+    }
 
-            // Remove pagination links
-            b1.remove("link");
+    /**
+     * Emits the category's current total if nothing was added, edited or deleted since
+     * {@code since}, and completes empty otherwise. The total is only queried once the
+     * {@code _lastUpdated} check finds no updates.
+     */
+    private Mono<Integer> countIfUnchanged(
+            String patientId,
+            FhirCategory category,
+            Instant from,
+            Instant to,
+            Instant since,
+            int recorded) {
+        String path = category.isDirectRead()
+                ? "/" + category.getFhirResourceType() + "?_id=" + patientId
+                : searchPath(patientId, category, from, to);
+        return fetchPage(path + "&_lastUpdated=gt" + since + "&_summary=count")
+                // Without a total, assume the category changed
+                .filter(updates -> updates.total() != null && updates.total() == 0)
+                .flatMap(updates -> fetchPage(path + "&_summary=count"))
+                .mapNotNull(FhirSearchPage::total)
+                // A changed total with no updates means resources were deleted
+                .filter(total -> total == recorded)
+                .onErrorMap(e -> !(e instanceof HealthLakeException),
+                        e -> new HealthLakeException(
+                                "Failed to check " + category.name() + " for updates for patient " + patientId, e));
+    }
 
-            return objectMapper.writeValueAsString(b1);
-        } catch (Exception e) {
-            throw new HealthLakeException("Failed to merge bundles", e);
+    private Mono<FhirBundleWrapper> toWrapper(FhirCategory category, FhirBundleAccumulator accumulator) {
+        int count = accumulator.getEntryCount();
+        if (category == FhirCategory.CLINICAL_DOCUMENTS) {
+            return resolveDocumentReferenceBinaries(accumulator.toBytes())
+                    .map(resolved -> FhirBundleWrapper.builder()
+                            .category(category)
+                            .bundleJson(new String(resolved.array(), resolved.arrayOffset() + resolved.position(),
+                                    resolved.remaining(), StandardCharsets.UTF_8))
+                            .resourceCount(count)
+                            .build());
         }
+        return Mono.just(FhirBundleWrapper.builder()
+                .category(category)
+                .bundleJson(accumulator.toJson())
+                .resourceCount(count)
+                .build());
+    }
+
+    private Mono<String> fetchResource(String path, CallType callType) {
+        return concurrencyLimiter.execute(callType, () -> webClient.get()
+                .uri(path)
+                .retrieve()
+                .bodyToMono(String.class));
+    }
+
+    private Mono<FhirSearchPage> fetchPage(String path) {
+        return concurrencyLimiter.execute(CallType.SEARCH, () -> webClient.get()
+                        .uri(path)
+                        .retrieve()
+                        .bodyToMono(byte[].class))
+                .map(pageScanner::scan);
+    }
+
+    /**
+     * Follows next links from the first page and merges every page into a single Bundle.
+     * Each page is scanned once; the accumulator copies entry bytes without re-parsing.
+     */
+    private Mono<FhirBundleAccumulator> paginate(Mono<FhirSearchPage> firstPage) {
+        return firstPage
+                .expand(page -> page.hasNext()
+                        ? fetchPage(extractPath(page.nextUrl()))
+                        : Mono.empty())
+                .reduceWith(() -> new FhirBundleAccumulator(objectMapper), FhirBundleAccumulator::append);
     }
 
     private FhirBundleWrapper wrapAsBundle(FhirCategory category, String resourceJson) {
@@ -178,95 +492,94 @@ public class HealthLakeService {
 
     /**
      * Resolves Binary references in DocumentReference resources.
-     * For each content[].attachment with a relative Binary URL, fetches and embeds the data.
+     * Each distinct Binary is fetched once with bounded concurrency and its base64 data is spliced
+     * into every attachment that references it, so it is charged to the per-bundle budget once per
+     * reference. Attachments over the per-attachment cap or the per-bundle budget keep their url
+     * or fail the fetch, per the configured oversize policy.
+     * Binaries that cannot be fetched keep their url.
      */
-    private Mono<String> resolveDocumentReferenceBinaries(String bundleJson) {
-        ObjectNode bundle;
-        try {
-            bundle = (ObjectNode) objectMapper.readTree(bundleJson);
-        } catch (Exception e) {
-            return Mono.just(bundleJson);
-        }
-
-        JsonNode entries = bundle.path("entry");
-        if (!entries.isArray()) {
-            return Mono.just(bundleJson);
-        }
-
-        // Collect all Binary fetch tasks
-        java.util.List<Mono<Void>> fetchTasks = new java.util.ArrayList<>();
-
-        for (JsonNode entry : entries) {
-            JsonNode resource = entry.path("resource");
-            if (!"DocumentReference".equals(resource.path("resourceType").asText())) {
-                continue;
+    private Mono<ByteBuffer> resolveDocumentReferenceBinaries(byte[] bundle) {
+        return Mono.defer(() -> {
+            DocumentReferenceAttachmentSplicer.Scan scan;
+            try {
+                scan = attachmentSplicer.scan(bundle);
+            } catch (HealthLakeException e) {
+                return Mono.just(ByteBuffer.wrap(bundle));
             }
-
-            JsonNode contentArray = resource.path("content");
-            if (!contentArray.isArray()) {
-                continue;
+            if (scan.binaryIds().isEmpty()) {
+                return Mono.just(ByteBuffer.wrap(bundle));
             }
 
-            for (JsonNode content : contentArray) {
-                ObjectNode attachment = (ObjectNode) content.path("attachment");
-                if (attachment.isMissingNode()) {
-                    continue;
-                }
+            AtomicLong remainingBudget = new AtomicLong(attachmentLimits.maxBundleBytes());
+            return Flux.fromIterable(scan.binaryIds())
+                    .flatMap(binaryId -> fetchBinary(binaryId)
+                                    .flatMap(payload -> admitAttachment(binaryId, payload, scan.references(binaryId),
+                                            remainingBudget))
+                                    .map(payload -> Map.entry(binaryId, payload)),
+                            attachmentLimits.concurrency())
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                    .map(resolved -> resolved.isEmpty() ? ByteBuffer.wrap(bundle) : attachmentSplicer.splice(bundle, scan, resolved));
+        });
+    }
 
-                String url = attachment.path("url").asText(null);
-                if (url != null && url.matches("Binary/[\\w-]+")) {
-                    Mono<Void> fetchTask = fetchResource("/" + url)
-                            .flatMap(binaryJson -> {
-                                try {
-                                    JsonNode binary = objectMapper.readTree(binaryJson);
-                                    String data = binary.path("data").asText(null);
-                                    String binaryContentType = binary.path("contentType").asText(null);
-                                    if (data != null) {
-                                        attachment.put("data", data);
-                                    }
-                                    if (binaryContentType != null) {
-                                        attachment.put("contentType", binaryContentType);
-                                    }
-                                    attachment.remove("url");
-                                } catch (Exception e) {
-                                    // Keep the reference as-is if parsing fails
-                                }
-                                return Mono.<Void>empty();
-                            })
-                            .onErrorResume(e -> Mono.empty());
-                    fetchTasks.add(fetchTask);
-                }
-            }
-        }
+    private Mono<DocumentReferenceAttachmentSplicer.BinaryPayload> fetchBinary(String binaryId) {
+        long maxResponseBytes = attachmentLimits.maxAttachmentBytes() + BINARY_ENVELOPE_ALLOWANCE;
+        return concurrencyLimiter.execute(CallType.BINARY, () -> webClient.get()
+                        .uri("/Binary/{id}", binaryId)
+                        .exchangeToMono(response -> {
+                            if (response.statusCode().isError()) {
+                                return response.createError();
+                            }
+                            // Skip the download when the declared size already exceeds the cap
+                            if (response.headers().contentLength().orElse(0L) > maxResponseBytes) {
+                                return response.releaseBody()
+                                        .then(Mono.error(new AttachmentTooLargeException(binaryId)));
+                            }
+                            return response.bodyToMono(byte[].class);
+                        }))
+                .mapNotNull(attachmentSplicer::scanBinary)
+                .onErrorResume(e -> !(e instanceof AttachmentTooLargeException), e -> {
+                    log.warn("event=binary_fetch_failed binaryId={} error=\"{}\"", binaryId, e.getMessage());
+                    return Mono.empty();
+                })
+                .onErrorResume(AttachmentTooLargeException.class,
+                        e -> oversize(binaryId, "declared size exceeds max attachment bytes"));
+    }
 
-        if (fetchTasks.isEmpty()) {
-            return Mono.just(bundleJson);
+    private Mono<DocumentReferenceAttachmentSplicer.BinaryPayload> admitAttachment(
+            String binaryId,
+            DocumentReferenceAttachmentSplicer.BinaryPayload payload,
+            int references,
+            AtomicLong remainingBudget) {
+        if (payload.dataLength() > attachmentLimits.maxAttachmentBytes()) {
+            return oversize(binaryId, "data exceeds max attachment bytes");
         }
+        long inlined = (long) payload.dataLength() * references;
+        if (remainingBudget.addAndGet(-inlined) < 0) {
+            remainingBudget.addAndGet(inlined);
+            return oversize(binaryId, "bundle attachment budget exhausted");
+        }
+        return Mono.just(payload);
+    }
 
-        return Flux.merge(fetchTasks)
-                .then(Mono.fromCallable(() -> {
-                    try {
-                        return objectMapper.writeValueAsString(bundle);
-                    } catch (Exception e) {
-                        return bundleJson;
-                    }
-                }));
+    private <T> Mono<T> oversize(String binaryId, String reason) {
+        if (attachmentLimits.oversizePolicy() == AttachmentOversizePolicy.FAIL) {
+            return Mono.error(new HealthLakeException("Binary/" + binaryId + " not inlined: " + reason));
+        }
+        log.warn("event=binary_attachment_skipped binaryId={} reason=\"{}\"", binaryId, reason);
+        return Mono.empty();
     }
 
-    private int countResources(String bundleJson) {
-        try {
-            JsonNode bundle = objectMapper.readTree(bundleJson);
-            JsonNode total = bundle.path("total");
-            if (!total.isMissingNode()) {
-                return total.asInt();
-            }
-            JsonNode entries = bundle.path("entry");
-            return entries.isArray() ? entries.size() : 0;
-        } catch (Exception e) {
-            return 0;
+    private static final class AttachmentTooLargeException extends RuntimeException {
+        AttachmentTooLargeException(String binaryId) {
+            super("Binary/" + binaryId + " exceeds max attachment bytes", null, false, false);
         }
     }
 
+    private record FetchKey(String patientId, FhirCategory category, Instant from, Instant to) {}
+
+    private record BatchResponse(byte[] content, List<FhirBatchEntry> entries) {}
+
     private String extractPath(String fullUrl) {
         // Extract the path portion from a full HealthLake URL
         int r4Index = fullUrl.indexOf("/r4");
@@ -0,0 +1,333 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.util.Base64UrlUtil;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Filesystem blob store for on-prem deployments and load tests. Writes go through a FileChannel
+ * to a temporary file that is atomically renamed into place, so readers never see partial blobs.
+ * Reads are served from memory-mapped chunks, which Netty writes to the socket without copying
+ * through the heap. Download URLs are HMAC-SHA256 signed over key and expiry and are served by
+ * {@code BlobController}. There is no lifecycle policy: files stay until purged.
+ */
+@Service
+@ConditionalOnProperty(name = "shl.storage.backend", havingValue = "local")
+public class LocalBlobStore implements BlobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalBlobStore.class);
+
+    public static final String DOWNLOAD_PATH = "/api/shl/blob";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final String PART_SUFFIX = ".part";
+    private static final Pattern BYTE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final Path root;
+    private final SecretKeySpec signingKey;
+    private final int chunkSize;
+    private final String downloadUrl;
+
+    private record PartFile(Path target, Path part, FileChannel channel) {}
+
+    public LocalBlobStore(ShlProperties properties) {
+        ShlProperties.Local config = properties.storage().local();
+        byte[] secret = config.signingSecret() != null
+                ? config.signingSecret().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        if (secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("shl.storage.local.signing-secret must be at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        this.signingKey = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.chunkSize = config.mmapChunkBytes();
+        this.root = Path.of(config.root()).toAbsolutePath().normalize();
+        this.downloadUrl = properties.baseUrl() + DOWNLOAD_PATH;
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create blob root " + root, e);
+        }
+        log.info("event=blob_store_local root={}", root);
+    }
+
+    @Override
+    public Mono<String> upload(String key, byte[] encryptedContent, Instant expirationDate) {
+        return Mono.usingWhen(
+                        Mono.fromCallable(() -> openPart(key)),
+                        file -> Mono.fromCallable(() -> writeFully(file.channel(), ByteBuffer.wrap(encryptedContent))),
+                        this::commit,
+                        (file, e) -> discard(file),
+                        this::discard)
+                .thenReturn(key)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Long> upload(String key, Publisher<ByteBuffer> encryptedContent, Instant expirationDate) {
+        return Mono.usingWhen(
+                        Mono.fromCallable(() -> openPart(key)).subscribeOn(Schedulers.boundedElastic()),
+                        file -> Flux.from(encryptedContent)
+                                .publishOn(Schedulers.boundedElastic())
+                                .reduce(0L, (total, chunk) -> total + writeFully(file.channel(), chunk)),
+                        this::commit,
+                        (file, e) -> discard(file),
+                        this::discard);
+    }
+
+    @Override
+    public Mono<String> download(String key) {
+        return Mono.fromCallable(() -> Files.readString(resolve(key), StandardCharsets.US_ASCII))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Opens the blob and emits it as read-only mapped chunks of {@code mmap-chunk-bytes}. The
+     * ETag is derived from size and modification time, which change on every rewrite.
+     */
+    @Override
+    public Mono<ObjectStream> downloadStream(String key, String range, String ifNoneMatch) {
+        return Mono.fromCallable(() -> {
+                    Path path = resolve(key);
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    long size = attributes.size();
+                    String eTag = "\"" + Long.toHexString(size) + "-"
+                            + Long.toHexString(attributes.lastModifiedTime().toMillis()) + "\"";
+                    if (ifNoneMatch != null && matchesETag(ifNoneMatch, eTag)) {
+                        return new ObjectStream(HttpStatus.NOT_MODIFIED, Flux.empty(), eTag, null, null);
+                    }
+
+                    Matcher matcher = range != null && range.indexOf(',') < 0 ? BYTE_RANGE.matcher(range) : null;
+                    if (matcher == null || !matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                        return new ObjectStream(HttpStatus.OK, mapped(path, 0, size), eTag, size, null);
+                    }
+                    long start;
+                    long end;
+                    if (matcher.group(1).isEmpty()) {
+                        long suffix = Long.parseLong(matcher.group(2));
+                        start = Math.max(0, size - suffix);
+                        end = size - 1;
+                    } else {
+                        start = Long.parseLong(matcher.group(1));
+                        end = matcher.group(2).isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(matcher.group(2)));
+                    }
+                    if (start >= size || start > end) {
+                        return new ObjectStream(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, Flux.empty(), eTag, null,
+                                "bytes */" + size);
+                    }
+                    long length = end - start + 1;
+                    return new ObjectStream(HttpStatus.PARTIAL_CONTENT, mapped(path, start, length), eTag, length,
+                            "bytes " + start + "-" + end + "/" + size);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public String generateDownloadUrl(String key, Duration expiry) {
+        long expires = Instant.now().plus(expiry).getEpochSecond();
+        return downloadUrl
+                + "?key=" + URLEncoder.encode(key, StandardCharsets.UTF_8)
+                + "&expires=" + expires
+                + "&signature=" + sign(key, expires);
+    }
+
+    /**
+     * True if the signature was issued by {@link #generateDownloadUrl} for this key and expiry
+     * and the expiry has not passed.
+     */
+    public boolean verifyDownloadUrl(String key, long expires, String signature) {
+        if (Instant.now().getEpochSecond() > expires) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                sign(key, expires).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public Flux<String> listKeys(String prefix) {
+        int slash = prefix.lastIndexOf('/');
+        Path base = slash < 0 ? root : resolve(prefix.substring(0, slash));
+        return Flux.using(
+                        () -> Files.exists(base) ? Files.walk(base) : Stream.<Path>empty(),
+                        paths -> Flux.fromStream(paths
+                                .filter(Files::isRegularFile)
+                                .map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+                                .filter(key -> key.startsWith(prefix))),
+                        Stream::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<List<String>> deleteBatch(List<String> keys) {
+        if (keys.size() > MAX_KEYS_PER_DELETE) {
+            return Mono.error(new IllegalArgumentException("At most " + MAX_KEYS_PER_DELETE + " keys per delete"));
+        }
+        return Mono.fromCallable(() -> {
+                    List<String> failed = new ArrayList<>();
+                    for (String key : keys) {
+                        try {
+                            Path path = resolve(key);
+                            Files.deleteIfExists(path);
+                            deleteEmptyParent(path);
+                        } catch (IOException | IllegalArgumentException e) {
+                            log.warn("event=blob_delete_failed key={} error=\"{}\"", key, e.getMessage());
+                            failed.add(key);
+                        }
+                    }
+                    return failed;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return path;
+    }
+
+    private PartFile openPart(String key) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path part = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + PART_SUFFIX);
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return new PartFile(target, part, channel);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer chunk) {
+        long written = 0;
+        try {
+            while (chunk.hasRemaining()) {
+                written += channel.write(chunk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return written;
+    }
+
+    private Mono<Void> commit(PartFile file) {
+        return Mono.<Void>fromRunnable(() -> {
+                    try {
+                        file.channel().close();
+                        Files.move(file.part(), file.target(),
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<Void> discard(PartFile file) {
+        return Mono.<Void>fromRunnable(() -> {
+                    try {
+                        file.channel().close();
+                        Files.deleteIfExists(file.part());
+                    } catch (IOException e) {
+                        log.warn("event=blob_part_cleanup_failed part={} error=\"{}\"", file.part(), e.getMessage());
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void deleteEmptyParent(Path path) throws IOException {
+        Path parent = path.getParent();
+        if (parent != null && !parent.equals(root)) {
+            try {
+                Files.deleteIfExists(parent);
+            } catch (DirectoryNotEmptyException ignored) {
+                // Other blobs under the same prefix remain
+            }
+        }
+    }
+
+    /**
+     * Maps {@code [start, start + length)} chunk by chunk as subscribers request it. Mapped
+     * buffers stay valid after the channel is closed.
+     */
+    private Flux<ByteBuffer> mapped(Path path, long start, long length) {
+        return Flux.using(
+                () -> FileChannel.open(path, StandardOpenOption.READ),
+                channel -> Flux.<ByteBuffer, Long>generate(() -> 0L, (offset, sink) -> {
+                    if (offset >= length) {
+                        sink.complete();
+                        return offset;
+                    }
+                    int size = (int) Math.min(chunkSize, length - offset);
+                    try {
+                        sink.next(channel.map(FileChannel.MapMode.READ_ONLY, start + offset, size));
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                    return offset + size;
+                }),
+                channel -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Read-only channel; nothing to flush
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String sign(String key, long expires) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(signingKey);
+            return Base64UrlUtil.encode(mac.doFinal((key + "\n" + expires).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    }
+}
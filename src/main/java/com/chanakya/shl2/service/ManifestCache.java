@@ -0,0 +1,145 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.model.document.ShlFileDocument;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-SHL cache of a manifest's file list and presigned URLs, so polling clients do not
+ * re-query shl_files and re-sign every URL on each manifest request. An entry expires once its
+ * URLs have less than minUrlLifetimeSeconds left, so a cached URL is never handed out closer to
+ * its expiry than that.
+ * Entries are tagged with the SHL's updatedAt, which every file change bumps, and are only served
+ * to a request that read the same updatedAt; this is what keeps instances whose cache was not
+ * invalidated locally from serving files another instance replaced. Local invalidation bumps an
+ * epoch for the SHL or patient; fills that started before the bump are discarded so a refresh or
+ * revoke can never be undone by a slow concurrent fill.
+ */
+@Component
+public class ManifestCache {
+
+    private static final String CACHE_NAME = "manifest";
+
+    private final Cache<String, CachedManifest> cache;
+    private final Cache<String, Long> shlEpochs;
+    private final Cache<String, Long> patientEpochs;
+    private final Duration servableFor;
+    private final AtomicLong epochSource = new AtomicLong();
+
+    /**
+     * A manifest file with the presigned URL generated for it.
+     */
+    public record PresignedFile(ShlFileDocument file, String location) {}
+
+    /**
+     * A fill in progress: the SHL version it read and the epochs current when it started.
+     */
+    public record Fill(String shlId, String patientId, Instant shlUpdatedAt, long shlEpoch, long patientEpoch) {}
+
+    public ManifestCache(ShlProperties properties, MeterRegistry meterRegistry) {
+        ShlProperties.ManifestCache config = properties.manifestCache();
+        this.servableFor = Duration.ofSeconds(properties.fileUrlExpirySeconds() - config.minUrlLifetimeSeconds());
+        if (!config.enabled() || servableFor.isNegative() || servableFor.isZero()) {
+            this.cache = null;
+            this.shlEpochs = null;
+            this.patientEpochs = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.maxEntries())
+                .expireAfter(Expiry.creating((String shlId, CachedManifest manifest) ->
+                        Duration.between(Instant.now(), manifest.servableUntil())))
+                .recordStats()
+                .build();
+        // An epoch only has to outlive the fills that started before it, and no fill result is
+        // servable for longer than the URL lifetime
+        Duration epochLifetime = Duration.ofSeconds(properties.fileUrlExpirySeconds());
+        this.shlEpochs = Caffeine.newBuilder().expireAfterWrite(epochLifetime).build();
+        this.patientEpochs = Caffeine.newBuilder().expireAfterWrite(epochLifetime).build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder("shl.manifest.cache.hit_ratio", cache, c -> c.stats().hitRate())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts a fill for an SHL read at version {@code shlUpdatedAt}; pass the result back to
+     * {@link #put} so fills overtaken by an invalidation are dropped.
+     */
+    public Fill beginFill(String shlId, String patientId, Instant shlUpdatedAt) {
+        return new Fill(shlId, patientId, shlUpdatedAt, epoch(shlEpochs, shlId), epoch(patientEpochs, patientId));
+    }
+
+    /**
+     * The cached files of the SHL, if they were filled from the same SHL version the caller read.
+     */
+    public List<PresignedFile> get(String shlId, Instant shlUpdatedAt) {
+        if (cache == null) {
+            return null;
+        }
+        CachedManifest cached = cache.getIfPresent(shlId);
+        if (cached == null
+                || !Objects.equals(cached.shlUpdatedAt(), shlUpdatedAt)
+                || !Instant.now().isBefore(cached.servableUntil())) {
+            return null;
+        }
+        return cached.files();
+    }
+
+    /**
+     * Caches the files of an SHL whose URLs were signed at {@code signedAt}, unless the SHL or its
+     * patient was invalidated after the fill started.
+     */
+    public void put(Fill fill, List<PresignedFile> files, Instant signedAt) {
+        if (cache == null) {
+            return;
+        }
+        CachedManifest manifest = new CachedManifest(
+                fill.patientId(), fill.shlUpdatedAt(), files, signedAt.plus(servableFor));
+        cache.asMap().compute(fill.shlId(), (id, existing) ->
+                epoch(shlEpochs, fill.shlId()) == fill.shlEpoch()
+                        && epoch(patientEpochs, fill.patientId()) == fill.patientEpoch()
+                        ? manifest : existing);
+    }
+
+    public void invalidate(String shlId) {
+        if (cache != null) {
+            shlEpochs.put(shlId, epochSource.incrementAndGet());
+            cache.invalidate(shlId);
+        }
+    }
+
+    /**
+     * Drops the cached manifests of every SHL belonging to the patient.
+     */
+    public void invalidatePatient(String patientId) {
+        if (cache != null) {
+            patientEpochs.put(patientId, epochSource.incrementAndGet());
+            cache.asMap().values().removeIf(manifest -> manifest.patientId().equals(patientId));
+        }
+    }
+
+    private static long epoch(Cache<String, Long> epochs, String id) {
+        if (epochs == null) {
+            return 0;
+        }
+        Long epoch = epochs.getIfPresent(id);
+        return epoch != null ? epoch : 0;
+    }
+
+    private record CachedManifest(String patientId, Instant shlUpdatedAt, List<PresignedFile> files,
+                                  Instant servableUntil) {}
+}
@@ -16,9 +16,11 @@ import com.chanakya.shl2.model.enums.ShlStatus;
 import com.chanakya.shl2.repository.ShlFileRepository;
 import com.chanakya.shl2.repository.ShlRepository;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
+import java.util.List;
 
 @Service
 public class ManifestService {
@@ -27,24 +29,30 @@ public class ManifestService {
     private final ShlFileRepository fileRepository;
     private final PasscodeService passcodeService;
     private final FileAccessService fileAccessService;
-    private final S3StorageService s3StorageService;
+    private final BlobStore blobStore;
     private final MemberService memberService;
     private final AccessLogService accessLogService;
+    private final ManifestCache manifestCache;
+    private final EmbeddedContentCache contentCache;
 
     public ManifestService(ShlRepository shlRepository,
                            ShlFileRepository fileRepository,
                            PasscodeService passcodeService,
                            FileAccessService fileAccessService,
-                           S3StorageService s3StorageService,
+                           BlobStore blobStore,
                            MemberService memberService,
-                           AccessLogService accessLogService) {
+                           AccessLogService accessLogService,
+                           ManifestCache manifestCache,
+                           EmbeddedContentCache contentCache) {
         this.shlRepository = shlRepository;
         this.fileRepository = fileRepository;
         this.passcodeService = passcodeService;
         this.fileAccessService = fileAccessService;
-        this.s3StorageService = s3StorageService;
+        this.blobStore = blobStore;
         this.memberService = memberService;
         this.accessLogService = accessLogService;
+        this.manifestCache = manifestCache;
+        this.contentCache = contentCache;
     }
 
     /**
@@ -70,9 +78,10 @@ public class ManifestService {
 
     /**
      * Handles direct file request for U-flag SHLs (GET /api/shl/direct/{manifestId}).
-     * Returns the encrypted content downloaded from S3.
+     * Streams the encrypted content from S3, honouring Range and If-None-Match.
      */
-    public Mono<String> handleDirectFileRequest(String manifestId, String recipient) {
+    public Mono<BlobStore.ObjectStream> handleDirectFileRequest(String manifestId, String recipient,
+                                                                       String range, String ifNoneMatch) {
         return shlRepository.findByManifestId(manifestId)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException("SHL not found")))
                 .flatMap(this::checkSharingEnabled)
@@ -80,7 +89,7 @@ public class ManifestService {
                 .flatMap(shl -> fileRepository.findByShlId(shl.getId()).next()
                         .flatMap(file -> accessLogService
                                 .logAccess(shl, recipient, AccessType.DIRECT_FILE)
-                                .then(s3StorageService.download(file.getS3Key()))));
+                                .then(blobStore.downloadStream(file.getS3Key(), range, ifNoneMatch))));
     }
 
     private Mono<ShlDocument> checkSharingEnabled(ShlDocument shl) {
@@ -95,6 +104,10 @@ public class ManifestService {
             return Mono.error(new ShlRevokedException("SHL has been revoked"));
         }
 
+        if (shl.getStatus() == ShlStatus.PENDING) {
+            return Mono.error(new ShlNotFoundException("SHL is not ready yet"));
+        }
+
         if (shl.getExpirationTime() != null && Instant.now().isAfter(shl.getExpirationTime())) {
             return Mono.error(new ShlExpiredException("SHL has expired"));
         }
@@ -103,8 +116,9 @@ public class ManifestService {
     }
 
     private Mono<ManifestResponse> buildManifestResponse(ShlDocument shl, ManifestRequest request) {
-        return fileRepository.findByShlId(shl.getId())
-                .flatMap(file -> toFileEntry(file, request.embeddedLengthMax()))
+        return presignedFiles(shl)
+                .flatMapMany(Flux::fromIterable)
+                .flatMapSequential(file -> toFileEntry(file, request.embeddedLengthMax()))
                 .collectList()
                 .map(files -> {
                     String status = shl.getFlags().contains(ShlFlag.L) ? "can-change" : "finalized";
@@ -112,14 +126,38 @@ public class ManifestService {
                 });
     }
 
-    private Mono<ManifestFileEntry> toFileEntry(ShlFileDocument file, Integer embeddedLengthMax) {
+    /**
+     * The SHL's files with presigned URLs, from {@link ManifestCache} when they were cached for
+     * this version of the SHL and their URLs still have enough lifetime left, otherwise read from
+     * shl_files and signed afresh.
+     */
+    private Mono<List<ManifestCache.PresignedFile>> presignedFiles(ShlDocument shl) {
+        List<ManifestCache.PresignedFile> cached = manifestCache.get(shl.getId(), shl.getUpdatedAt());
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        ManifestCache.Fill fill = manifestCache.beginFill(shl.getId(), shl.getPatientId(), shl.getUpdatedAt());
+        return fileRepository.findByShlId(shl.getId())
+                .collectList()
+                .map(files -> {
+                    Instant signedAt = Instant.now();
+                    List<ManifestCache.PresignedFile> presigned = files.stream()
+                            .map(file -> new ManifestCache.PresignedFile(file, fileAccessService.generatePresignedUrl(file)))
+                            .toList();
+                    manifestCache.put(fill, presigned, signedAt);
+                    return presigned;
+                });
+    }
+
+    private Mono<ManifestFileEntry> toFileEntry(ManifestCache.PresignedFile presigned, Integer embeddedLengthMax) {
+        ShlFileDocument file = presigned.file();
         String lastUpdated = file.getLastUpdated() != null
                 ? file.getLastUpdated().toString() : null;
 
-        // If embeddedLengthMax is set and content fits, download from S3 and embed
+        // If embeddedLengthMax is set and content fits, embed it from the cache or S3
         if (embeddedLengthMax != null && embeddedLengthMax > 0
                 && file.getContentLength() <= embeddedLengthMax) {
-            return s3StorageService.download(file.getS3Key())
+            return embeddedContent(file.getS3Key())
                     .map(content -> new ManifestFileEntry(
                             file.getContentType(),
                             null,
@@ -128,13 +166,21 @@ public class ManifestService {
                     ));
         }
 
-        // Otherwise, provide an S3 presigned URL
-        String location = fileAccessService.generatePresignedUrl(file);
+        // Otherwise, provide the S3 presigned URL
         return Mono.just(new ManifestFileEntry(
                 file.getContentType(),
-                location,
+                presigned.location(),
                 null,
                 lastUpdated
         ));
     }
+
+    private Mono<String> embeddedContent(String s3Key) {
+        String cached = contentCache.get(s3Key);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return blobStore.download(s3Key)
+                .doOnNext(content -> contentCache.put(s3Key, content));
+    }
 }
@@ -8,6 +8,7 @@ import com.chanakya.shl2.model.dto.response.MemberShlSummary;
 import com.chanakya.shl2.model.enums.AccessType;
 import com.chanakya.shl2.model.enums.ShlStatus;
 import com.chanakya.shl2.repository.AccessLogDynamoRepository;
+import com.chanakya.shl2.repository.ShlCreationJobRepository;
 import com.chanakya.shl2.repository.MemberPreferencesRepository;
 import com.chanakya.shl2.repository.ShlFileRepository;
 import com.chanakya.shl2.repository.ShlRepository;
@@ -23,23 +24,35 @@ public class MemberService {
 
     private final ShlRepository shlRepository;
     private final ShlFileRepository fileRepository;
+    private final ShlCreationJobRepository jobRepository;
     private final MemberPreferencesRepository preferencesRepository;
     private final AccessLogService accessLogService;
-    private final S3StorageService s3StorageService;
+    private final StoragePurgeService purgeService;
     private final AccessLogDynamoRepository accessLogDynamoRepository;
+    private final HealthLakeService healthLakeService;
+    private final ManifestCache manifestCache;
+    private final EmbeddedContentCache contentCache;
 
     public MemberService(ShlRepository shlRepository,
                          ShlFileRepository fileRepository,
+                         ShlCreationJobRepository jobRepository,
                          MemberPreferencesRepository preferencesRepository,
                          AccessLogService accessLogService,
-                         S3StorageService s3StorageService,
-                         AccessLogDynamoRepository accessLogDynamoRepository) {
+                         StoragePurgeService purgeService,
+                         AccessLogDynamoRepository accessLogDynamoRepository,
+                         HealthLakeService healthLakeService,
+                         ManifestCache manifestCache,
+                         EmbeddedContentCache contentCache) {
         this.shlRepository = shlRepository;
         this.fileRepository = fileRepository;
+        this.jobRepository = jobRepository;
         this.preferencesRepository = preferencesRepository;
         this.accessLogService = accessLogService;
-        this.s3StorageService = s3StorageService;
+        this.purgeService = purgeService;
         this.accessLogDynamoRepository = accessLogDynamoRepository;
+        this.healthLakeService = healthLakeService;
+        this.manifestCache = manifestCache;
+        this.contentCache = contentCache;
     }
 
     public Flux<MemberShlSummary> listShlsForMember(String patientId) {
@@ -72,6 +85,7 @@ public class MemberService {
                     shl.setUpdatedAt(Instant.now());
                     return shlRepository.save(shl);
                 })
+                .doOnNext(savedShl -> manifestCache.invalidate(savedShl.getId()))
                 .flatMap(savedShl -> accessLogService.logAccess(savedShl, null, AccessType.REVOKED));
     }
 
@@ -93,6 +107,11 @@ public class MemberService {
                     doc.setUpdatedAt(Instant.now());
                     return preferencesRepository.save(doc);
                 })
+                .doOnNext(doc -> {
+                    if (!doc.isSharingEnabled()) {
+                        manifestCache.invalidatePatient(patientId);
+                    }
+                })
                 .flatMap(doc -> accessLogService.logAccess(patientId, null, AccessType.PREFERENCE_CHANGED)
                         .thenReturn(new MemberPreferencesResponse(doc.isSharingEnabled(), doc.getUpdatedAt())));
     }
@@ -120,8 +139,14 @@ public class MemberService {
     }
 
     public Mono<Void> deleteAllPatientData(String patientId) {
+        // Also drops in-flight fetches, so a fetch started before the erasure cannot re-cache the bundle
+        healthLakeService.invalidatePatient(patientId);
+        manifestCache.invalidatePatient(patientId);
         return shlRepository.findByPatientId(patientId)
-                .flatMap(shl -> s3StorageService.deleteByPrefix("shl-files/" + shl.getId() + "/")
+                .doOnNext(shl -> contentCache.invalidatePrefix("shl-files/" + shl.getId() + "/"))
+                // Cancel a queued or running creation first, so its worker stops instead of storing files
+                .flatMap(shl -> jobRepository.cancel(shl.getId(), "Patient data erased", Instant.now())
+                        .then(purgeService.enqueuePrefix("shl-files/" + shl.getId() + "/"))
                         .then(fileRepository.deleteByShlId(shl.getId()))
                         .then(shlRepository.delete(shl)))
                 .then(accessLogDynamoRepository.deleteByPatientId(patientId))
@@ -1,6 +1,7 @@
 package com.chanakya.shl2.service;
 
 import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.WorkSchedulers;
 import com.chanakya.shl2.exception.PasscodeExhaustedException;
 import com.chanakya.shl2.exception.PasscodeInvalidException;
 import com.chanakya.shl2.exception.PasscodeRequiredException;
@@ -9,7 +10,6 @@ import com.chanakya.shl2.repository.ShlRepository;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -20,17 +20,20 @@ public class PasscodeService {
     private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
     private final ShlRepository shlRepository;
     private final ShlProperties properties;
+    private final WorkSchedulers workSchedulers;
 
-    public PasscodeService(ShlRepository shlRepository, ShlProperties properties) {
+    public PasscodeService(ShlRepository shlRepository, ShlProperties properties, WorkSchedulers workSchedulers) {
         this.shlRepository = shlRepository;
         this.properties = properties;
+        this.workSchedulers = workSchedulers;
     }
 
     /**
-     * Hashes a passcode using BCrypt.
+     * Hashes a passcode using BCrypt on the password-hashing scheduler.
      */
-    public String hashPasscode(String passcode) {
-        return encoder.encode(passcode);
+    public Mono<String> hashPasscode(String passcode) {
+        return Mono.fromCallable(() -> encoder.encode(passcode))
+                .subscribeOn(workSchedulers.passwordHashing());
     }
 
     /**
@@ -63,9 +66,9 @@ public class PasscodeService {
                 return Mono.error(new PasscodeExhaustedException("Passcode attempts exhausted"));
             }
 
-            // BCrypt verification on boundedElastic scheduler (blocking operation)
+            // BCrypt verification on the password-hashing scheduler (CPU-heavy)
             return Mono.fromCallable(() -> encoder.matches(providedPasscode, currentShl.getPasscodeHash()))
-                    .subscribeOn(Schedulers.boundedElastic())
+                    .subscribeOn(workSchedulers.passwordHashing())
                     .flatMap((Boolean matches) -> {
                         if (matches) {
                             return Mono.<ShlDocument>just(currentShl);
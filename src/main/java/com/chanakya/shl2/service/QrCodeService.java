@@ -1,5 +1,6 @@
 package com.chanakya.shl2.service;
 
+import com.chanakya.shl2.config.WorkSchedulers;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
@@ -8,7 +9,6 @@ import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.io.ByteArrayOutputStream;
 import java.util.Base64;
@@ -17,6 +17,12 @@ import java.util.Map;
 @Service
 public class QrCodeService {
 
+    private final WorkSchedulers workSchedulers;
+
+    public QrCodeService(WorkSchedulers workSchedulers) {
+        this.workSchedulers = workSchedulers;
+    }
+
     /**
      * Generates a QR code PNG image from the SHL URI.
      */
@@ -31,7 +37,7 @@ public class QrCodeService {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             MatrixToImageWriter.writeToStream(matrix, "PNG", out);
             return out.toByteArray();
-        }).subscribeOn(Schedulers.boundedElastic());
+        }).subscribeOn(workSchedulers.imaging());
     }
 
     /**
@@ -1,6 +1,11 @@
 package com.chanakya.shl2.service;
 
 import com.chanakya.shl2.config.ShlProperties;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -11,18 +16,30 @@ import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 @Service
-public class S3StorageService {
+@ConditionalOnProperty(name = "shl.storage.backend", havingValue = "s3", matchIfMissing = true)
+public class S3StorageService implements BlobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(S3StorageService.class);
+
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final String CONTENT_TYPE = "application/jose";
 
     private final S3AsyncClient s3Client;
     private final S3Presigner s3Presigner;
     private final String bucketName;
+    private final int partSize;
+    private final int multipartConcurrency;
 
     public S3StorageService(S3AsyncClient s3Client,
                             S3Presigner s3Presigner,
@@ -30,43 +47,216 @@ public class S3StorageService {
         this.s3Client = s3Client;
         this.s3Presigner = s3Presigner;
         this.bucketName = properties.aws().s3BucketName();
+        this.partSize = properties.aws().s3().multipartPartSizeBytes();
+        this.multipartConcurrency = properties.aws().s3().multipartConcurrency();
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("shl.aws.s3.multipart-part-size-bytes must be at least " + MIN_PART_SIZE);
+        }
+    }
+
+    /**
+     * Uploads the encrypted bytes as-is. The array is handed to the SDK without a defensive copy,
+     * so callers must not modify it afterwards.
+     */
+    @Override
+    public Mono<String> upload(String s3Key, byte[] encryptedContent, Instant expirationDate) {
+        return putObject(s3Key, ByteBuffer.wrap(encryptedContent), expirationDate).thenReturn(s3Key);
+    }
+
+    /**
+     * Uploads a stream of unknown length and returns the number of bytes stored.
+     * The stream is cut into parts of multipartPartSizeBytes. A stream that fits in one part is
+     * sent with a single PutObject; anything larger becomes a multipart upload with at most
+     * multipartConcurrency parts buffered and in flight. A failed or cancelled multipart upload
+     * is aborted so no orphaned parts are left behind.
+     */
+    @Override
+    public Mono<Long> upload(String s3Key, Publisher<ByteBuffer> encryptedContent, Instant expirationDate) {
+        return toParts(encryptedContent)
+                .switchOnFirst((first, parts) -> {
+                    ByteBuffer firstPart = first.get();
+                    if (firstPart == null) {
+                        return parts.then(Mono.<Long>empty());
+                    }
+                    if (firstPart.remaining() < partSize) {
+                        // Only the final part can be short, so the whole stream fits in one PutObject
+                        long length = firstPart.remaining();
+                        return putObject(s3Key, firstPart, expirationDate).thenReturn(length);
+                    }
+                    return uploadMultipart(s3Key, parts, expirationDate);
+                })
+                .singleOrEmpty();
+    }
+
+    @Override
+    public Mono<String> download(String s3Key) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .build();
+
+        return Mono.fromFuture(
+                s3Client.getObject(request, AsyncResponseTransformer.toBytes())
+        ).map(response -> response.asString(StandardCharsets.UTF_8));
     }
 
-    public Mono<String> upload(String s3Key, String encryptedContent, Instant expirationDate) {
-        byte[] contentBytes = encryptedContent.getBytes(StandardCharsets.UTF_8);
+    /**
+     * Streams the object without buffering it. A single {@code bytes=} range is forwarded to S3;
+     * multi-range and non-byte ranges are ignored and the full object is returned, as RFC 9110
+     * allows. {@code ifNoneMatch} is evaluated by S3 against the object's ETag. Cancelling the
+     * returned Mono or the content Flux aborts the S3 request.
+     */
+    @Override
+    public Mono<ObjectStream> downloadStream(String s3Key, String range, String ifNoneMatch) {
+        boolean singleRange = range != null && range.startsWith("bytes=") && range.indexOf(',') < 0;
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .range(singleRange ? range : null)
+                .ifNoneMatch(ifNoneMatch)
+                .build();
+
+        return Mono.fromFuture(() -> s3Client.getObject(request, AsyncResponseTransformer.toPublisher()))
+                .map(publisher -> {
+                    GetObjectResponse response = publisher.response();
+                    return new ObjectStream(
+                            response.contentRange() != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK,
+                            Flux.from(publisher),
+                            response.eTag(),
+                            response.contentLength(),
+                            response.contentRange());
+                })
+                .onErrorResume(S3Exception.class, e -> switch (e.statusCode()) {
+                    case 304 -> Mono.just(new ObjectStream(HttpStatus.NOT_MODIFIED, Flux.empty(),
+                            responseHeader(e, "ETag"), null, null));
+                    case 416 -> unsatisfiableRange(s3Key, e);
+                    default -> Mono.error(e);
+                });
+    }
+
+    /**
+     * A 416 must tell the client the object's size in Content-Range: bytes *&#47;size. S3's
+     * InvalidRange error may not carry that header, in which case the size is read with HeadObject.
+     */
+    private Mono<ObjectStream> unsatisfiableRange(String s3Key, S3Exception e) {
+        String contentRange = responseHeader(e, "Content-Range");
+        Mono<String> resolved = contentRange != null
+                ? Mono.just(contentRange)
+                : Mono.fromFuture(() -> s3Client.headObject(HeadObjectRequest.builder()
+                                .bucket(bucketName)
+                                .key(s3Key)
+                                .build()))
+                        .map(head -> "bytes */" + head.contentLength());
+        return resolved.map(range -> new ObjectStream(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, Flux.empty(),
+                null, null, range));
+    }
+
+    private static String responseHeader(S3Exception e, String name) {
+        return e.awsErrorDetails() != null && e.awsErrorDetails().sdkHttpResponse() != null
+                ? e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader(name).orElse(null)
+                : null;
+    }
 
+    private Mono<PutObjectResponse> putObject(String s3Key, ByteBuffer content, Instant expirationDate) {
         PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
                 .bucket(bucketName)
                 .key(s3Key)
-                .contentType("application/jose")
+                .contentType(CONTENT_TYPE)
+                .contentLength((long) content.remaining())
                 .serverSideEncryption(ServerSideEncryption.AES256);
 
         if (expirationDate != null) {
-            requestBuilder.tagging(Tagging.builder()
-                    .tagSet(Tag.builder()
-                            .key("expirationDate")
-                            .value(expirationDate.toString())
-                            .build())
-                    .build());
+            requestBuilder.tagging(expirationTagging(expirationDate));
         }
 
-        return Mono.fromFuture(
-                s3Client.putObject(requestBuilder.build(), AsyncRequestBody.fromBytes(contentBytes))
-        ).thenReturn(s3Key);
+        return Mono.fromFuture(() ->
+                s3Client.putObject(requestBuilder.build(), AsyncRequestBody.fromByteBufferUnsafe(content)));
     }
 
-    public Mono<String> download(String s3Key) {
-        GetObjectRequest request = GetObjectRequest.builder()
+    private Mono<Long> uploadMultipart(String s3Key, Flux<ByteBuffer> parts, Instant expirationDate) {
+        CreateMultipartUploadRequest.Builder requestBuilder = CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .contentType(CONTENT_TYPE)
+                .serverSideEncryption(ServerSideEncryption.AES256);
+
+        if (expirationDate != null) {
+            requestBuilder.tagging(expirationTagging(expirationDate));
+        }
+
+        return Mono.fromFuture(() -> s3Client.createMultipartUpload(requestBuilder.build()))
+                .map(CreateMultipartUploadResponse::uploadId)
+                .flatMap(uploadId -> parts.index()
+                        .flatMap(part -> uploadPart(s3Key, uploadId, (int) (part.getT1() + 1), part.getT2()),
+                                multipartConcurrency, 1)
+                        .collectList()
+                        .flatMap(uploaded -> completeMultipartUpload(s3Key, uploadId, uploaded))
+                        .onErrorResume(e -> abortMultipartUpload(s3Key, uploadId).then(Mono.error(e)))
+                        .doOnCancel(() -> abortMultipartUpload(s3Key, uploadId).subscribe()));
+    }
+
+    private Mono<UploadedPart> uploadPart(String s3Key, String uploadId, int partNumber, ByteBuffer content) {
+        int length = content.remaining();
+        UploadPartRequest request = UploadPartRequest.builder()
                 .bucket(bucketName)
                 .key(s3Key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length)
                 .build();
 
-        return Mono.fromFuture(
-                s3Client.getObject(request, AsyncResponseTransformer.toBytes())
-        ).map(response -> response.asString(StandardCharsets.UTF_8));
+        return Mono.fromFuture(() -> s3Client.uploadPart(request, AsyncRequestBody.fromByteBufferUnsafe(content)))
+                .map(response -> new UploadedPart(
+                        CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build(),
+                        length));
+    }
+
+    private Mono<Long> completeMultipartUpload(String s3Key, String uploadId, List<UploadedPart> uploaded) {
+        List<CompletedPart> completedParts = uploaded.stream()
+                .map(UploadedPart::part)
+                .sorted(Comparator.comparingInt(CompletedPart::partNumber))
+                .toList();
+        long length = uploaded.stream().mapToLong(UploadedPart::length).sum();
+
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build();
+
+        return Mono.fromFuture(() -> s3Client.completeMultipartUpload(request)).thenReturn(length);
+    }
+
+    private Mono<Void> abortMultipartUpload(String s3Key, String uploadId) {
+        AbortMultipartUploadRequest request = AbortMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .uploadId(uploadId)
+                .build();
+
+        return Mono.fromFuture(() -> s3Client.abortMultipartUpload(request))
+                .doOnError(e -> log.warn("event=s3_multipart_abort_failed s3Key={} uploadId={} error=\"{}\"",
+                        s3Key, uploadId, e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Flux<ByteBuffer> toParts(Publisher<ByteBuffer> content) {
+        return Flux.defer(() -> {
+            PartBuffer buffer = new PartBuffer(partSize);
+            return Flux.from(content)
+                    .concatMapIterable(buffer::write, 1)
+                    .concatWith(Mono.fromSupplier(buffer::finish));
+        });
     }
 
-    public String generatePresignedGetUrl(String s3Key, Duration expiry) {
+    private static String expirationTagging(Instant expirationDate) {
+        return "expirationDate=" + URLEncoder.encode(expirationDate.toString(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String generateDownloadUrl(String s3Key, Duration expiry) {
         GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
                 .signatureDuration(expiry)
                 .getObjectRequest(GetObjectRequest.builder()
@@ -78,29 +268,97 @@ public class S3StorageService {
         return s3Presigner.presignGetObject(presignRequest).url().toString();
     }
 
-    public Mono<Void> deleteByPrefix(String prefix) {
+    /**
+     * Lists every key under the prefix, one ListObjectsV2 page at a time.
+     */
+    @Override
+    public Flux<String> listKeys(String prefix) {
         ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
                 .bucket(bucketName)
                 .prefix(prefix)
                 .build();
 
         return Flux.from(s3Client.listObjectsV2Paginator(listRequest))
-                .flatMap(listResponse -> {
-                    List<ObjectIdentifier> objectIds = listResponse.contents().stream()
-                            .map(s3Object -> ObjectIdentifier.builder().key(s3Object.key()).build())
-                            .toList();
+                .concatMapIterable(ListObjectsV2Response::contents)
+                .map(S3Object::key);
+    }
 
-                    if (objectIds.isEmpty()) {
-                        return Mono.empty();
-                    }
+    /**
+     * Deletes up to {@link #MAX_KEYS_PER_DELETE} keys in one DeleteObjects call and returns the
+     * keys S3 reported as not deleted. Keys that do not exist count as deleted.
+     */
+    @Override
+    public Mono<List<String>> deleteBatch(List<String> s3Keys) {
+        if (s3Keys.size() > MAX_KEYS_PER_DELETE) {
+            return Mono.error(new IllegalArgumentException("At most " + MAX_KEYS_PER_DELETE + " keys per DeleteObjects call"));
+        }
+        List<ObjectIdentifier> objectIds = s3Keys.stream()
+                .map(key -> ObjectIdentifier.builder().key(key).build())
+                .toList();
+        DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(Delete.builder().objects(objectIds).quiet(true).build())
+                .build();
 
-                    DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                            .bucket(bucketName)
-                            .delete(Delete.builder().objects(objectIds).build())
-                            .build();
+        return Mono.fromFuture(() -> s3Client.deleteObjects(deleteRequest))
+                .map(response -> response.errors().stream().map(S3Error::key).toList());
+    }
 
-                    return Mono.fromFuture(s3Client.deleteObjects(deleteRequest));
-                })
-                .then();
+    private record UploadedPart(CompletedPart part, int length) {}
+
+    /**
+     * Cuts a chunk stream into parts. Buffers grow from the first chunk's size, so a small
+     * payload never allocates a full part; once a full part has been emitted, later parts are
+     * allocated at full size.
+     */
+    private static final class PartBuffer {
+
+        private static final int INITIAL_CAPACITY = 64 * 1024;
+
+        private final int partSize;
+        private byte[] current;
+        private int position;
+        private boolean emittedFullPart;
+
+        PartBuffer(int partSize) {
+            this.partSize = partSize;
+        }
+
+        List<ByteBuffer> write(ByteBuffer chunk) {
+            List<ByteBuffer> fullParts = new ArrayList<>(1);
+            while (chunk.hasRemaining()) {
+                int n = Math.min(chunk.remaining(), partSize - position);
+                ensureCapacity(position + n);
+                chunk.get(current, position, n);
+                position += n;
+                if (position == partSize) {
+                    fullParts.add(ByteBuffer.wrap(current));
+                    current = null;
+                    position = 0;
+                    emittedFullPart = true;
+                }
+            }
+            return fullParts;
+        }
+
+        /**
+         * Returns the trailing short part, an empty part for an empty stream, or null.
+         */
+        ByteBuffer finish() {
+            if (position == 0 && emittedFullPart) {
+                return null;
+            }
+            ByteBuffer last = ByteBuffer.wrap(current != null ? current : new byte[0], 0, position);
+            current = null;
+            return last;
+        }
+
+        private void ensureCapacity(int required) {
+            if (current == null) {
+                current = new byte[emittedFullPart ? partSize : Math.min(partSize, Math.max(required, INITIAL_CAPACITY))];
+            } else if (current.length < required) {
+                current = Arrays.copyOf(current, Math.min(partSize, Math.max(required, current.length * 2)));
+            }
+        }
     }
 }
@@ -0,0 +1,244 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.MongoRoundTrips;
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.exception.HealthLakeException;
+import com.chanakya.shl2.model.document.ShlDocument;
+import com.chanakya.shl2.model.dto.request.CreateShlRequest;
+import com.chanakya.shl2.model.dto.response.BulkShlResult;
+import com.chanakya.shl2.model.dto.response.ErrorResponse;
+import com.chanakya.shl2.model.enums.ShlStatus;
+import com.chanakya.shl2.repository.ShlRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Creates many SHLs from one request stream. Items are validated and built with bounded
+ * parallelism, their documents inserted in batches as PENDING, then completed (fetch, encrypt,
+ * store, activate) with the same bound; every HealthLake call still goes through the process-wide concurrency limiter.
+ * A failing item becomes an error line and never fails the batch. If the client goes away
+ * mid-stream, every SHL still PENDING is revoked rather than left behind.
+ */
+@Service
+public class ShlBulkCreationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ShlBulkCreationService.class);
+
+    private final ShlCreationService shlCreationService;
+    private final ShlRepository shlRepository;
+    private final Validator validator;
+    private final MongoRoundTrips roundTrips;
+    private final ShlProperties.Bulk config;
+    private final Counter createdItems;
+    private final Counter failedItems;
+    private final Timer itemTime;
+    private final DistributionSummary throughput;
+
+    /**
+     * A request on its way through the pipeline: either a built SHL document or a failure.
+     */
+    private record Item(long index, CreateShlRequest request, ShlDocument shl, BulkShlResult failure) {
+
+        Item failed(Throwable e) {
+            return new Item(index, request, null, BulkShlResult.failed(index, request.patientId(), toError(e)));
+        }
+    }
+
+    public ShlBulkCreationService(ShlCreationService shlCreationService,
+                                  ShlRepository shlRepository,
+                                  Validator validator,
+                                  MongoRoundTrips roundTrips,
+                                  ShlProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.shlCreationService = shlCreationService;
+        this.shlRepository = shlRepository;
+        this.validator = validator;
+        this.roundTrips = roundTrips;
+        this.config = properties.bulk();
+
+        this.createdItems = Counter.builder("shl.bulk.items").tag("outcome", "created").register(meterRegistry);
+        this.failedItems = Counter.builder("shl.bulk.items").tag("outcome", "failed").register(meterRegistry);
+        this.itemTime = Timer.builder("shl.bulk.item").register(meterRegistry);
+        this.throughput = DistributionSummary.builder("shl.bulk.throughput")
+                .baseUnit("items/s")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The inserted SHLs of one stream that have not been completed yet. Once the stream is
+     * cancelled, these and any whose insert lands afterwards are revoked.
+     */
+    private final class PendingShls {
+
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        void add(ShlDocument shl) {
+            ids.add(shl.getId());
+            if (cancelled) {
+                revokeAll();
+            }
+        }
+
+        void remove(ShlDocument shl) {
+            ids.remove(shl.getId());
+        }
+
+        void cancel() {
+            cancelled = true;
+            revokeAll();
+        }
+
+        private void revokeAll() {
+            for (String id : ids) {
+                if (ids.remove(id)) {
+                    revokePending(id).subscribe();
+                }
+            }
+        }
+    }
+
+    /**
+     * Emits one result per request as it completes, followed by a summary line.
+     */
+    public Flux<BulkShlResult> createShls(Flux<CreateShlRequest> requests) {
+        return Flux.defer(() -> {
+            long startedAt = System.nanoTime();
+            AtomicLong created = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            int concurrency = config.maxConcurrentItems();
+            PendingShls pending = new PendingShls();
+
+            Flux<BulkShlResult> results = requests
+                    .index()
+                    .flatMap(indexed -> build(indexed.getT1(), indexed.getT2()), concurrency)
+                    .bufferTimeout(config.insertBatchSize(), Duration.ofMillis(config.insertBatchWindowMillis()), true)
+                    .concatMap(batch -> insert(batch, pending))
+                    .flatMap(item -> item.failure() != null ? Mono.just(item.failure()) : complete(item, pending),
+                            concurrency)
+                    .doOnNext(result -> {
+                        if (result.error() != null) {
+                            failed.incrementAndGet();
+                            failedItems.increment();
+                        } else {
+                            created.incrementAndGet();
+                            createdItems.increment();
+                        }
+                    });
+
+            return results.concatWith(Mono.fromSupplier(() -> summarize(startedAt, created.get(), failed.get())))
+                    .doOnCancel(pending::cancel);
+        });
+    }
+
+    private Mono<Item> build(long index, CreateShlRequest request) {
+        Set<ConstraintViolation<CreateShlRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            String message = violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .collect(Collectors.joining(", "));
+            return Mono.just(new Item(index, request, null,
+                    BulkShlResult.failed(index, request.patientId(), new ErrorResponse("validation_error", message))));
+        }
+        return shlCreationService.buildShl(request, ShlStatus.PENDING)
+                .map(shl -> new Item(index, request, shl, null))
+                .onErrorResume(e -> Mono.just(new Item(index, request, null, null).failed(e)));
+    }
+
+    /**
+     * Inserts the batch's built documents with one bulk write. A failed write fails only the
+     * items of this batch. The write is not cancelled with the stream, since it may land anyway;
+     * its documents are revoked as they come back instead.
+     */
+    private Flux<Item> insert(List<Item> batch, PendingShls pending) {
+        List<ShlDocument> documents = batch.stream()
+                .filter(item -> item.shl() != null)
+                .map(Item::shl)
+                .toList();
+        if (documents.isEmpty()) {
+            return Flux.fromIterable(batch);
+        }
+        // All documents are new, so saveAll issues a single insertMany and sets their ids in place
+        return Mono.defer(() -> Mono.fromFuture(shlRepository.saveAll(documents)
+                                .doOnNext(pending::add)
+                                .then()
+                                .toFuture(), true))
+                .thenMany(Flux.fromIterable(batch))
+                .onErrorResume(e -> {
+                    log.warn("event=shl_bulk_insert_failed items={} error=\"{}\"", documents.size(), e.getMessage());
+                    return Flux.fromIterable(batch)
+                            .map(item -> item.failure() != null ? item : item.failed(e));
+                });
+    }
+
+    private Mono<BulkShlResult> complete(Item item, PendingShls pending) {
+        Timer.Sample sample = Timer.start();
+        ShlDocument shl = item.shl();
+        // Counts the item's own round-trips; its share of the batch insert is not included
+        return roundTrips.track("bulk", shlCreationService.completePendingShl(shl, item.request().generateQrCode()))
+                .map(response -> BulkShlResult.created(item.index(), item.request().patientId(), response))
+                .onErrorResume(e -> {
+                    log.warn("event=shl_bulk_item_failed index={} shlId={} error=\"{}\"",
+                            item.index(), shl.getId(), e.getMessage());
+                    // The PENDING document is already stored; revoke it rather than leave it pending
+                    return revokePending(shl.getId())
+                            .thenReturn(item.failed(e).failure());
+                })
+                // A cancelled item stays pending until the stream's cancel revokes it
+                .doOnSuccess(result -> pending.remove(shl))
+                .doFinally(signal -> sample.stop(itemTime));
+    }
+
+    /**
+     * Revokes an SHL that is still PENDING; a failure is only logged.
+     */
+    private Mono<Void> revokePending(String shlId) {
+        return shlCreationService.revokePendingShl(shlId)
+                .onErrorResume(e -> {
+                    log.warn("event=shl_pending_revoke_failed shlId={} error=\"{}\"", shlId, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private BulkShlResult summarize(long startedAt, long created, long failed) {
+        long elapsedMillis = Math.max(1, Duration.ofNanos(System.nanoTime() - startedAt).toMillis());
+        long total = created + failed;
+        double itemsPerSecond = total * 1000.0 / elapsedMillis;
+        throughput.record(itemsPerSecond);
+        log.info("event=shl_bulk_completed total={} created={} failed={} elapsedMs={} itemsPerSecond={}",
+                total, created, failed, elapsedMillis, String.format("%.1f", itemsPerSecond));
+        return BulkShlResult.summary(new BulkShlResult.Summary(total, created, failed, elapsedMillis, itemsPerSecond));
+    }
+
+    /**
+     * Maps a failure to the error body the single-item endpoint would have returned.
+     */
+    private static ErrorResponse toError(Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+            return new ErrorResponse("validation_error", e.getMessage());
+        }
+        if (e instanceof IllegalStateException) {
+            return new ErrorResponse("bad_request", "Invalid request state");
+        }
+        if (e instanceof HealthLakeException) {
+            return new ErrorResponse("healthlake_error", "Failed to retrieve health data");
+        }
+        return new ErrorResponse("internal_error", "Failed to create SHL");
+    }
+}
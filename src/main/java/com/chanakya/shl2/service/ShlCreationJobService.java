@@ -0,0 +1,253 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.crypto.ShlPayloadEncoder;
+import com.chanakya.shl2.exception.ShlNotFoundException;
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.dto.request.CreateShlRequest;
+import com.chanakya.shl2.model.dto.response.CreateShlJobResponse;
+import com.chanakya.shl2.model.dto.response.ShlCreationJobResponse;
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.JobStatus;
+import com.chanakya.shl2.model.enums.ShlStatus;
+import com.chanakya.shl2.repository.ShlCreationJobRepository;
+import com.chanakya.shl2.repository.ShlRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous SHL creation. {@link #submit} saves a PENDING SHL and a queued job in Mongo and
+ * returns at once; a background worker claims up to maxConcurrentJobs jobs at a time and runs
+ * the fetch/encrypt/store pipeline. Jobs left RUNNING by a pod that died are claimed again once
+ * their lease lapses. While a job runs, a heartbeat renews its lease every third of the lease
+ * and every progress update extends it too. Updates are tied to the attempt that claimed the
+ * job, so a worker that lost its lease, or whose job was cancelled, stops at its next heartbeat
+ * or update instead of overwriting the new owner's state; the SHL is only activated after the
+ * lease has been renewed once more.
+ */
+@Service
+public class ShlCreationJobService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ShlCreationJobService.class);
+
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(10);
+
+    private final ShlCreationJobRepository jobRepository;
+    private final ShlRepository shlRepository;
+    private final ShlCreationService shlCreationService;
+    private final ShlPayloadEncoder payloadEncoder;
+    private final ShlProperties.Jobs config;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong queued = new AtomicLong();
+    private final Timer queueWait;
+    private final Timer runTime;
+    private final Counter failures;
+    private volatile Disposable worker;
+
+    public ShlCreationJobService(ShlCreationJobRepository jobRepository,
+                                 ShlRepository shlRepository,
+                                 ShlCreationService shlCreationService,
+                                 ShlPayloadEncoder payloadEncoder,
+                                 ShlProperties properties,
+                                 MeterRegistry meterRegistry) {
+        this.jobRepository = jobRepository;
+        this.shlRepository = shlRepository;
+        this.shlCreationService = shlCreationService;
+        this.payloadEncoder = payloadEncoder;
+        this.config = properties.jobs();
+
+        Gauge.builder("shl.creation.jobs.queued", queued, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("shl.creation.jobs.running", running, AtomicInteger::get).register(meterRegistry);
+        this.queueWait = Timer.builder("shl.creation.jobs.queue_wait").register(meterRegistry);
+        this.runTime = Timer.builder("shl.creation.jobs.run").register(meterRegistry);
+        this.failures = Counter.builder("shl.creation.jobs.failures").register(meterRegistry);
+    }
+
+    /**
+     * Saves the SHL as PENDING and queues its creation. The returned URI and management token
+     * are valid immediately; the manifest answers 404 until the job has succeeded.
+     */
+    public Mono<CreateShlJobResponse> submit(CreateShlRequest request) {
+        return shlCreationService.initializeShl(request, ShlStatus.PENDING)
+                .flatMap(shl -> {
+                    Instant now = Instant.now();
+                    Map<FhirCategory, CategoryProgress> categories = new EnumMap<>(FhirCategory.class);
+                    shl.getCategories().forEach(category -> categories.put(category, CategoryProgress.PENDING));
+                    ShlCreationJobDocument job = ShlCreationJobDocument.builder()
+                            .shlId(shl.getId())
+                            .status(JobStatus.QUEUED)
+                            .categories(categories)
+                            .enqueuedAt(now)
+                            .leaseUntil(now)
+                            .build();
+                    return jobRepository.save(job)
+                            .map(saved -> new CreateShlJobResponse(
+                                    saved.getId(),
+                                    payloadEncoder.encode(shl),
+                                    shl.getManagementToken(),
+                                    saved.getStatus()));
+                });
+    }
+
+    public Mono<ShlCreationJobResponse> getJob(String managementToken) {
+        return shlRepository.findByManagementToken(managementToken)
+                .switchIfEmpty(Mono.error(new ShlNotFoundException("SHL not found")))
+                .flatMap(shl -> jobRepository.findByShlId(shl.getId()))
+                .switchIfEmpty(Mono.error(new ShlNotFoundException("No creation job for this SHL")))
+                .map(job -> new ShlCreationJobResponse(
+                        job.getId(),
+                        job.getStatus(),
+                        job.getCategories(),
+                        job.getAttempts(),
+                        job.getError(),
+                        job.getEnqueuedAt(),
+                        job.getStartedAt(),
+                        job.getFinishedAt()));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker = Flux.interval(Duration.ZERO, Duration.ofSeconds(config.pollIntervalSeconds()))
+                .onBackpressureDrop()
+                .concatMap(tick -> claimJobs()
+                        .then(jobRepository.countByStatus(JobStatus.QUEUED).doOnNext(queued::set))
+                        .onErrorResume(e -> {
+                            log.warn("event=shl_job_poll_failed error=\"{}\"", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        Disposable current = worker;
+        // Jobs interrupted by shutdown stay RUNNING and are resumed once their lease lapses
+        if (current != null) {
+            current.dispose();
+        }
+    }
+
+    /**
+     * Claims jobs until every worker slot is busy or the queue is empty.
+     */
+    private Mono<Void> claimJobs() {
+        AtomicInteger slots = new AtomicInteger(config.maxConcurrentJobs() - running.get());
+        if (slots.get() <= 0) {
+            return Mono.empty();
+        }
+        Duration lease = Duration.ofSeconds(config.leaseSeconds());
+        return Mono.defer(() -> jobRepository.claimNext(Instant.now(), lease))
+                .expand(job -> slots.decrementAndGet() > 0
+                        ? jobRepository.claimNext(Instant.now(), lease)
+                        : Mono.empty())
+                .doOnNext(this::run)
+                .then();
+    }
+
+    private void run(ShlCreationJobDocument job) {
+        running.incrementAndGet();
+        if (job.getAttempts() == 1) {
+            queueWait.record(Duration.between(job.getEnqueuedAt(), job.getStartedAt()));
+        }
+        log.info("event=shl_job_started jobId={} shlId={} attempt={}", job.getId(), job.getShlId(), job.getAttempts());
+
+        Duration lease = Duration.ofSeconds(config.leaseSeconds());
+        ShlCreationService.CategoryProgressListener progress = (category, state) -> Mono.defer(() ->
+                        jobRepository.updateProgress(job.getId(), job.getAttempts(), category, state,
+                                Instant.now().plus(lease)))
+                .flatMap(held -> held ? Mono.<Void>empty() : Mono.error(new LeaseLostException()));
+        // Never completes; errors only when the lease is lost, which cancels the pipeline
+        Mono<Boolean> heartbeat = Flux.interval(lease.dividedBy(3))
+                .concatMap(tick -> renewLease(job, lease)
+                        .onErrorResume(e -> !(e instanceof LeaseLostException), e -> {
+                            log.warn("event=shl_job_heartbeat_failed jobId={} error=\"{}\"", job.getId(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then(Mono.never());
+        Timer.Sample sample = Timer.start();
+
+        shlCreationService.populatePendingShl(job.getShlId(), progress, renewLease(job, lease))
+                .or(heartbeat)
+                .flatMap(activated -> activated
+                        ? finish(job, JobStatus.SUCCEEDED, null)
+                        : finish(job, JobStatus.CANCELLED, "SHL is no longer pending"))
+                .onErrorResume(e -> e instanceof LeaseLostException ? leaseLost(job) : handleFailure(job, e))
+                .doFinally(signal -> {
+                    sample.stop(runTime);
+                    running.decrementAndGet();
+                })
+                .subscribe();
+    }
+
+    private Mono<Void> renewLease(ShlCreationJobDocument job, Duration lease) {
+        return Mono.defer(() -> jobRepository.renewLease(job.getId(), job.getAttempts(), Instant.now().plus(lease)))
+                .flatMap(held -> held ? Mono.<Void>empty() : Mono.error(new LeaseLostException()));
+    }
+
+    private Mono<Void> handleFailure(ShlCreationJobDocument job, Throwable e) {
+        failures.increment();
+        String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        if (job.getAttempts() >= config.maxAttempts()) {
+            log.error("event=shl_job_failed jobId={} shlId={} attempts={} error=\"{}\"",
+                    job.getId(), job.getShlId(), job.getAttempts(), error);
+            // The link would otherwise answer 404 forever; revoking tells the member it will never fill
+            return jobRepository.finish(job.getId(), job.getAttempts(), JobStatus.FAILED, error, Instant.now())
+                    .flatMap(finished -> finished
+                            ? shlCreationService.revokePendingShl(job.getShlId())
+                            : leaseLost(job));
+        }
+        Duration delay = Duration.ofSeconds(config.pollIntervalSeconds()).multipliedBy(1L << Math.min(job.getAttempts(), 10));
+        if (delay.compareTo(MAX_BACKOFF) > 0) {
+            delay = MAX_BACKOFF;
+        }
+        log.warn("event=shl_job_retry jobId={} shlId={} attempt={} retryIn={} error=\"{}\"",
+                job.getId(), job.getShlId(), job.getAttempts(), delay, error);
+        return jobRepository.requeue(job.getId(), job.getAttempts(), error, Instant.now().plus(delay))
+                .flatMap(requeued -> requeued ? Mono.<Void>empty() : leaseLost(job));
+    }
+
+    private Mono<Void> finish(ShlCreationJobDocument job, JobStatus status, String error) {
+        return Mono.defer(() -> jobRepository.finish(job.getId(), job.getAttempts(), status, error, Instant.now()))
+                .flatMap(finished -> {
+                    if (!finished) {
+                        return leaseLost(job);
+                    }
+                    log.info("event=shl_job_finished jobId={} shlId={} status={}", job.getId(), job.getShlId(), status);
+                    return Mono.<Void>empty();
+                });
+    }
+
+    private Mono<Void> leaseLost(ShlCreationJobDocument job) {
+        log.warn("event=shl_job_lease_lost jobId={} shlId={} attempt={}", job.getId(), job.getShlId(), job.getAttempts());
+        return Mono.empty();
+    }
+
+    /**
+     * Stops a run whose job was claimed by another worker or cancelled; the run's own uploads
+     * are discarded by the pipeline and the job is left to its current owner.
+     */
+    private static final class LeaseLostException extends RuntimeException {
+        LeaseLostException() {
+            super("Creation job lease lost", null, false, false);
+        }
+    }
+}
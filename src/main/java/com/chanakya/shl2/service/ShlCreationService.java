@@ -1,6 +1,9 @@
 package com.chanakya.shl2.service;
 
+import com.chanakya.shl2.config.MongoRoundTrips;
 import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.WorkSchedulers;
+import com.chanakya.shl2.crypto.JweKeyCache;
 import com.chanakya.shl2.crypto.JweService;
 import com.chanakya.shl2.crypto.KeyGenerationService;
 import com.chanakya.shl2.crypto.ShlPayloadEncoder;
@@ -11,75 +14,196 @@ import com.chanakya.shl2.model.dto.request.CreateShlRequest;
 import com.chanakya.shl2.model.dto.response.CreateShlResponse;
 import com.chanakya.shl2.model.dto.response.ShlStatusResponse;
 import com.chanakya.shl2.model.enums.AccessType;
+import com.chanakya.shl2.model.enums.CategoryProgress;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.RefreshMode;
 import com.chanakya.shl2.model.enums.ShlFlag;
 import com.chanakya.shl2.model.enums.ShlStatus;
+import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
 import com.chanakya.shl2.repository.ShlFileRepository;
 import com.chanakya.shl2.repository.ShlRepository;
 import com.chanakya.shl2.util.EntropyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import tools.jackson.databind.ObjectMapper;
 
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 @Service
 public class ShlCreationService {
 
+    private static final Logger log = LoggerFactory.getLogger(ShlCreationService.class);
+
+    private static final Duration WATERMARK_OVERLAP = Duration.ofMinutes(1);
+
+    /** Plaintext bytes sealed per chunk when a file is encrypted as a stream. */
+    private static final int STREAM_CHUNK_BYTES = 1 << 20;
+
     private final ShlRepository shlRepository;
     private final ShlFileRepository fileRepository;
     private final KeyGenerationService keyGenerationService;
     private final JweService jweService;
+    private final JweKeyCache keyCache;
     private final ShlPayloadEncoder payloadEncoder;
     private final PasscodeService passcodeService;
     private final HealthLakeService healthLakeService;
     private final SmartHealthCardService shcService;
     private final QrCodeService qrCodeService;
-    private final S3StorageService s3StorageService;
+    private final BlobStore blobStore;
     private final AccessLogService accessLogService;
     private final MemberService memberService;
     private final ShlProperties properties;
     private final ObjectMapper objectMapper;
+    private final WorkSchedulers workSchedulers;
+    private final ManifestCache manifestCache;
+    private final EmbeddedContentCache contentCache;
+    private final StoragePurgeService purgeService;
+    private final MongoRoundTrips roundTrips;
 
     public ShlCreationService(ShlRepository shlRepository,
                               ShlFileRepository fileRepository,
                               KeyGenerationService keyGenerationService,
                               JweService jweService,
+                              JweKeyCache keyCache,
                               ShlPayloadEncoder payloadEncoder,
                               PasscodeService passcodeService,
                               HealthLakeService healthLakeService,
                               SmartHealthCardService shcService,
                               QrCodeService qrCodeService,
-                              S3StorageService s3StorageService,
+                              BlobStore blobStore,
                               AccessLogService accessLogService,
                               MemberService memberService,
                               ShlProperties properties,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper,
+                              WorkSchedulers workSchedulers,
+                              ManifestCache manifestCache,
+                              EmbeddedContentCache contentCache,
+                              StoragePurgeService purgeService,
+                              MongoRoundTrips roundTrips) {
         this.shlRepository = shlRepository;
         this.fileRepository = fileRepository;
         this.keyGenerationService = keyGenerationService;
         this.jweService = jweService;
+        this.keyCache = keyCache;
         this.payloadEncoder = payloadEncoder;
         this.passcodeService = passcodeService;
         this.healthLakeService = healthLakeService;
         this.shcService = shcService;
         this.qrCodeService = qrCodeService;
-        this.s3StorageService = s3StorageService;
+        this.blobStore = blobStore;
         this.accessLogService = accessLogService;
         this.memberService = memberService;
         this.properties = properties;
         this.objectMapper = objectMapper;
+        this.workSchedulers = workSchedulers;
+        this.manifestCache = manifestCache;
+        this.contentCache = contentCache;
+        this.purgeService = purgeService;
+        this.roundTrips = roundTrips;
+    }
+
+    /**
+     * Reports per-category progress of a creation pipeline, e.g. to an asynchronous job.
+     */
+    @FunctionalInterface
+    public interface CategoryProgressListener {
+
+        CategoryProgressListener NONE = (category, progress) -> Mono.empty();
+
+        Mono<Void> onProgress(FhirCategory category, CategoryProgress progress);
     }
 
     /**
-     * Creates a new SHL end-to-end.
+     * Creates a new SHL end-to-end. It is inserted as PENDING and activated only once its files
+     * are stored; if creation fails or is cancelled it is revoked, so a half-built SHL is never
+     * served and never left behind as ACTIVE.
      */
     public Mono<CreateShlResponse> createShl(CreateShlRequest request) {
+        return roundTrips.track("create", buildShl(request, ShlStatus.PENDING)
+                .flatMap(shlRepository::save)
+                .flatMap(savedShl -> completePendingShl(savedShl, request.generateQrCode())
+                        .onErrorResume(e -> abandonPendingShl(savedShl.getId()).then(Mono.error(e)))
+                        .doOnCancel(() -> abandonPendingShl(savedShl.getId()).subscribe())));
+    }
+
+    /**
+     * Completes a saved PENDING SHL and activates it once all of its files are stored, so it is
+     * never served half-built. Bulk creation inserts the documents in batches and finishes each
+     * one through here.
+     */
+    public Mono<CreateShlResponse> completePendingShl(ShlDocument savedShl, boolean generateQrCode) {
+        return completeShl(savedShl, generateQrCode,
+                categoryCounts -> shlRepository.activatePending(savedShl.getId(), categoryCounts, Instant.now())
+                        // A revoke while the files were built wins over activation
+                        .switchIfEmpty(Mono.error(new IllegalStateException("SHL is no longer pending")))
+                        .then());
+    }
+
+    /**
+     * Logs the creation of a saved SHL, fetches, encrypts and stores its files, then runs
+     * {@code activation} with the resource counts they were built from before building the response.
+     */
+    private Mono<CreateShlResponse> completeShl(ShlDocument savedShl, boolean generateQrCode,
+                                                Function<Map<FhirCategory, Integer>, Mono<Void>> activation) {
+        return accessLogService.logAccess(savedShl, null, AccessType.CREATED)
+                .then(fetchAndEncryptData(savedShl))
+                .flatMap(activation)
+                .then(Mono.defer(() -> {
+                    String shlUri = payloadEncoder.encode(savedShl);
+
+                    if (generateQrCode) {
+                        return qrCodeService.generateQrCodeDataUri(shlUri, 400)
+                                .map(qrDataUri -> new CreateShlResponse(
+                                        shlUri,
+                                        savedShl.getManagementToken(),
+                                        qrDataUri,
+                                        savedShl.getExpirationTime(),
+                                        savedShl.getLabel()
+                                ));
+                    }
+
+                    return Mono.just(new CreateShlResponse(
+                            shlUri,
+                            savedShl.getManagementToken(),
+                            null,
+                            savedShl.getExpirationTime(),
+                            savedShl.getLabel()
+                    ));
+                }));
+    }
+
+    /**
+     * Validates the request and saves the SHL document without any files. Asynchronous
+     * creation saves it as PENDING and stores the files later via {@link #populatePendingShl}.
+     */
+    public Mono<ShlDocument> initializeShl(CreateShlRequest request, ShlStatus initialStatus) {
+        return buildShl(request, initialStatus)
+                .flatMap(shlRepository::save)
+                .flatMap(savedShl -> accessLogService.logAccess(savedShl, null, AccessType.CREATED)
+                        .thenReturn(savedShl));
+    }
+
+    /**
+     * Validates the request and builds the unsaved SHL document, with its passcode hashed.
+     */
+    public Mono<ShlDocument> buildShl(CreateShlRequest request, ShlStatus initialStatus) {
         // Validate timeframe
         if (request.timeframeStart() != null && request.timeframeEnd() != null
                 && !request.timeframeStart().isBefore(request.timeframeEnd())) {
@@ -109,6 +233,8 @@ public class ShlCreationService {
             return Mono.error(new IllegalStateException("U and P flags cannot be combined"));
         }
 
+        boolean hasPasscode = request.passcode() != null && !request.passcode().isBlank();
+
         // Build SHL document
         Instant now = Instant.now();
         ShlDocument shl = ShlDocument.builder()
@@ -118,46 +244,72 @@ public class ShlCreationService {
                 .label(request.label())
                 .expirationTime(request.expirationTime())
                 .flags(flags)
-                .status(ShlStatus.ACTIVE)
-                .passcodeHash(request.passcode() != null && !request.passcode().isBlank()
-                        ? passcodeService.hashPasscode(request.passcode()) : null)
-                .passcodeFailuresRemaining(request.passcode() != null && !request.passcode().isBlank()
-                        ? properties.defaultPasscodeAttempts() : null)
+                .status(initialStatus)
+                .passcodeFailuresRemaining(hasPasscode ? properties.defaultPasscodeAttempts() : null)
                 .patientId(request.patientId())
                 .categories(request.categories())
                 .timeframeStart(request.timeframeStart())
                 .timeframeEnd(request.timeframeEnd())
+                .categoryWatermarks(watermarksAt(request.categories(), now))
                 .includeHealthCards(request.includeHealthCards())
+                .compressPayload(request.compressPayload() != null
+                        ? request.compressPayload()
+                        : properties.crypto().compressPayloads())
                 .createdAt(now)
                 .updatedAt(now)
                 .build();
 
+        // BCrypt runs on the password-hashing scheduler, not the request thread
+        Mono<ShlDocument> hashedShl = hasPasscode
+                ? passcodeService.hashPasscode(request.passcode()).map(hash -> {
+                    shl.setPasscodeHash(hash);
+                    return shl;
+                })
+                : Mono.just(shl);
+
         return memberService.ensureSharingEnabled(request.patientId())
-                .then(shlRepository.save(shl))
-                .flatMap(savedShl -> accessLogService.logAccess(savedShl, null, AccessType.CREATED)
-                        .then(fetchAndEncryptData(savedShl))
-                        .thenReturn(savedShl))
-                .flatMap(savedShl -> {
-                    String shlUri = payloadEncoder.encode(savedShl);
+                .then(hashedShl);
+    }
 
-                    if (request.generateQrCode()) {
-                        return qrCodeService.generateQrCodeDataUri(shlUri, 400)
-                                .map(qrDataUri -> new CreateShlResponse(
-                                        shlUri,
-                                        savedShl.getManagementToken(),
-                                        qrDataUri,
-                                        savedShl.getExpirationTime(),
-                                        savedShl.getLabel()
-                                ));
-                    }
+    /**
+     * Fetches, encrypts and stores the files of a PENDING SHL, then activates it. Files left by
+     * an earlier, interrupted attempt are dropped first, so a resumed job starts clean.
+     * Emits false without touching the SHL if it is no longer PENDING, or if it was revoked
+     * while its files were built. {@code beforeActivation} runs right before the SHL is
+     * activated; an error from it leaves the SHL PENDING.
+     */
+    public Mono<Boolean> populatePendingShl(String shlId, CategoryProgressListener progress,
+                                            Mono<Void> beforeActivation) {
+        return roundTrips.track("populate", shlRepository.findById(shlId)
+                .switchIfEmpty(Mono.error(new ShlNotFoundException("SHL not found")))
+                .flatMap(shl -> shl.getStatus() != ShlStatus.PENDING
+                        ? Mono.just(false)
+                        : clearFiles(shl)
+                                .then(fetchAndEncryptData(shl, shl.getCategories(), true, progress))
+                                .flatMap(categoryCounts -> beforeActivation
+                                        // A revoke while the job ran wins over activation
+                                        .then(Mono.defer(() -> shlRepository.activatePending(
+                                                shlId, categoryCounts, Instant.now()))))
+                                .hasElement()));
+    }
 
-                    return Mono.just(new CreateShlResponse(
-                            shlUri,
-                            savedShl.getManagementToken(),
-                            null,
-                            savedShl.getExpirationTime(),
-                            savedShl.getLabel()
-                    ));
+    /**
+     * Revokes an SHL whose creation was given up, so it does not stay PENDING forever.
+     */
+    public Mono<Void> revokePendingShl(String shlId) {
+        return shlRepository.revokePending(shlId, Instant.now())
+                .flatMap(revokedShl -> accessLogService.logAccess(revokedShl, null, AccessType.REVOKED));
+    }
+
+    /**
+     * Revokes a PENDING SHL after a failed or cancelled creation. The caller reports the
+     * creation's own error, so a failed revoke is only logged.
+     */
+    private Mono<Void> abandonPendingShl(String shlId) {
+        return revokePendingShl(shlId)
+                .onErrorResume(e -> {
+                    log.warn("event=shl_pending_revoke_failed shlId={} error=\"{}\"", shlId, e.getMessage());
+                    return Mono.empty();
                 });
     }
 
@@ -191,28 +343,34 @@ public class ShlCreationService {
                     shl.setUpdatedAt(Instant.now());
                     return shlRepository.save(shl);
                 })
+                .doOnNext(savedShl -> manifestCache.invalidate(savedShl.getId()))
                 .flatMap(savedShl -> accessLogService.logAccess(savedShl, null, AccessType.REVOKED));
     }
 
     /**
-     * Refreshes SHL data for L-flag links by re-fetching from HealthLake.
+     * Refreshes SHL data for L-flag links. FULL rebuilds every file; INCREMENTAL asks HealthLake
+     * which categories changed since their watermarks and rebuilds only those files.
      */
-    public Mono<Void> refreshShlData(String managementToken) {
-        return shlRepository.findByManagementToken(managementToken)
+    public Mono<Void> refreshShlData(String managementToken, RefreshMode mode) {
+        return roundTrips.track("refresh", shlRepository.findByManagementToken(managementToken)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException("SHL not found")))
                 .flatMap(shl -> {
                     if (!shl.getFlags().contains(ShlFlag.L)) {
                         return Mono.error(new IllegalStateException("Only long-term SHLs can be refreshed"));
                     }
-                    return s3StorageService.deleteByPrefix("shl-files/" + shl.getId() + "/")
-                            .then(fileRepository.deleteByShlId(shl.getId()))
-                            .then(fetchAndEncryptData(shl))
-                            .then(Mono.defer(() -> {
-                                shl.setUpdatedAt(Instant.now());
-                                return shlRepository.save(shl);
-                            }))
+                    Instant refreshStartedAt = Instant.now();
+                    Mono<Map<FhirCategory, Integer>> refresh = mode == RefreshMode.INCREMENTAL
+                            ? replaceUpdatedFiles(shl)
+                            : replaceAllFiles(shl);
+                    return refresh
+                            .flatMap(categoryCounts -> shlRepository.recordRefresh(
+                                    shl.getId(),
+                                    watermarksAt(shl.getCategories(), refreshStartedAt),
+                                    categoryCounts,
+                                    Instant.now()))
+                            .doFinally(signal -> manifestCache.invalidate(shl.getId()))
                             .flatMap(savedShl -> accessLogService.logAccess(savedShl, null, AccessType.REFRESHED));
-                });
+                }));
     }
 
     /**
@@ -227,70 +385,287 @@ public class ShlCreationService {
                 });
     }
 
-    private Mono<Void> fetchAndEncryptData(ShlDocument shl) {
-        String fhirContentType = "application/fhir+json;fhirVersion=4.0.1";
+    /**
+     * Rebuilds every file, then swaps: the old records are dropped and their S3 objects queued
+     * for purging only once the new files are stored, so the manifest never goes empty. If the
+     * rebuild or the swap fails while the old records are still in place, the new records it
+     * wrote are removed again and the old files keep being served; once the old records are
+     * gone, the new ones are kept. The refresh never waits on S3 deletes. Emits the resource
+     * count of every category.
+     */
+    private Mono<Map<FhirCategory, Integer>> replaceAllFiles(ShlDocument shl) {
+        healthLakeService.invalidatePatient(shl.getPatientId());
+        return fileRepository.findByShlId(shl.getId())
+                .map(ShlFileDocument::getS3Key)
+                .collectList()
+                .flatMap(staleKeys -> fetchAndEncryptData(shl)
+                        .flatMap(categoryCounts -> retireFiles(staleKeys).thenReturn(categoryCounts))
+                        .onErrorResume(e -> discardNewFiles(shl, staleKeys).then(Mono.error(e))));
+    }
+
+    /**
+     * Removes the records a failed rebuild added next to {@code staleKeys}, and queues their
+     * objects for purging, as long as any of the old records are left to serve.
+     */
+    private Mono<Void> discardNewFiles(ShlDocument shl, List<String> staleKeys) {
+        Set<String> stale = Set.copyOf(staleKeys);
+        return fileRepository.findByShlId(shl.getId())
+                .map(ShlFileDocument::getS3Key)
+                .collectList()
+                .flatMap(keys -> {
+                    List<String> added = keys.stream().filter(key -> !stale.contains(key)).toList();
+                    if (added.isEmpty() || added.size() == keys.size()) {
+                        return Mono.<Void>empty();
+                    }
+                    return fileRepository.deleteByS3KeyIn(added)
+                            .doOnSuccess(ignored -> contentCache.invalidate(added))
+                            .then(purgeService.enqueueKeys(added));
+                })
+                .onErrorResume(e -> {
+                    log.warn("event=shl_rebuild_cleanup_failed shlId={} error=\"{}\"", shl.getId(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
 
-        return healthLakeService.fetchResourcesByCategory(
+    /**
+     * Drops the records of replaced files and queues their S3 objects for purging.
+     */
+    private Mono<Void> retireFiles(List<String> staleKeys) {
+        return fileRepository.deleteByS3KeyIn(staleKeys)
+                .doOnSuccess(ignored -> contentCache.invalidate(staleKeys))
+                .then(purgeService.enqueueKeys(staleKeys));
+    }
+
+    private Mono<Void> clearFiles(ShlDocument shl) {
+        contentCache.invalidatePrefix("shl-files/" + shl.getId() + "/");
+        return fileRepository.findByShlId(shl.getId())
+                .map(ShlFileDocument::getS3Key)
+                .collectList()
+                .flatMap(staleKeys -> fileRepository.deleteByShlId(shl.getId())
+                        .then(purgeService.enqueueKeys(staleKeys)));
+    }
+
+    /**
+     * Rebuilds only the files of categories HealthLake reports as added to, edited or deleted from
+     * since their watermark. New files are stored before the stale ones are removed, so the
+     * manifest never goes empty. The merged U-flag file, files written before categories were
+     * recorded and SHLs without recorded resource counts force a full rebuild, since the check
+     * cannot tell which of their files are stale. Emits the resource count of every category.
+     */
+    private Mono<Map<FhirCategory, Integer>> replaceUpdatedFiles(ShlDocument shl) {
+        Map<FhirCategory, Instant> watermarks = shl.getCategoryWatermarks() != null
+                ? shl.getCategoryWatermarks()
+                : Map.of();
+        Map<FhirCategory, Integer> counts = shl.getCategoryCounts() != null
+                ? shl.getCategoryCounts()
+                : Map.of();
+        if (!counts.keySet().containsAll(shl.getCategories())) {
+            return replaceAllFiles(shl);
+        }
+
+        return healthLakeService.findUpdatedCategories(
                         shl.getPatientId(),
                         shl.getCategories(),
                         shl.getTimeframeStart(),
-                        shl.getTimeframeEnd()
-                )
-                .collectList()
-                .flatMap(wrappers -> {
-                    if (shl.getFlags().contains(ShlFlag.U)) {
-                        // U-flag: spec requires single encrypted file — merge all bundles into one
-                        java.util.List<String> bundles = wrappers.stream()
-                                .map(w -> w.getBundleJson())
-                                .toList();
-                        String merged = mergeFhirBundles(bundles);
-                        String encrypted = jweService.encrypt(merged, shl.getEncryptionKeyBase64(), fhirContentType);
-                        String s3Key = "shl-files/" + shl.getId() + "/" + UUID.randomUUID();
-                        return s3StorageService.upload(s3Key, encrypted, shl.getExpirationTime())
-                                .flatMap(key -> {
-                                    ShlFileDocument fileDoc = ShlFileDocument.builder()
-                                            .shlId(shl.getId())
-                                            .contentType(fhirContentType)
-                                            .s3Key(key)
-                                            .contentLength(encrypted.getBytes(StandardCharsets.UTF_8).length)
-                                            .lastUpdated(Instant.now())
-                                            .createdAt(Instant.now())
-                                            .build();
-                                    return fileRepository.save(fileDoc);
-                                })
-                                .then();
+                        shl.getTimeframeEnd(),
+                        watermarks,
+                        counts)
+                .zipWith(fileRepository.findByShlId(shl.getId()).collectList())
+                .flatMap(tuple -> {
+                    Set<FhirCategory> updated = tuple.getT1().updated();
+                    Map<FhirCategory, Integer> unchangedCounts = tuple.getT1().unchangedCounts();
+                    List<ShlFileDocument> existing = tuple.getT2();
+                    if (updated.isEmpty()) {
+                        return Mono.just(unchangedCounts);
                     }
-
-                    // Non-U-flag: store each bundle as a separate encrypted file
-                    Mono<Void> fhirFiles = Flux.fromIterable(wrappers)
-                            .flatMap(wrapper -> {
-                                String encrypted = jweService.encrypt(wrapper.getBundleJson(), shl.getEncryptionKeyBase64(), fhirContentType);
-                                String s3Key = "shl-files/" + shl.getId() + "/" + UUID.randomUUID();
-                                return s3StorageService.upload(s3Key, encrypted, shl.getExpirationTime())
-                                        .flatMap(key -> {
-                                            ShlFileDocument fileDoc = ShlFileDocument.builder()
-                                                    .shlId(shl.getId())
-                                                    .contentType(fhirContentType)
-                                                    .s3Key(key)
-                                                    .contentLength(encrypted.getBytes(StandardCharsets.UTF_8).length)
-                                                    .lastUpdated(Instant.now())
-                                                    .createdAt(Instant.now())
-                                                    .build();
-                                            return fileRepository.save(fileDoc);
-                                        });
-                            })
-                            .then();
-
-                    if (!shl.isIncludeHealthCards()) {
-                        return fhirFiles;
+                    if (shl.getFlags().contains(ShlFlag.U)
+                            || existing.stream().anyMatch(file -> file.getCategory() == null)) {
+                        return replaceAllFiles(shl);
                     }
 
-                    // Create health cards from the already-fetched wrappers
-                    Mono<Void> healthCards = Flux.fromIterable(wrappers)
-                            .flatMap(wrapper -> createHealthCardFromBundle(shl, wrapper.getBundleJson()))
-                            .then();
+                    List<FhirCategory> rebuild = shl.getCategories().stream()
+                            .filter(updated::contains)
+                            .toList();
+                    List<String> staleKeys = existing.stream()
+                            .filter(file -> updated.contains(file.getCategory()))
+                            .map(ShlFileDocument::getS3Key)
+                            .toList();
+                    return fetchAndEncryptData(shl, rebuild, false)
+                            .flatMap(rebuiltCounts -> retireFiles(staleKeys).then(Mono.fromSupplier(() -> {
+                                Map<FhirCategory, Integer> categoryCounts = new EnumMap<>(unchangedCounts);
+                                categoryCounts.putAll(rebuiltCounts);
+                                return categoryCounts;
+                            })));
+                });
+    }
+
+    private static Map<FhirCategory, Instant> watermarksAt(List<FhirCategory> categories, Instant fetchStartedAt) {
+        // Overlap absorbs clock skew between this service and HealthLake
+        Instant watermark = fetchStartedAt.minus(WATERMARK_OVERLAP);
+        Map<FhirCategory, Instant> watermarks = new EnumMap<>(FhirCategory.class);
+        for (FhirCategory category : categories) {
+            watermarks.put(category, watermark);
+        }
+        return watermarks;
+    }
+
+    private Mono<Map<FhirCategory, Integer>> fetchAndEncryptData(ShlDocument shl) {
+        return fetchAndEncryptData(shl, shl.getCategories(), true);
+    }
+
+    /**
+     * Fetches, encrypts and stores the given categories and emits their resource counts. The
+     * pipeline leases the SHL's key handle for its whole run and releases it when it terminates
+     * or is cancelled.
+     */
+    private Mono<Map<FhirCategory, Integer>> fetchAndEncryptData(ShlDocument shl, List<FhirCategory> categories, boolean useCache) {
+        return fetchAndEncryptData(shl, categories, useCache, CategoryProgressListener.NONE);
+    }
 
-                    return fhirFiles.then(healthCards);
+    private Mono<Map<FhirCategory, Integer>> fetchAndEncryptData(ShlDocument shl, List<FhirCategory> categories,
+                                                                 boolean useCache, CategoryProgressListener progress) {
+        return Mono.using(
+                () -> keyCache.acquire(shl.getId(), shl.getEncryptionKeyBase64()),
+                lease -> encryptAndStore(shl, categories, useCache, progress, lease.key()),
+                JweKeyCache.Lease::close);
+    }
+
+    /**
+     * Uploads every file first and records them all with one bulk insert, so a run either
+     * records all of its files or none. If the run fails or is cancelled, the objects it
+     * uploaded are purged again.
+     */
+    private Mono<Map<FhirCategory, Integer>> encryptAndStore(ShlDocument shl, List<FhirCategory> categories,
+                                                             boolean useCache, CategoryProgressListener progress,
+                                                             SecretKey key) {
+        return Mono.usingWhen(
+                Mono.fromSupplier(ConcurrentLinkedQueue<String>::new),
+                uploadedKeys -> healthLakeService.fetchResourcesByCategory(
+                                shl.getPatientId(),
+                                categories,
+                                shl.getTimeframeStart(),
+                                shl.getTimeframeEnd(),
+                                useCache
+                        )
+                        .concatMap(wrapper -> progress.onProgress(wrapper.getCategory(), CategoryProgress.FETCHED)
+                                .thenReturn(wrapper))
+                        .collectList()
+                        .flatMap(wrappers -> uploadFiles(shl, key, wrappers, uploadedKeys)
+                                .collectList()
+                                .flatMap(files -> files.isEmpty()
+                                        ? Mono.<Void>empty()
+                                        // All records are new, so saveAll issues a single insertMany
+                                        : fileRepository.saveAll(files).then())
+                                .thenMany(Flux.fromIterable(wrappers))
+                                .concatMap(wrapper -> progress.onProgress(wrapper.getCategory(), CategoryProgress.STORED))
+                                .then(Mono.fromSupplier(() -> resourceCounts(categories, wrappers)))),
+                uploadedKeys -> Mono.empty(),
+                (uploadedKeys, e) -> discardUploads(uploadedKeys),
+                this::discardUploads);
+    }
+
+    /**
+     * Resource counts of the fetched categories; a category with no bundle counts as empty.
+     */
+    private static Map<FhirCategory, Integer> resourceCounts(List<FhirCategory> categories,
+                                                             List<FhirBundleWrapper> wrappers) {
+        Map<FhirCategory, Integer> counts = new EnumMap<>(FhirCategory.class);
+        categories.forEach(category -> counts.put(category, 0));
+        wrappers.forEach(wrapper -> counts.merge(wrapper.getCategory(), wrapper.getResourceCount(), Integer::sum));
+        return counts;
+    }
+
+    /**
+     * Encrypts and uploads the files for the fetched bundles and returns their unsaved records.
+     */
+    private Flux<ShlFileDocument> uploadFiles(ShlDocument shl, SecretKey key, List<FhirBundleWrapper> wrappers,
+                                              Queue<String> uploadedKeys) {
+        String fhirContentType = "application/fhir+json;fhirVersion=4.0.1";
+
+        if (shl.getFlags().contains(ShlFlag.U)) {
+            // U-flag: spec requires single encrypted file — merge all bundles into one
+            java.util.List<String> bundles = wrappers.stream()
+                    .map(w -> w.getBundleJson())
+                    .toList();
+            return Mono.fromCallable(() -> mergeFhirBundles(bundles))
+                    .subscribeOn(workSchedulers.json())
+                    .flatMap(merged -> encryptAndUpload(shl, key, null, fhirContentType, merged, uploadedKeys))
+                    .flux();
+        }
+
+        // Non-U-flag: store each bundle as a separate encrypted file
+        Flux<ShlFileDocument> fhirFiles = Flux.fromIterable(wrappers)
+                .flatMap(wrapper -> encryptAndUpload(shl, key, wrapper.getCategory(), fhirContentType,
+                        wrapper.getBundleJson(), uploadedKeys));
+
+        if (!shl.isIncludeHealthCards()) {
+            return fhirFiles;
+        }
+
+        // Create health cards from the already-fetched wrappers
+        Flux<ShlFileDocument> healthCards = Flux.fromIterable(wrappers)
+                .flatMap(wrapper -> createHealthCardFromBundle(shl, key, wrapper, uploadedKeys));
+
+        return fhirFiles.concatWith(healthCards);
+    }
+
+    /**
+     * Encrypts and uploads one file. Plaintext of at least multipartThresholdBytes characters is
+     * sealed chunk by chunk into the blob store's streaming upload (multipart on S3), so the
+     * encoded JWE is never held whole in memory; smaller files are encrypted in one piece.
+     */
+    private Mono<ShlFileDocument> encryptAndUpload(ShlDocument shl, SecretKey key, FhirCategory category,
+                                                   String contentType, String plaintext, Queue<String> uploadedKeys) {
+        if (plaintext.length() < properties.storage().multipartThresholdBytes()) {
+            return encrypt(shl, key, plaintext, contentType)
+                    .flatMap(encrypted -> upload(shl, category, contentType, uploadedKeys,
+                            s3Key -> blobStore.upload(s3Key, encrypted, shl.getExpirationTime())
+                                    .thenReturn((long) encrypted.length)));
+        }
+        // Requests are rescheduled onto the crypto worker, so each chunk is sealed there
+        Flux<ByteBuffer> sealed = Mono.fromCallable(() -> ByteBuffer.wrap(plaintext.getBytes(StandardCharsets.UTF_8)))
+                .flatMapMany(bytes -> jweService.encryptStream(bytes, key, contentType, shl.isCompressPayload(),
+                        STREAM_CHUNK_BYTES))
+                .subscribeOn(workSchedulers.crypto());
+        return upload(shl, category, contentType, uploadedKeys,
+                s3Key -> blobStore.upload(s3Key, sealed, shl.getExpirationTime()));
+    }
+
+    private Mono<ShlFileDocument> upload(ShlDocument shl, FhirCategory category, String contentType,
+                                         Queue<String> uploadedKeys, Function<String, Mono<Long>> store) {
+        String s3Key = "shl-files/" + shl.getId() + "/" + UUID.randomUUID();
+        // Recorded before the upload starts, so an upload cut short by a cancel is purged too
+        uploadedKeys.add(s3Key);
+        return store.apply(s3Key)
+                .map(length -> {
+                    Instant now = Instant.now();
+                    return ShlFileDocument.builder()
+                            .shlId(shl.getId())
+                            .category(category)
+                            .contentType(contentType)
+                            .s3Key(s3Key)
+                            .contentLength(length)
+                            .lastUpdated(now)
+                            .createdAt(now)
+                            .build();
+                });
+    }
+
+    /**
+     * Removes what a failed or cancelled run left behind: any records a partially applied insert
+     * wrote, and the uploaded objects, which are queued for purging. The caller sees the run's
+     * own error, so a failed cleanup is only logged.
+     */
+    private Mono<Void> discardUploads(Queue<String> uploadedKeys) {
+        if (uploadedKeys.isEmpty()) {
+            return Mono.empty();
+        }
+        List<String> keys = List.copyOf(uploadedKeys);
+        return fileRepository.deleteByS3KeyIn(keys)
+                .then(purgeService.enqueueKeys(keys))
+                .onErrorResume(e -> {
+                    log.warn("event=shl_upload_cleanup_failed keys={} error=\"{}\"", keys.size(), e.getMessage());
+                    return Mono.empty();
                 });
     }
 
@@ -323,25 +698,23 @@ public class ShlCreationService {
         }
     }
 
-    private Mono<Void> createHealthCardFromBundle(ShlDocument shl, String bundleJson) {
-        return shcService.createHealthCard(bundleJson)
-                .flatMap(shcJson -> {
-                    String shcContentType = "application/smart-health-card";
-                    String encrypted = jweService.encrypt(shcJson, shl.getEncryptionKeyBase64(), shcContentType);
-                    String s3Key = "shl-files/" + shl.getId() + "/" + UUID.randomUUID();
-                    return s3StorageService.upload(s3Key, encrypted, shl.getExpirationTime())
-                            .flatMap(key -> {
-                                ShlFileDocument fileDoc = ShlFileDocument.builder()
-                                        .shlId(shl.getId())
-                                        .contentType(shcContentType)
-                                        .s3Key(key)
-                                        .contentLength(encrypted.getBytes(StandardCharsets.UTF_8).length)
-                                        .lastUpdated(Instant.now())
-                                        .createdAt(Instant.now())
-                                        .build();
-                                return fileRepository.save(fileDoc);
-                            });
-                })
-                .then();
+    private Mono<ShlFileDocument> createHealthCardFromBundle(ShlDocument shl, SecretKey key, FhirBundleWrapper wrapper,
+                                                             Queue<String> uploadedKeys) {
+        String shcContentType = "application/smart-health-card";
+        return shcService.createHealthCard(wrapper.getBundleJson())
+                .flatMap(shcJson -> encryptAndUpload(shl, key, wrapper.getCategory(), shcContentType, shcJson,
+                        uploadedKeys));
+    }
+
+    /**
+     * Encrypts on the crypto scheduler so large payloads never run on an event loop.
+     */
+    private Mono<byte[]> encrypt(ShlDocument shl, SecretKey key, String plaintext, String contentType) {
+        return Mono.fromCallable(() -> jweService.encrypt(
+                        plaintext.getBytes(StandardCharsets.UTF_8),
+                        key,
+                        contentType,
+                        shl.isCompressPayload()))
+                .subscribeOn(workSchedulers.crypto());
     }
 }
@@ -1,33 +1,56 @@
 package com.chanakya.shl2.service;
 
 import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.WorkSchedulers;
 import com.chanakya.shl2.crypto.JwsService;
-import tools.jackson.databind.JsonNode;
+import com.chanakya.shl2.fhir.ShcBundleMinifier;
+import tools.jackson.core.JsonGenerator;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.node.ArrayNode;
 import tools.jackson.databind.node.ObjectNode;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
+/**
+ * Builds SMART Health Cards. The VC payload is written straight into a raw DEFLATE stream while
+ * the bundle is minified token by token, so neither the bundle tree nor the uncompressed payload
+ * is materialized. Each thread reuses one Deflater, reset after every card.
+ */
 @Service
 public class SmartHealthCardService {
 
+    private static final int DEFLATE_BUFFER_BYTES = 8192;
+
     private final ShlProperties properties;
     private final JwsService jwsService;
     private final ObjectMapper objectMapper;
-
-    public SmartHealthCardService(ShlProperties properties, JwsService jwsService, ObjectMapper objectMapper) {
+    private final WorkSchedulers workSchedulers;
+    private final ShcBundleMinifier minifier;
+    private final ThreadLocal<Deflater> deflaters;
+
+    public SmartHealthCardService(ShlProperties properties,
+                                  JwsService jwsService,
+                                  ObjectMapper objectMapper,
+                                  WorkSchedulers workSchedulers) {
         this.properties = properties;
         this.jwsService = jwsService;
         this.objectMapper = objectMapper;
+        this.workSchedulers = workSchedulers;
+        this.minifier = new ShcBundleMinifier(objectMapper);
+
+        int compressionLevel = properties.shc().compressionLevel();
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("shl.shc.compression-level must be between 1 and 9");
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(compressionLevel, true));
     }
 
     /**
@@ -36,27 +59,7 @@ public class SmartHealthCardService {
      */
     public Mono<String> createHealthCard(String fhirBundleJson) {
         return Mono.fromCallable(() -> {
-            JsonNode bundle = objectMapper.readTree(fhirBundleJson);
-
-            // Minify the FHIR bundle for QR
-            JsonNode minifiedBundle = minifyBundle(bundle);
-
-            // Build VC payload
-            ObjectNode vcPayload = objectMapper.createObjectNode();
-            vcPayload.put("iss", properties.shc().issuerUrl());
-            vcPayload.put("nbf", Instant.now().getEpochSecond());
-
-            ObjectNode vc = vcPayload.putObject("vc");
-            ArrayNode types = vc.putArray("type");
-            types.add("https://smarthealth.cards#health-card");
-
-            ObjectNode credentialSubject = vc.putObject("credentialSubject");
-            credentialSubject.put("fhirVersion", "4.0.1");
-            credentialSubject.set("fhirBundle", minifiedBundle);
-
-            // Serialize, DEFLATE, and sign
-            String payloadJson = objectMapper.writeValueAsString(vcPayload);
-            byte[] deflated = deflate(payloadJson.getBytes(StandardCharsets.UTF_8));
+            byte[] deflated = deflatedPayload(fhirBundleJson.getBytes(StandardCharsets.UTF_8));
             String jws = jwsService.sign(deflated);
 
             // Wrap as SHC
@@ -65,145 +68,44 @@ public class SmartHealthCardService {
             credentials.add(jws);
 
             return objectMapper.writeValueAsString(shc);
-        }).subscribeOn(Schedulers.boundedElastic());
-    }
-
-    /**
-     * Minifies a FHIR Bundle for QR code size optimization per SHC spec.
-     */
-    private JsonNode minifyBundle(JsonNode bundle) {
-        ObjectNode minified = (ObjectNode) bundle.deepCopy();
-
-        JsonNode entries = minified.path("entry");
-        if (!entries.isArray()) {
-            return minified;
-        }
-
-        // First pass: build mapping from original fullUrl to resource:N
-        Map<String, String> referenceMap = new HashMap<>();
-        int index = 0;
-        for (JsonNode entry : entries) {
-            String originalUrl = entry.path("fullUrl").asText(null);
-            if (originalUrl != null) {
-                referenceMap.put(originalUrl, "resource:" + index);
-            }
-            // Also map ResourceType/id patterns
-            JsonNode resource = entry.path("resource");
-            String resourceType = resource.path("resourceType").asText(null);
-            String resourceId = resource.path("id").asText(null);
-            if (resourceType != null && resourceId != null) {
-                referenceMap.put(resourceType + "/" + resourceId, "resource:" + index);
-            }
-            index++;
-        }
-
-        // Second pass: apply minification
-        index = 0;
-        for (JsonNode entry : entries) {
-            if (entry instanceof ObjectNode entryObj) {
-                entryObj.put("fullUrl", "resource:" + index);
-
-                JsonNode resource = entry.path("resource");
-                if (resource instanceof ObjectNode resourceObj) {
-                    // Strip Resource.id
-                    resourceObj.remove("id");
-
-                    // Strip Resource.meta (keep .meta.security)
-                    JsonNode meta = resourceObj.path("meta");
-                    if (meta instanceof ObjectNode metaObj) {
-                        JsonNode security = metaObj.path("security");
-                        if (security.isMissingNode() || security.isEmpty()) {
-                            resourceObj.remove("meta");
-                        } else {
-                            ObjectNode newMeta = objectMapper.createObjectNode();
-                            newMeta.set("security", security);
-                            resourceObj.set("meta", newMeta);
-                        }
-                    }
-
-                    // Strip DomainResource.text
-                    resourceObj.remove("text");
-
-                    // Strip CodeableConcept.text and Coding.display recursively
-                    stripCodeableConceptText(resourceObj);
-
-                    // Rewrite Reference.reference values to resource:N
-                    rewriteReferences(resourceObj, referenceMap);
-                }
-
-                index++;
-            }
-        }
-
-        return minified;
+        }).subscribeOn(workSchedulers.json());
     }
 
     /**
-     * Recursively rewrites Reference.reference values to use resource:N URIs.
+     * Writes the VC payload with the minified bundle through raw DEFLATE (RFC1951, no zlib headers).
      */
-    private void rewriteReferences(JsonNode node, Map<String, String> referenceMap) {
-        if (node instanceof ObjectNode objNode) {
-            // Check if this is a FHIR Reference (has "reference" string field)
-            JsonNode refNode = objNode.path("reference");
-            if (refNode.isTextual()) {
-                String mapped = referenceMap.get(refNode.asText());
-                if (mapped != null) {
-                    objNode.put("reference", mapped);
-                }
+    private byte[] deflatedPayload(byte[] bundle) {
+        Deflater deflater = deflaters.get();
+        // Minified and compressed cards are usually well under a tenth of the bundle
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(256, bundle.length / 8));
+        try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater, DEFLATE_BUFFER_BYTES)) {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeStringProperty("iss", properties.shc().issuerUrl());
+                generator.writeNumberProperty("nbf", Instant.now().getEpochSecond());
+
+                generator.writeName("vc");
+                generator.writeStartObject();
+                generator.writeName("type");
+                generator.writeStartArray();
+                generator.writeString("https://smarthealth.cards#health-card");
+                generator.writeEndArray();
+
+                generator.writeName("credentialSubject");
+                generator.writeStartObject();
+                generator.writeStringProperty("fhirVersion", "4.0.1");
+                generator.writeName("fhirBundle");
+                minifier.write(bundle, generator);
+                generator.writeEndObject();
+
+                generator.writeEndObject();
+                generator.writeEndObject();
             }
-            // Recurse into child nodes
-            for (String fieldName : objNode.propertyNames()) {
-                rewriteReferences(objNode.get(fieldName), referenceMap);
-            }
-        } else if (node instanceof ArrayNode arrayNode) {
-            for (JsonNode element : arrayNode) {
-                rewriteReferences(element, referenceMap);
-            }
-        }
-    }
-
-    /**
-     * Recursively strips CodeableConcept.text and Coding.display from a resource.
-     */
-    private void stripCodeableConceptText(JsonNode node) {
-        if (node instanceof ObjectNode objNode) {
-            // Check if this looks like a CodeableConcept (has "coding" array)
-            if (objNode.has("coding") && objNode.path("coding").isArray()) {
-                objNode.remove("text");
-                for (JsonNode coding : objNode.path("coding")) {
-                    if (coding instanceof ObjectNode codingObj) {
-                        codingObj.remove("display");
-                    }
-                }
-            }
-
-            // Recurse into child nodes
-            for (String fieldName : objNode.propertyNames()) {
-                JsonNode child = objNode.get(fieldName);
-                stripCodeableConceptText(child);
-            }
-        } else if (node instanceof ArrayNode arrayNode) {
-            for (JsonNode element : arrayNode) {
-                stripCodeableConceptText(element);
-            }
-        }
-    }
-
-    /**
-     * DEFLATE compress (raw RFC1951, no zlib headers).
-     */
-    private byte[] deflate(byte[] input) {
-        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true); // true = raw deflate
-        deflater.setInput(input);
-        deflater.finish();
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
-        byte[] buffer = new byte[1024];
-        while (!deflater.finished()) {
-            int count = deflater.deflate(buffer);
-            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.reset();
         }
-        deflater.end();
-        return out.toByteArray();
+        return deflated.toByteArray();
     }
 }
@@ -0,0 +1,268 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import com.chanakya.shl2.repository.StoragePurgeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable, asynchronous S3 purge queue. Request paths enqueue keys or prefixes in Mongo and
+ * return; a background worker leases pending purges, packs their keys across SHLs into full
+ * DeleteObjects calls at a capped request rate, and retries only the keys S3 failed to delete.
+ */
+@Service
+public class StoragePurgeService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(StoragePurgeService.class);
+
+    private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+
+    private final StoragePurgeRepository purgeRepository;
+    private final BlobStore blobStore;
+    private final ShlProperties.Purge config;
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final Counter deleted;
+    private final Counter failed;
+    private final Counter abandoned;
+    private volatile Disposable worker;
+
+    /**
+     * A leased purge and the keys this drain deletes for it. A truncated prefix purge has more
+     * keys under its prefix than the drain took.
+     */
+    private record ClaimedPurge(StoragePurgeDocument purge, List<String> keys, boolean truncated) {}
+
+    public StoragePurgeService(StoragePurgeRepository purgeRepository,
+                               BlobStore blobStore,
+                               ShlProperties properties,
+                               MeterRegistry meterRegistry) {
+        this.purgeRepository = purgeRepository;
+        this.blobStore = blobStore;
+        this.config = properties.purge();
+
+        Gauge.builder("shl.storage.purge.queue.depth", queueDepth, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("shl.storage.purge.lag", lagSeconds, AtomicLong::get)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.deleted = Counter.builder("shl.storage.purge.deleted").register(meterRegistry);
+        this.failed = Counter.builder("shl.storage.purge.failed").register(meterRegistry);
+        this.abandoned = Counter.builder("shl.storage.purge.abandoned").register(meterRegistry);
+    }
+
+    /**
+     * Queues the keys for deletion, split into documents of at most one DeleteObjects call each.
+     */
+    public Mono<Void> enqueueKeys(List<String> s3Keys) {
+        if (s3Keys.isEmpty()) {
+            return Mono.empty();
+        }
+        Instant now = Instant.now();
+        return Flux.fromIterable(s3Keys)
+                .buffer(BlobStore.MAX_KEYS_PER_DELETE)
+                .concatMap(batch -> purgeRepository.save(StoragePurgeDocument.builder()
+                        .keys(batch)
+                        .enqueuedAt(now)
+                        .nextAttemptAt(now)
+                        .build()))
+                .then();
+    }
+
+    /**
+     * Queues every object under the prefix for deletion; the listing happens in the worker.
+     */
+    public Mono<Void> enqueuePrefix(String prefix) {
+        Instant now = Instant.now();
+        return purgeRepository.save(StoragePurgeDocument.builder()
+                        .prefix(prefix)
+                        .enqueuedAt(now)
+                        .nextAttemptAt(now)
+                        .build())
+                .then();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Duration pollInterval = Duration.ofSeconds(config.pollIntervalSeconds());
+        worker = Flux.interval(Duration.ZERO, pollInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> drain()
+                        .then(refreshGauges())
+                        .onErrorResume(e -> {
+                            log.warn("event=storage_purge_drain_failed error=\"{}\"", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        Disposable current = worker;
+        if (current != null) {
+            current.dispose();
+        }
+    }
+
+    /**
+     * One worker pass: lease up to a DeleteObjects call's worth of purges, resolve at most
+     * maxKeysPerDrain of their keys, delete them, then settle each purge as done, rescheduled with
+     * its failed keys or the rest of its prefix, or abandoned. The key cap keeps the pass well
+     * within the lease, however large a prefix turns out to be.
+     */
+    private Mono<Void> drain() {
+        AtomicInteger keyBudget = new AtomicInteger(config.maxKeysPerDrain());
+        return claim()
+                .concatMap(purge -> resolveKeys(purge, keyBudget))
+                .collectList()
+                .flatMap(claimed -> {
+                    if (claimed.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    List<String> keys = claimed.stream()
+                            .flatMap(purge -> purge.keys().stream())
+                            .distinct()
+                            .toList();
+                    Duration spacing = Duration.ofMillis(1000L / Math.max(1, config.deleteRequestsPerSecond()));
+                    return Flux.fromIterable(keys)
+                            .buffer(BlobStore.MAX_KEYS_PER_DELETE)
+                            .index()
+                            // Only the calls after the first wait, so a pass starts deleting at once
+                            .concatMap(batch -> batch.getT1() == 0
+                                    ? deleteBatch(batch.getT2())
+                                    : deleteBatch(batch.getT2()).delaySubscription(spacing))
+                            .collect(HashSet<String>::new, HashSet::addAll)
+                            .flatMap(failedKeys -> {
+                                deleted.increment(keys.size() - failedKeys.size());
+                                failed.increment(failedKeys.size());
+                                return Flux.fromIterable(claimed)
+                                        .concatMap(purge -> settle(purge, failedKeys))
+                                        .then();
+                            });
+                });
+    }
+
+    /**
+     * Leases purges until roughly one DeleteObjects call's worth of keys is held. Prefix purges
+     * count as one key, since their size is only known after listing.
+     */
+    private Flux<StoragePurgeDocument> claim() {
+        Duration lease = Duration.ofSeconds(config.leaseSeconds());
+        AtomicInteger claimedKeys = new AtomicInteger();
+        AtomicInteger claimedPurges = new AtomicInteger();
+        return Mono.defer(() -> purgeRepository.claimNext(Instant.now(), lease))
+                .expand(purge -> {
+                    int keys = claimedKeys.addAndGet(purge.getKeys() != null ? purge.getKeys().size() : 1);
+                    return keys < BlobStore.MAX_KEYS_PER_DELETE
+                            && claimedPurges.incrementAndGet() < config.maxPurgesPerDrain()
+                            ? purgeRepository.claimNext(Instant.now(), lease)
+                            : Mono.empty();
+                });
+    }
+
+    /**
+     * Deletes one batch; a failed call reports every key in it as failed.
+     */
+    private Mono<List<String>> deleteBatch(List<String> batch) {
+        return Mono.defer(() -> blobStore.deleteBatch(batch))
+                .onErrorResume(e -> {
+                    log.warn("event=storage_purge_batch_failed keys={} error=\"{}\"", batch.size(), e.getMessage());
+                    return Mono.just(batch);
+                });
+    }
+
+    /**
+     * Resolves the keys to delete for a purge, listing a prefix only up to what is left of the
+     * drain's key budget.
+     */
+    private Mono<ClaimedPurge> resolveKeys(StoragePurgeDocument purge, AtomicInteger keyBudget) {
+        if (purge.getPrefix() == null) {
+            List<String> keys = purge.getKeys() != null ? purge.getKeys() : List.of();
+            keyBudget.addAndGet(-keys.size());
+            return Mono.just(new ClaimedPurge(purge, keys, false));
+        }
+        int limit = keyBudget.get();
+        if (limit <= 0) {
+            return Mono.just(new ClaimedPurge(purge, List.of(), true));
+        }
+        // A failed listing leaves the lease to lapse, so the purge is retried later
+        return blobStore.listKeys(purge.getPrefix())
+                // One key past the budget tells a truncated listing from an exact fit
+                .take(limit + 1L)
+                .collectList()
+                .map(keys -> {
+                    boolean truncated = keys.size() > limit;
+                    List<String> taken = truncated ? keys.subList(0, limit) : keys;
+                    keyBudget.addAndGet(-taken.size());
+                    return new ClaimedPurge(purge, taken, truncated);
+                })
+                .onErrorResume(e -> {
+                    log.warn("event=storage_purge_list_failed prefix={} error=\"{}\"", purge.getPrefix(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> settle(ClaimedPurge claimed, Set<String> failedKeys) {
+        StoragePurgeDocument purge = claimed.purge();
+        List<String> remaining = claimed.keys().stream().filter(failedKeys::contains).toList();
+        if (remaining.isEmpty() && !claimed.truncated()) {
+            return purgeRepository.deleteById(purge.getId());
+        }
+        if (!remaining.isEmpty() && purge.getAttempts() >= config.maxAttempts()) {
+            abandoned.increment(remaining.size());
+            log.error("event=storage_purge_abandoned id={} keys={} attempts={}",
+                    purge.getId(), remaining.size(), purge.getAttempts());
+            return purgeRepository.deleteById(purge.getId());
+        }
+        if (claimed.truncated()) {
+            // The prefix is listed again next pass, failed keys included
+            if (remaining.isEmpty()) {
+                // A pass that made progress does not count as an attempt
+                purge.setAttempts(purge.getAttempts() - 1);
+                purge.setNextAttemptAt(Instant.now());
+            } else {
+                purge.setNextAttemptAt(Instant.now().plus(backoff(purge.getAttempts())));
+            }
+            return purgeRepository.save(purge).then();
+        }
+        // The listing is kept as explicit keys, so the retry does not list the prefix again
+        purge.setPrefix(null);
+        purge.setKeys(remaining);
+        purge.setNextAttemptAt(Instant.now().plus(backoff(purge.getAttempts())));
+        return purgeRepository.save(purge).then();
+    }
+
+    private Duration backoff(int attempts) {
+        Duration delay = Duration.ofSeconds(config.pollIntervalSeconds()).multipliedBy(1L << Math.min(attempts, 12));
+        return delay.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay;
+    }
+
+    private Mono<Void> refreshGauges() {
+        return purgeRepository.count()
+                .doOnNext(queueDepth::set)
+                .then(purgeRepository.findFirstByOrderByEnqueuedAtAsc()
+                        .map(oldest -> Math.max(0, Duration.between(oldest.getEnqueuedAt(), Instant.now()).toSeconds()))
+                        .defaultIfEmpty(0L)
+                        .doOnNext(lagSeconds::set))
+                .then();
+    }
+}
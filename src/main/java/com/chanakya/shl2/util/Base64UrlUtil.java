@@ -1,5 +1,10 @@
 package com.chanakya.shl2.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
 
 public final class Base64UrlUtil {
@@ -16,4 +21,83 @@ public final class Base64UrlUtil {
     public static byte[] decode(String encoded) {
         return DECODER.decode(encoded);
     }
+
+    /**
+     * Unpadded base64url length of {@code length} bytes.
+     */
+    public static int encodedLength(int length) {
+        return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Decoded length of {@code length} unpadded base64url characters.
+     */
+    public static int decodedLength(int length) {
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64url length: " + length);
+        }
+        return (length / 4) * 3 + (length % 4 == 0 ? 0 : length % 4 - 1);
+    }
+
+    /**
+     * Encodes {@code src[offset, offset + length)} into {@code dst} at {@code dstOffset} without
+     * padding and returns the offset just past the last character written. The JDK encoder
+     * streams straight into {@code dst}, so no copy of the encoded output is made.
+     */
+    public static int encodeInto(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        ArrayOutput out = new ArrayOutput(dst, dstOffset);
+        try (OutputStream encoder = ENCODER.wrap(out)) {
+            encoder.write(src, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.position;
+    }
+
+    /**
+     * Decodes unpadded base64url {@code src[offset, offset + length)} into {@code dst} at
+     * {@code dstOffset} and returns the offset just past the last byte written. Padding and
+     * non-canonical encodings (non-zero unused bits in the last character) are rejected.
+     */
+    public static int decodeInto(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int expected = decodedLength(length);
+        ByteBuffer decoded = DECODER.decode(ByteBuffer.wrap(src, offset, length));
+        if (decoded.remaining() != expected) {
+            throw new IllegalArgumentException("Padded base64url is not allowed");
+        }
+        decoded.get(dst, dstOffset, expected);
+
+        int tailChars = length % 4;
+        if (tailChars != 0) {
+            // The canonical encoding of the last partial group must reproduce the input exactly
+            byte[] tail = ENCODER.encode(Arrays.copyOfRange(dst, dstOffset + expected - (tailChars - 1), dstOffset + expected));
+            int end = offset + length;
+            if (!Arrays.equals(tail, 0, tailChars, src, end - tailChars, end)) {
+                throw new IllegalArgumentException("Non-canonical base64url encoding");
+            }
+        }
+        return dstOffset + expected;
+    }
+
+    private static final class ArrayOutput extends OutputStream {
+
+        private final byte[] dst;
+        private int position;
+
+        private ArrayOutput(byte[] dst, int position) {
+            this.dst = dst;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) {
+            dst[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, dst, position, len);
+            position += len;
+        }
+    }
 }
@@ -0,0 +1,27 @@
+package com.chanakya.shl2;
+
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+/**
+ * Treats CPU-heavy entry points as blocking, so the blocking-detection profile fails any test
+ * that runs them on an event-loop thread instead of the dedicated worker schedulers.
+ */
+public class EventLoopWorkBlockHoundIntegration implements BlockHoundIntegration {
+
+    @Override
+    public void applyTo(BlockHound.Builder builder) {
+        builder
+                .markAsBlocking("com.chanakya.shl2.crypto.JweService", "encrypt",
+                        "(Ljava/nio/ByteBuffer;Ljavax/crypto/SecretKey;Ljava/lang/String;Z)[B")
+                .markAsBlocking("com.chanakya.shl2.crypto.JweService", "decrypt",
+                        "([BLjavax/crypto/SecretKey;)[B")
+                .markAsBlocking("org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder", "encode",
+                        "(Ljava/lang/CharSequence;)Ljava/lang/String;")
+                .markAsBlocking("org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder", "matches",
+                        "(Ljava/lang/CharSequence;Ljava/lang/String;)Z")
+                .markAsBlocking("com.google.zxing.qrcode.QRCodeWriter", "encode",
+                        "(Ljava/lang/String;Lcom/google/zxing/BarcodeFormat;IILjava/util/Map;)Lcom/google/zxing/common/BitMatrix;")
+                .markAsBlocking("com.chanakya.shl2.crypto.JwsService", "sign", "([B)Ljava/lang/String;");
+    }
+}
@@ -0,0 +1,241 @@
+package com.chanakya.shl2;
+
+import com.chanakya.shl2.crypto.JweService;
+import com.chanakya.shl2.model.document.MemberPreferencesDocument;
+import com.chanakya.shl2.model.document.ShlDocument;
+import com.chanakya.shl2.model.document.ShlFileDocument;
+import com.chanakya.shl2.model.dto.request.CreateShlRequest;
+import com.chanakya.shl2.model.dto.request.ManifestRequest;
+import com.chanakya.shl2.model.dto.response.CreateShlResponse;
+import com.chanakya.shl2.exception.HealthLakeException;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.ShlStatus;
+import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
+import com.chanakya.shl2.repository.AccessLogDynamoRepository;
+import com.chanakya.shl2.repository.MemberPreferencesRepository;
+import com.chanakya.shl2.repository.ShlCreationJobRepository;
+import com.chanakya.shl2.repository.ShlFileRepository;
+import com.chanakya.shl2.repository.ShlRepository;
+import com.chanakya.shl2.repository.StoragePurgeRepository;
+import com.chanakya.shl2.service.HealthLakeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Creates an SHL with a passcode and a QR code, then resolves its manifest and downloads the
+ * file through the local blob store, all through a running server. The persistence and
+ * HealthLake edges are stubbed in memory; everything in between is the real pipeline, so under
+ * {@code -Pblocking-detection} this fails if JWE, BCrypt or QR encoding runs on an event loop.
+ * The multipart threshold is below the bundle size, so the file is encrypted and stored as a stream.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "shl.storage.backend=local",
+        "shl.storage.multipart-threshold-bytes=64",
+        "shl.storage.local.signing-secret=create-and-manifest-flow-test-secret"
+})
+class ShlCreateAndManifestFlowTest {
+
+    private static final String PATIENT_ID = "patient-1";
+    private static final String PASSCODE = "1234";
+    private static final String BUNDLE = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":["
+            + "{\"resource\":{\"resourceType\":\"Condition\",\"id\":\"c1\"}}]}";
+
+    @TempDir
+    static Path blobRoot;
+
+    @DynamicPropertySource
+    static void blobStore(DynamicPropertyRegistry registry) {
+        registry.add("shl.storage.local.root", () -> blobRoot.toString());
+    }
+
+    @MockitoBean
+    private ShlRepository shlRepository;
+
+    @MockitoBean
+    private ShlFileRepository fileRepository;
+
+    @MockitoBean
+    private MemberPreferencesRepository preferencesRepository;
+
+    @MockitoBean
+    private AccessLogDynamoRepository accessLogRepository;
+
+    @MockitoBean
+    private ShlCreationJobRepository jobRepository;
+
+    @MockitoBean
+    private StoragePurgeRepository purgeRepository;
+
+    @MockitoBean
+    private HealthLakeService healthLakeService;
+
+    @Autowired
+    private JweService jweService;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    private final Map<String, ShlDocument> shls = new ConcurrentHashMap<>();
+    private final List<ShlFileDocument> files = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void stubEdges() {
+        when(shlRepository.save(any(ShlDocument.class))).thenAnswer(invocation -> {
+            ShlDocument shl = invocation.getArgument(0);
+            if (shl.getId() == null) {
+                shl.setId(UUID.randomUUID().toString());
+            }
+            shls.put(shl.getManifestId(), shl);
+            return Mono.just(shl);
+        });
+        when(shlRepository.findByManifestId(anyString()))
+                .thenAnswer(invocation -> Mono.justOrEmpty(shls.get(invocation.<String>getArgument(0))));
+        when(shlRepository.activatePending(anyString(), any(), any()))
+                .thenAnswer(invocation -> transitionPending(invocation.getArgument(0), ShlStatus.ACTIVE)
+                        .doOnNext(shl -> shl.setCategoryCounts(invocation.getArgument(1))));
+        when(shlRepository.revokePending(anyString(), any()))
+                .thenAnswer(invocation -> transitionPending(invocation.getArgument(0), ShlStatus.REVOKED));
+        when(fileRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            Iterable<ShlFileDocument> saved = invocation.getArgument(0);
+            saved.forEach(files::add);
+            return Flux.fromIterable(saved);
+        });
+        when(fileRepository.findByShlId(anyString())).thenAnswer(invocation -> Flux.fromIterable(files)
+                .filter(file -> file.getShlId().equals(invocation.getArgument(0))));
+        when(preferencesRepository.findByPatientId(PATIENT_ID)).thenReturn(Mono.just(MemberPreferencesDocument.builder()
+                .patientId(PATIENT_ID)
+                .sharingEnabled(true)
+                .build()));
+        when(accessLogRepository.save(any())).thenReturn(Mono.empty());
+        when(jobRepository.claimNext(any(), any())).thenReturn(Mono.empty());
+        when(jobRepository.countByStatus(any())).thenReturn(Mono.just(0L));
+        when(purgeRepository.claimNext(any(), any())).thenReturn(Mono.empty());
+        when(purgeRepository.count()).thenReturn(Mono.just(0L));
+        when(purgeRepository.findFirstByOrderByEnqueuedAtAsc()).thenReturn(Mono.empty());
+        when(healthLakeService.fetchResourcesByCategory(eq(PATIENT_ID), anyList(), any(), any(), anyBoolean()))
+                .thenReturn(Flux.just(FhirBundleWrapper.builder()
+                        .category(FhirCategory.CONDITIONS)
+                        .bundleJson(BUNDLE)
+                        .resourceCount(1)
+                        .build()));
+    }
+
+    @Test
+    void createsAnShlAndServesItsManifestAndFile() {
+        WebTestClient client = WebTestClient.bindToServer()
+                .baseUrl("http://127.0.0.1:" + port)
+                .build();
+
+        CreateShlResponse created = client.post().uri("/api/shl")
+                .bodyValue(new CreateShlRequest(PATIENT_ID, List.of(FhirCategory.CONDITIONS), null, null,
+                        Instant.now().plus(1, ChronoUnit.DAYS), "Flow test", PASSCODE, Set.of(),
+                        false, true, null))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(CreateShlResponse.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(created).isNotNull();
+        assertThat(created.shlUri()).startsWith("shlink:/");
+        assertThat(created.qrCodeDataUri()).startsWith("data:image/png;base64,");
+        ShlDocument shl = shls.values().iterator().next();
+        assertThat(shl.getStatus()).isEqualTo(ShlStatus.ACTIVE);
+        assertThat(shl.getCategoryCounts()).containsExactlyEntriesOf(Map.of(FhirCategory.CONDITIONS, 1));
+        assertThat(shl.getPasscodeHash()).isNotBlank().isNotEqualTo(PASSCODE);
+
+        client.post().uri("/api/shl/manifest/{manifestId}", shl.getManifestId())
+                .bodyValue(new ManifestRequest("flow-test", null, null))
+                .exchange()
+                .expectStatus().isUnauthorized();
+
+        AtomicReference<String> location = new AtomicReference<>();
+        client.post().uri("/api/shl/manifest/{manifestId}", shl.getManifestId())
+                .bodyValue(new ManifestRequest("flow-test", PASSCODE, null))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("finalized")
+                .jsonPath("$.files.length()").isEqualTo(1)
+                .jsonPath("$.files[0].contentType").isEqualTo("application/fhir+json;fhirVersion=4.0.1")
+                .jsonPath("$.files[0].location").value(String.class, location::set);
+
+        URI download = URI.create(location.get());
+        byte[] jwe = client.get()
+                .uri(URI.create("http://127.0.0.1:" + port + download.getRawPath() + "?" + download.getRawQuery()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(new String(jweService.decrypt(jwe, shl.getEncryptionKeyBase64()), StandardCharsets.UTF_8))
+                .isEqualTo(BUNDLE);
+    }
+
+    @Test
+    void aFailedCreationRevokesThePendingShl() {
+        when(healthLakeService.fetchResourcesByCategory(eq(PATIENT_ID), anyList(), any(), any(), anyBoolean()))
+                .thenReturn(Flux.error(new HealthLakeException("HealthLake unavailable")));
+        WebTestClient client = WebTestClient.bindToServer()
+                .baseUrl("http://127.0.0.1:" + port)
+                .build();
+
+        client.post().uri("/api/shl")
+                .bodyValue(new CreateShlRequest(PATIENT_ID, List.of(FhirCategory.CONDITIONS), null, null,
+                        Instant.now().plus(1, ChronoUnit.DAYS), "Flow test", null, Set.of(),
+                        false, false, null))
+                .exchange()
+                .expectStatus().is5xxServerError();
+
+        ShlDocument shl = shls.values().iterator().next();
+        assertThat(shl.getStatus()).isEqualTo(ShlStatus.REVOKED);
+        assertThat(files).isEmpty();
+        client.post().uri("/api/shl/manifest/{manifestId}", shl.getManifestId())
+                .bodyValue(new ManifestRequest("flow-test", null, null))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private Mono<ShlDocument> transitionPending(String shlId, ShlStatus status) {
+        return Mono.justOrEmpty(shls.values().stream()
+                .filter(shl -> shl.getId().equals(shlId) && shl.getStatus() == ShlStatus.PENDING)
+                .findFirst()
+                .map(shl -> {
+                    shl.setStatus(status);
+                    return shl;
+                }));
+    }
+}
@@ -0,0 +1,41 @@
+package com.chanakya.shl2.config;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Binds {@link ShlProperties} from application.yml outside a Spring context, so unit tests and
+ * benchmarks run against the shipped defaults. Overrides use relaxed keys, e.g.
+ * {@code shl.crypto.compress-payloads}.
+ */
+public final class ShlPropertiesFixture {
+
+    private ShlPropertiesFixture() {
+    }
+
+    public static ShlProperties load() {
+        return load(Map.of());
+    }
+
+    public static ShlProperties load(Map<String, Object> overrides) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("overrides", overrides));
+        try {
+            for (PropertySource<?> source : new YamlPropertySourceLoader()
+                    .load("application", new ClassPathResource("application.yml"))) {
+                environment.getPropertySources().addLast(source);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Binder.get(environment).bind("shl", ShlProperties.class).get();
+    }
+}
@@ -0,0 +1,124 @@
+package com.chanakya.shl2.controller;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.service.LocalBlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Serves local blobs through their signed URLs. The mmap chunk size is far below the blob size,
+ * so full and ranged reads span several mapped chunks.
+ */
+class BlobControllerTest {
+
+    private static final String KEY = "shl-files/shl-1/file.jwe";
+    private static final byte[] CONTENT = "eyJhbGciOiJkaXIiLCJlbmMiOiJBMjU2R0NNIn0..iv.ciphertext.tag"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path root;
+
+    private LocalBlobStore blobStore;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        blobStore = new LocalBlobStore(ShlPropertiesFixture.load(Map.of(
+                "shl.storage.local.root", root.toString(),
+                "shl.storage.local.signing-secret", "blob-controller-test-signing-secret",
+                "shl.storage.local.mmap-chunk-bytes", 16)));
+        client = WebTestClient.bindToController(new BlobController(blobStore)).build();
+        blobStore.upload(KEY, CONTENT, null).block();
+    }
+
+    @Test
+    void aSignedUrlServesTheWholeBlob() {
+        byte[] body = client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectHeader().contentLength(CONTENT.length)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(body).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void aTamperedOrExpiredUrlIsForbidden() {
+        String signed = signedPath(Duration.ofMinutes(5)).toString();
+        client.get().uri(URI.create(signed.replace("shl-1", "shl-2")))
+                .exchange()
+                .expectStatus().isForbidden();
+        client.get().uri(signedPath(Duration.ofSeconds(-5)))
+                .exchange()
+                .expectStatus().isForbidden();
+    }
+
+    @Test
+    void servesSingleByteRangesAcrossChunks() {
+        client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .header(HttpHeaders.RANGE, "bytes=10-40")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 10-40/" + CONTENT.length)
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(CONTENT, 10, 41));
+
+        client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .header(HttpHeaders.RANGE, "bytes=-20")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + (CONTENT.length - 20) + "-" + (CONTENT.length - 1) + "/" + CONTENT.length)
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(CONTENT, CONTENT.length - 20, CONTENT.length));
+    }
+
+    @Test
+    void anUnsatisfiableRangeReportsTheBlobSize() {
+        client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .header(HttpHeaders.RANGE, "bytes=1000-")
+                .exchange()
+                .expectStatus().isEqualTo(416)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */" + CONTENT.length)
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void aMatchingIfNoneMatchIsNotModified() {
+        String eTag = client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(byte[].class)
+                .getResponseHeaders()
+                .getETag();
+
+        client.get().uri(signedPath(Duration.ofMinutes(5)))
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectBody().isEmpty();
+    }
+
+    /**
+     * The signed URL relative to the app, kept as a URI so its encoded key is not encoded again.
+     */
+    private URI signedPath(Duration expiry) {
+        URI url = URI.create(blobStore.generateDownloadUrl(KEY, expiry));
+        return URI.create(url.getRawPath() + "?" + url.getRawQuery());
+    }
+}
@@ -0,0 +1,98 @@
+package com.chanakya.shl2.controller;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.crypto.JwsService;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Serves the JWKS with its ETag and answers revalidation with 304 until the keys change.
+ */
+class WellKnownControllerTest {
+
+    @TempDir
+    Path keyDir;
+
+    private Path signingKey;
+    private ShlProperties properties;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        signingKey = keyDir.resolve("signing.jwk");
+        Files.writeString(signingKey, new ECKeyGenerator(Curve.P_256).generate().toJSONString());
+        properties = ShlPropertiesFixture.load(Map.of(
+                "shl.shc.signing-key-path", signingKey.toUri().toString(),
+                "shl.shc.jwks-max-age-seconds", 600));
+        client = client();
+    }
+
+    @Test
+    void servesTheJwksWithItsETagAndCacheLifetime() {
+        client.get().uri("/.well-known/jwks.json")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "max-age=600, public")
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectBody()
+                .jsonPath("$.keys.length()").isEqualTo(1);
+    }
+
+    @Test
+    void aMatchingIfNoneMatchGetsNotModified() {
+        String eTag = eTag();
+
+        byte[] body = client.get().uri("/.well-known/jwks.json")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(body).isNullOrEmpty();
+    }
+
+    @Test
+    void anETagFromBeforeARotationGetsTheNewDocument() throws Exception {
+        String before = eTag();
+        Files.writeString(signingKey, new ECKeyGenerator(Curve.P_256).generate().toJSONString());
+        client = client();
+
+        client.get().uri("/.well-known/jwks.json")
+                .header(HttpHeaders.IF_NONE_MATCH, before)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, eTag -> assertThat(eTag).isNotEqualTo(before));
+    }
+
+    private String eTag() {
+        return client.get().uri("/.well-known/jwks.json")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(byte[].class)
+                .getResponseHeaders()
+                .getETag();
+    }
+
+    private WebTestClient client() throws Exception {
+        JwsService jwsService = new JwsService(properties);
+        jwsService.init();
+        return WebTestClient.bindToController(new WellKnownController(jwsService, properties)).build();
+    }
+}
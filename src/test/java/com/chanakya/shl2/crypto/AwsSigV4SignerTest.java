@@ -0,0 +1,216 @@
+package com.chanakya.shl2.crypto;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Signs requests to a local HTTP server, which re-derives each signature from what actually
+ * arrived on the wire, following the SigV4 specification independently of the SDK.
+ */
+class AwsSigV4SignerTest {
+
+    private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-01-02T03:04:05Z"), ZoneOffset.UTC);
+    private static final Pattern AUTHORIZATION = Pattern.compile(
+            "AWS4-HMAC-SHA256 Credential=([^/]+)/([^,]+), SignedHeaders=([^,]+), Signature=([0-9a-f]{64})");
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final AtomicReference<ReceivedRequest> received = new AtomicReference<>();
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            exchange.getRequestHeaders().forEach((name, values) -> headers.put(name, values.get(0)));
+            received.set(new ReceivedRequest(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                    exchange.getRequestURI().getRawQuery(), headers, exchange.getRequestBody().readAllBytes()));
+            byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/fhir+json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void signsASearchWithAQueryThatNeedsCanonicalEncoding() {
+        client(() -> AwsBasicCredentials.create("AKIDEXAMPLE", SECRET_KEY)).get()
+                .uri("/Observation?patient=p1&category=laboratory&date=ge2024-01-01T00:00:00Z&_count=100")
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+
+        ReceivedRequest request = received.get();
+        assertThat(request.header("X-Amz-Date")).isEqualTo("20240102T030405Z");
+        assertThat(request.authorization().group(1)).isEqualTo("AKIDEXAMPLE");
+        assertThat(request.authorization().group(2)).isEqualTo("20240102/us-east-1/healthlake/aws4_request");
+        assertThat(request.authorization().group(3).split(";")).contains("host", "x-amz-date");
+        assertThat(request.authorization().group(4)).isEqualTo(expectedSignature(request));
+    }
+
+    @Test
+    void signsTheBodyAndSessionTokenOfABatch() {
+        byte[] body = "{\"resourceType\":\"Bundle\",\"type\":\"batch\",\"entry\":[]}".getBytes(StandardCharsets.UTF_8);
+
+        client(() -> AwsSessionCredentials.create("ASIAEXAMPLE", SECRET_KEY, "session-token")).post()
+                .uri("/")
+                .attribute(AwsSigV4Signer.PAYLOAD_ATTRIBUTE, body)
+                .header("Content-Type", "application/fhir+json")
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+
+        ReceivedRequest request = received.get();
+        assertThat(request.body()).isEqualTo(body);
+        assertThat(request.header("X-Amz-Security-Token")).isEqualTo("session-token");
+        assertThat(request.authorization().group(3).split(";")).contains("x-amz-security-token");
+        assertThat(request.authorization().group(4)).isEqualTo(expectedSignature(request));
+    }
+
+    @Test
+    void resolvesCredentialsOffNonBlockingThreads() {
+        AtomicBoolean resolvedOnNonBlockingThread = new AtomicBoolean(true);
+        WebClient client = client(() -> {
+            resolvedOnNonBlockingThread.set(Schedulers.isInNonBlockingThread());
+            return AwsBasicCredentials.create("AKIDEXAMPLE", SECRET_KEY);
+        });
+
+        Mono.defer(() -> client.get().uri("/Patient/p1").retrieve().bodyToMono(String.class))
+                .subscribeOn(Schedulers.parallel())
+                .block();
+
+        assertThat(resolvedOnNonBlockingThread).isFalse();
+        assertThat(received.get().authorization().group(4)).isEqualTo(expectedSignature(received.get()));
+    }
+
+    private WebClient client(AwsCredentialsProvider credentialsProvider) {
+        AwsSigV4Signer signer = new AwsSigV4Signer(credentialsProvider, "us-east-1", "healthlake", CLOCK);
+        return WebClient.builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/datastore/ds/r4")
+                .filter(signer.filter())
+                .build();
+    }
+
+    private static String expectedSignature(ReceivedRequest request) {
+        Matcher authorization = request.authorization();
+        String scope = authorization.group(2);
+        String signedHeaders = authorization.group(3);
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (String name : signedHeaders.split(";")) {
+            canonicalHeaders.append(name).append(':')
+                    .append(request.header(name).trim().replaceAll(" +", " ")).append('\n');
+        }
+        String canonicalRequest = request.method() + '\n'
+                + uriEncode(request.rawPath(), false) + '\n'
+                + canonicalQuery(request.rawQuery()) + '\n'
+                + canonicalHeaders + '\n'
+                + signedHeaders + '\n'
+                + sha256Hex(request.body());
+        String stringToSign = "AWS4-HMAC-SHA256\n" + request.header("X-Amz-Date") + '\n' + scope + '\n'
+                + sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8));
+
+        String[] scopeParts = scope.split("/");
+        byte[] key = ("AWS4" + SECRET_KEY).getBytes(StandardCharsets.UTF_8);
+        for (String part : scopeParts) {
+            key = hmacSha256(key, part);
+        }
+        return HEX.formatHex(hmacSha256(key, stringToSign));
+    }
+
+    private static String canonicalQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        return Arrays.stream(rawQuery.split("&"))
+                .map(pair -> {
+                    int eq = pair.indexOf('=');
+                    String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+                    String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+                    return uriEncode(name, true) + "=" + uriEncode(value, true);
+                })
+                .sorted()
+                .collect(Collectors.joining("&"));
+    }
+
+    private static String uriEncode(String value, boolean encodeSlash) {
+        String encoded = URLEncoder.encode(value, StandardCharsets.UTF_8)
+                .replace("+", "%20")
+                .replace("*", "%2A")
+                .replace("%7E", "~");
+        return encodeSlash ? encoded : encoded.replace("%2F", "/");
+    }
+
+    private static byte[] hmacSha256(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256Hex(byte[] data) {
+        try {
+            return HEX.formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record ReceivedRequest(String method, String rawPath, String rawQuery, Map<String, String> headers,
+                                   byte[] body) {
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        Matcher authorization() {
+            Matcher matcher = AUTHORIZATION.matcher(header("Authorization"));
+            assertThat(matcher.matches()).as("Authorization header %s", header("Authorization")).isTrue();
+            return matcher;
+        }
+    }
+}
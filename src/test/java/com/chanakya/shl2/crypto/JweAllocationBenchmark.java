@@ -0,0 +1,103 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.util.Base64UrlUtil;
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per MB encrypted and decrypted: the byte-oriented API against the String API and
+ * against a Nimbus JWEObject round trip, which is what the String-based service used to do.
+ * Each op handles 1 MB, so {@code gc.alloc.rate.norm} from {@code -prof gc} reads as bytes
+ * allocated per MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JweAllocationBenchmark {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final String CONTENT_TYPE = "application/fhir+json";
+
+    private JweService jweService;
+    private String keyBase64Url;
+    private AesKey key;
+    private SecretKeySpec keySpec;
+    private byte[] plaintext;
+    private String plaintextString;
+    private byte[] compact;
+    private String compactString;
+
+    @Setup
+    public void setUp() {
+        jweService = new JweService(ShlPropertiesFixture.load());
+        keyBase64Url = new KeyGenerationService().generateAes256Key();
+        key = AesKey.fromBase64Url(keyBase64Url);
+        keySpec = new SecretKeySpec(Base64UrlUtil.decode(keyBase64Url), "AES");
+        plaintext = JweServiceBenchmark.fhirLikeJson(MEGABYTE);
+        plaintextString = new String(plaintext, StandardCharsets.UTF_8);
+        compact = jweService.encrypt(plaintext, key, CONTENT_TYPE);
+        compactString = new String(compact, StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() {
+        key.destroy();
+    }
+
+    @Benchmark
+    public byte[] encryptBytes() {
+        return jweService.encrypt(plaintext, key, CONTENT_TYPE);
+    }
+
+    @Benchmark
+    public byte[] encryptString() {
+        // Callers of the String API still needed the bytes for storage
+        return jweService.encrypt(plaintextString, keyBase64Url, CONTENT_TYPE).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] encryptNimbus() throws JOSEException {
+        JWEObject jwe = new JWEObject(
+                new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM).contentType(CONTENT_TYPE).build(),
+                new Payload(plaintextString));
+        jwe.encrypt(new DirectEncrypter(keySpec));
+        return jwe.serialize().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() {
+        return jweService.decrypt(compact, key);
+    }
+
+    @Benchmark
+    public byte[] decryptNimbus() throws Exception {
+        JWEObject jwe = JWEObject.parse(compactString);
+        jwe.decrypt(new DirectDecrypter(keySpec));
+        return jwe.getPayload().toBytes();
+    }
+}
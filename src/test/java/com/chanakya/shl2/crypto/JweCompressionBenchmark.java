@@ -0,0 +1,79 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU against stored bytes for zip=DEF at each DEFLATE level, plus the uncompressed baseline
+ * ({@code level=0}). The score is time per encryption; the {@code storedBytes} and
+ * {@code plaintextBytes} counters give the compact JWE size next to it, so the ratio of the two
+ * is the storage and transfer saved for that CPU.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JweCompressionBenchmark {
+
+    @Param({"102400", "1048576"})
+    public int size;
+
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    private JweService jweService;
+    private AesKey key;
+    private byte[] plaintext;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long storedBytes;
+        public long plaintextBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            storedBytes = 0;
+            plaintextBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        jweService = new JweService(ShlPropertiesFixture.load(
+                Map.of("shl.crypto.compression-level", Math.max(level, 1))));
+        key = AesKey.fromBase64Url(new KeyGenerationService().generateAes256Key());
+        plaintext = JweServiceBenchmark.fhirLikeJson(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        key.destroy();
+    }
+
+    @Benchmark
+    public byte[] encrypt(Sizes sizes) {
+        byte[] compact = jweService.encrypt(plaintext, key, "application/fhir+json", level > 0);
+        sizes.storedBytes += compact.length;
+        sizes.plaintextBytes += plaintext.length;
+        return compact;
+    }
+}
@@ -0,0 +1,52 @@
+package com.chanakya.shl2.crypto;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JweKeyCacheTest {
+
+    private final JweKeyCache keyCache = new JweKeyCache(new SimpleMeterRegistry());
+    private final String keyBase64Url = new KeyGenerationService().generateAes256Key();
+
+    @Test
+    void concurrentPipelinesShareOneHandleUntilTheLastLeaseCloses() {
+        JweKeyCache.Lease first = keyCache.acquire("shl-1", keyBase64Url);
+        JweKeyCache.Lease second = keyCache.acquire("shl-1", keyBase64Url);
+        assertThat(second.key()).isSameAs(first.key());
+
+        first.close();
+        assertThat(second.key().isDestroyed()).isFalse();
+        assertThat(second.key().getEncoded()).hasSize(AesKey.LENGTH);
+
+        second.close();
+        assertThat(second.key().isDestroyed()).isTrue();
+        assertThatThrownBy(() -> second.key().getEncoded()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void closingALeaseTwiceReleasesItOnce() {
+        JweKeyCache.Lease first = keyCache.acquire("shl-1", keyBase64Url);
+        JweKeyCache.Lease second = keyCache.acquire("shl-1", keyBase64Url);
+
+        first.close();
+        first.close();
+
+        assertThat(second.key().isDestroyed()).isFalse();
+        second.close();
+        assertThat(second.key().isDestroyed()).isTrue();
+    }
+
+    @Test
+    void aLeaseAfterTheLastReleaseDecodesAFreshHandle() {
+        JweKeyCache.Lease first = keyCache.acquire("shl-1", keyBase64Url);
+        first.close();
+
+        try (JweKeyCache.Lease next = keyCache.acquire("shl-1", keyBase64Url)) {
+            assertThat(next.key()).isNotSameAs(first.key());
+            assertThat(next.key().isDestroyed()).isFalse();
+        }
+    }
+}
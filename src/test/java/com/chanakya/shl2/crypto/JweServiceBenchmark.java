@@ -0,0 +1,83 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encryption throughput of FHIR-like JSON at 1 KB, 100 KB and 10 MB, with and without
+ * zip=DEF. Run with {@code -prof gc} (the benchmarks profile does) for allocation per op, and
+ * compare {@code compress=true} against {@code false} for CPU spent versus bytes saved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JweServiceBenchmark {
+
+    @Param({"1024", "102400", "10485760"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private JweService jweService;
+    private AesKey key;
+    private byte[] plaintext;
+
+    @Setup
+    public void setUp() {
+        jweService = new JweService(ShlPropertiesFixture.load());
+        key = AesKey.fromBase64Url(new KeyGenerationService().generateAes256Key());
+        plaintext = fhirLikeJson(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        key.destroy();
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return jweService.encrypt(plaintext, key, "application/fhir+json", compress);
+    }
+
+    /**
+     * Observation entries with varying ids and values, so DEFLATE sees realistic redundancy.
+     */
+    static byte[] fhirLikeJson(int size) {
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder(size + 512)
+                .append("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[");
+        int index = 0;
+        while (json.length() < size) {
+            if (index > 0) {
+                json.append(',');
+            }
+            json.append("{\"fullUrl\":\"Observation/").append(Long.toHexString(random.nextLong()))
+                    .append("\",\"resource\":{\"resourceType\":\"Observation\",\"status\":\"final\",")
+                    .append("\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"")
+                    .append(1000 + random.nextInt(9000)).append("-").append(random.nextInt(10))
+                    .append("\"}]},\"valueQuantity\":{\"value\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"unit\":\"mg/dL\"}}}");
+            index++;
+        }
+        json.append("]}");
+        byte[] bytes = json.toString().getBytes(StandardCharsets.US_ASCII);
+        return Arrays.copyOf(bytes, Math.min(bytes.length, size));
+    }
+}
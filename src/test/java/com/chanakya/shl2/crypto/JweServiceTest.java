@@ -0,0 +1,133 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.util.Base64UrlUtil;
+import com.nimbusds.jose.CompressionAlgorithm;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JweServiceTest {
+
+    private static final String CONTENT_TYPE = "application/fhir+json";
+
+    private final JweService jweService = new JweService(ShlPropertiesFixture.load());
+    private final String keyBase64Url = new KeyGenerationService().generateAes256Key();
+    private final AesKey key = AesKey.fromBase64Url(keyBase64Url);
+
+    @AfterEach
+    void destroyKey() {
+        key.destroy();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void roundTripsWithAndWithoutCompression(boolean compress) {
+        byte[] plaintext = JweServiceBenchmark.fhirLikeJson(100_000);
+
+        byte[] compact = jweService.encrypt(plaintext, key, CONTENT_TYPE, compress);
+
+        assertThat(jweService.decrypt(compact, key)).isEqualTo(plaintext);
+        assertThat(jweService.decrypt(new String(compact, StandardCharsets.US_ASCII), keyBase64Url))
+                .isEqualTo(new String(plaintext, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compressedPayloadsCarryZipDefAndShrink() throws Exception {
+        byte[] plaintext = JweServiceBenchmark.fhirLikeJson(100_000);
+
+        JWEObject compressed = JWEObject.parse(new String(
+                jweService.encrypt(plaintext, key, CONTENT_TYPE, true), StandardCharsets.US_ASCII));
+        JWEObject plain = JWEObject.parse(new String(
+                jweService.encrypt(plaintext, key, CONTENT_TYPE, false), StandardCharsets.US_ASCII));
+
+        assertThat(compressed.getHeader().getCompressionAlgorithm()).isEqualTo(CompressionAlgorithm.DEF);
+        assertThat(compressed.getHeader().getContentType()).isEqualTo(CONTENT_TYPE);
+        assertThat(plain.getHeader().getCompressionAlgorithm()).isNull();
+        assertThat(compressed.getCipherText().decode().length).isLessThan(plaintext.length / 3);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void nimbusDecryptsWhatWeEncrypt(boolean compress) throws Exception {
+        byte[] plaintext = "{\"resourceType\":\"Bundle\",\"note\":\"Zoë\"}".getBytes(StandardCharsets.UTF_8);
+
+        JWEObject jwe = JWEObject.parse(new String(
+                jweService.encrypt(plaintext, key, CONTENT_TYPE, compress), StandardCharsets.US_ASCII));
+        jwe.decrypt(new DirectDecrypter(new SecretKeySpec(Base64UrlUtil.decode(keyBase64Url), "AES")));
+
+        assertThat(jwe.getPayload().toBytes()).isEqualTo(plaintext);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"false, 1", "false, 4096", "false, 65537", "true, 7", "true, 65536"})
+    void aStreamedJweIsTheSameCompactSerialization(boolean compress, int chunkBytes) throws Exception {
+        byte[] plaintext = JweServiceBenchmark.fhirLikeJson(100_000);
+        ByteBuffer source = ByteBuffer.wrap(plaintext);
+
+        List<ByteBuffer> chunks = jweService.encryptStream(source, key, CONTENT_TYPE, compress, chunkBytes)
+                .collectList()
+                .block();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunks.forEach(chunk -> out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining()));
+        byte[] compact = out.toByteArray();
+
+        assertThat(source.remaining()).isEqualTo(plaintext.length);
+        assertThat(chunks).hasSizeGreaterThan(2);
+        assertThat(jweService.decrypt(compact, key)).isEqualTo(plaintext);
+        JWEObject jwe = JWEObject.parse(new String(compact, StandardCharsets.US_ASCII));
+        jwe.decrypt(new DirectDecrypter(new SecretKeySpec(Base64UrlUtil.decode(keyBase64Url), "AES")));
+        assertThat(jwe.getPayload().toBytes()).isEqualTo(plaintext);
+    }
+
+    @Test
+    void refusesToInflatePastTheCap() {
+        JweService capped = new JweService(ShlPropertiesFixture.load(Map.of("shl.crypto.max-inflated-bytes", 64 * 1024)));
+        byte[] overCap = new byte[64 * 1024 + 1];
+        byte[] atCap = new byte[32 * 1024];
+
+        byte[] compact = capped.encrypt(overCap, key, CONTENT_TYPE, true);
+
+        assertThat(compact.length).isLessThan(1024);
+        assertThatThrownBy(() -> capped.decrypt(compact, key))
+                .hasRootCauseInstanceOf(IllegalArgumentException.class)
+                .rootCause().hasMessageContaining("exceeds");
+        assertThat(capped.decrypt(capped.encrypt(atCap, key, CONTENT_TYPE, true), key)).isEqualTo(atCap);
+    }
+
+    @Test
+    void rejectsATamperedCiphertext() {
+        byte[] compact = jweService.encrypt("{}".getBytes(StandardCharsets.UTF_8), key, CONTENT_TYPE, true);
+        compact[compact.length - 1] = (byte) (compact[compact.length - 1] == 'A' ? 'Q' : 'A');
+
+        assertThatThrownBy(() -> jweService.decrypt(compact, key)).hasMessage("JWE decryption failed");
+    }
+
+    @Test
+    void thePooledCipherIsReusableAfterEachMessageIsScrubbed() {
+        byte[] plaintext = "{}".getBytes(StandardCharsets.UTF_8);
+        byte[] tampered = jweService.encrypt(plaintext, key, CONTENT_TYPE, false);
+        tampered[tampered.length - 1] = (byte) (tampered[tampered.length - 1] == 'A' ? 'Q' : 'A');
+        assertThatThrownBy(() -> jweService.decrypt(tampered, key)).hasMessage("JWE decryption failed");
+
+        // Every call re-keys the same cipher with the throwaway key, including back to back
+        for (int i = 0; i < 3; i++) {
+            assertThat(jweService.decrypt(jweService.encrypt(plaintext, key, CONTENT_TYPE, false), key))
+                    .isEqualTo(plaintext);
+        }
+    }
+}
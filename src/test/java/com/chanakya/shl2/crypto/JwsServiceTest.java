@@ -0,0 +1,125 @@
+package com.chanakya.shl2.crypto;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rotates the SHC signing key on disk and lets the reloader pick it up on virtual time. The
+ * retired key file starts out holding the signing key itself, which the JWKS lists once.
+ */
+class JwsServiceTest {
+
+    private static final Duration RELOAD_INTERVAL = Duration.ofSeconds(60);
+
+    @TempDir
+    Path keyDir;
+
+    private ECKey original;
+    private Path signingKey;
+    private Path retiredKey;
+    private VirtualTimeScheduler scheduler;
+    private JwsService jwsService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        scheduler = VirtualTimeScheduler.getOrSet();
+        original = newKey();
+        signingKey = keyDir.resolve("signing.jwk");
+        retiredKey = keyDir.resolve("retired.jwk");
+        write(signingKey, original);
+        write(retiredKey, original);
+        jwsService = newService();
+        jwsService.startReloading();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jwsService.destroy();
+        VirtualTimeScheduler.reset();
+    }
+
+    @Test
+    void aRotatedKeySignsWhileThePreviousKidStaysPublished() throws Exception {
+        String previousKid = kid(original);
+        ECKey rotated = newKey();
+        write(signingKey, rotated);
+
+        scheduler.advanceTimeBy(RELOAD_INTERVAL);
+
+        assertThat(publishedKids()).containsExactly(kid(rotated), previousKid);
+        assertThat(JWSObject.parse(jwsService.sign(new byte[]{1, 2, 3})).getHeader().getKeyID())
+                .isEqualTo(kid(rotated));
+    }
+
+    @Test
+    void theETagIsStableAcrossIdenticalReloadsAndChangesOnRotation() throws Exception {
+        JwsService.Jwks initial = jwsService.jwks();
+        assertThat(publishedKids()).containsExactly(kid(original));
+
+        scheduler.advanceTimeBy(RELOAD_INTERVAL.multipliedBy(3));
+
+        assertThat(jwsService.jwks()).isSameAs(initial);
+        assertThat(newService().jwks().eTag()).isEqualTo(initial.eTag());
+
+        write(signingKey, newKey());
+        scheduler.advanceTimeBy(RELOAD_INTERVAL);
+
+        assertThat(jwsService.jwks().eTag()).isNotEqualTo(initial.eTag()).startsWith("\"").endsWith("\"");
+    }
+
+    @Test
+    void anUnreadableKeyFileKeepsTheCurrentKeys() throws Exception {
+        JwsService.Jwks initial = jwsService.jwks();
+        Files.writeString(signingKey, "not a jwk");
+
+        scheduler.advanceTimeBy(RELOAD_INTERVAL);
+
+        assertThat(jwsService.jwks()).isSameAs(initial);
+    }
+
+    private JwsService newService() throws Exception {
+        JwsService service = new JwsService(ShlPropertiesFixture.load(Map.of(
+                "shl.shc.signing-key-path", signingKey.toUri().toString(),
+                "shl.shc.verification-key-paths", retiredKey.toUri().toString(),
+                "shl.shc.key-reload-interval-seconds", (int) RELOAD_INTERVAL.toSeconds())));
+        service.init();
+        return service;
+    }
+
+    private List<String> publishedKids() throws Exception {
+        return JWKSet.parse(new String(jwsService.jwks().json(), StandardCharsets.UTF_8)).getKeys().stream()
+                .map(JWK::getKeyID)
+                .toList();
+    }
+
+    private static ECKey newKey() throws Exception {
+        return new ECKeyGenerator(Curve.P_256).generate();
+    }
+
+    private static String kid(ECKey key) throws Exception {
+        return key.computeThumbprint("SHA-256").toString();
+    }
+
+    private static void write(Path path, ECKey key) throws Exception {
+        Files.writeString(path, key.toJSONString());
+    }
+}
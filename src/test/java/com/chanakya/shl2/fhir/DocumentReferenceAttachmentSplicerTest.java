@@ -0,0 +1,153 @@
+package com.chanakya.shl2.fhir;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentReferenceAttachmentSplicerTest {
+
+    private static final String DATA = "JVBERi0xLjQK".repeat(1000);
+    private static final String OBSERVATION = "{ \"resource\" : {\"resourceType\":\"Observation\",\"id\":\"o1\","
+            + "\"note\":[{\"text\":\"see Binary/b1 \\u00e9 \\\"quoted\\\"\"}]} }";
+    private static final String BUNDLE = "{\"resourceType\":\"Bundle\",  \"type\":\"searchset\",\"total\":4,"
+            + "\"entry\":["
+            + "{\"resource\":{\"resourceType\":\"DocumentReference\",\"id\":\"d1\",\"content\":["
+            + "{\"attachment\":{\"contentType\":\"text/plain\",\"url\":\"Binary/b1\",\"title\":\"Note\"}},"
+            + "{\"attachment\":{\"url\":\"Binary/b1\"}}]}},"
+            + OBSERVATION + ","
+            + "{\"resource\":{\"resourceType\":\"DocumentReference\",\"id\":\"d2\",\"content\":["
+            + "{\"attachment\":{\"url\":\"Binary/b1\"}},"
+            + "{\"attachment\":{\"contentType\":\"image/png\",\"url\":\"Binary/missing\"}},"
+            + "{\"attachment\":{\"url\":\"https://example.org/report.pdf\"}}]}}"
+            + "],\n  \"meta\" : { \"lastUpdated\" : \"2026-01-01T00:00:00Z\" }}";
+    private static final String BINARY = "{\"resourceType\":\"Binary\",\"id\":\"b1\","
+            + "\"contentType\":\"application/pdf\",\"data\":\"" + DATA + "\"}";
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final DocumentReferenceAttachmentSplicer splicer = new DocumentReferenceAttachmentSplicer(objectMapper);
+
+    @Test
+    void scanCountsEveryReferenceToADistinctBinary() {
+        DocumentReferenceAttachmentSplicer.Scan scan = splicer.scan(bytes(BUNDLE));
+
+        assertThat(scan.binaryIds()).containsExactly("b1", "missing");
+        assertThat(scan.references("b1")).isEqualTo(3);
+        assertThat(scan.references("missing")).isEqualTo(1);
+        assertThat(scan.documentEntries()).containsExactlyInAnyOrder(0, 2);
+    }
+
+    @Test
+    void inlinesADeduplicatedBinaryIntoEveryAttachmentThatReferencesIt() {
+        JsonNode spliced = objectMapper.readTree(string(splice(BUNDLE)));
+
+        JsonNode first = spliced.at("/entry/0/resource/content");
+        for (JsonNode attachment : new JsonNode[]{first.at("/0/attachment"), first.at("/1/attachment"),
+                spliced.at("/entry/2/resource/content/0/attachment")}) {
+            assertThat(attachment.path("data").asString()).isEqualTo(DATA);
+            assertThat(attachment.path("contentType").asString()).isEqualTo("application/pdf");
+            assertThat(attachment.has("url")).isFalse();
+        }
+        assertThat(first.at("/0/attachment/title").asString()).isEqualTo("Note");
+    }
+
+    @Test
+    void unresolvedAndExternalAttachmentsKeepTheirUrl() {
+        JsonNode content = objectMapper.readTree(string(splice(BUNDLE))).at("/entry/2/resource/content");
+
+        assertThat(content.at("/1/attachment")).isEqualTo(objectMapper.readTree(
+                "{\"contentType\":\"image/png\",\"url\":\"Binary/missing\"}"));
+        assertThat(content.at("/2/attachment")).isEqualTo(objectMapper.readTree(
+                "{\"url\":\"https://example.org/report.pdf\"}"));
+    }
+
+    @Test
+    void otherEntriesAndBundleMembersAreCopiedByteForByte() {
+        String spliced = string(splice(BUNDLE));
+
+        assertThat(spliced).startsWith("{\"resourceType\":\"Bundle\",  \"type\":\"searchset\",\"total\":4,\"entry\":[{");
+        assertThat(spliced).contains("}," + OBSERVATION + ",{");
+        assertThat(spliced).endsWith("],\n  \"meta\" : { \"lastUpdated\" : \"2026-01-01T00:00:00Z\" }}");
+    }
+
+    @Test
+    void parsesToTheSameTreeAsTheTreeResolver() {
+        JsonNode expected = treeResolve((ObjectNode) objectMapper.readTree(BUNDLE),
+                Map.of("b1", objectMapper.readTree(BINARY)));
+
+        assertThat(objectMapper.readTree(string(splice(BUNDLE)))).isEqualTo(expected);
+    }
+
+    @Test
+    void theOutputBufferIsSizedForEveryReferenceAndNeverRegrown() {
+        ByteBuffer spliced = splice(BUNDLE);
+
+        // Three references inline the payload three times; sizing for one would force two regrowths
+        assertThat(spliced.remaining()).isGreaterThan(3 * DATA.length());
+        assertThat(spliced.array().length).isBetween(spliced.remaining(), spliced.remaining() + 3 * 64);
+    }
+
+    @Test
+    void aBundleWithoutDocumentReferencesIsLeftAlone() {
+        String bundle = "{\"resourceType\":\"Bundle\",\"entry\":[" + OBSERVATION + "]}";
+        DocumentReferenceAttachmentSplicer.Scan scan = splicer.scan(bytes(bundle));
+
+        assertThat(scan.binaryIds()).isEmpty();
+        assertThat(string(splicer.splice(bytes(bundle), scan, Map.of()))).isEqualTo(bundle);
+    }
+
+    private ByteBuffer splice(String bundle) {
+        byte[] raw = bytes(bundle);
+        return splicer.splice(raw, splicer.scan(raw), Map.of("b1", splicer.scanBinary(bytes(BINARY))));
+    }
+
+    /**
+     * The ObjectNode resolver HealthLakeService used before the splicer, minus the fetching.
+     */
+    private static JsonNode treeResolve(ObjectNode bundle, Map<String, JsonNode> binaries) {
+        for (JsonNode entry : bundle.path("entry")) {
+            JsonNode resource = entry.path("resource");
+            if (!"DocumentReference".equals(resource.path("resourceType").asString())) {
+                continue;
+            }
+            for (JsonNode content : resource.path("content")) {
+                if (!(content.path("attachment") instanceof ObjectNode attachment)) {
+                    continue;
+                }
+                String url = attachment.path("url").asString(null);
+                JsonNode binary = url != null && url.matches("Binary/[\\w-]+")
+                        ? binaries.get(url.substring("Binary/".length()))
+                        : null;
+                if (binary == null) {
+                    continue;
+                }
+                String data = binary.path("data").asString(null);
+                String binaryContentType = binary.path("contentType").asString(null);
+                if (data != null) {
+                    attachment.put("data", data);
+                }
+                if (binaryContentType != null) {
+                    attachment.put("contentType", binaryContentType);
+                }
+                attachment.remove("url");
+            }
+        }
+        return bundle;
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package com.chanakya.shl2.fhir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Merging N searchset pages of 50 entries: the streaming scan-and-append path against the
+ * pairwise tree merge it replaced, which re-parsed and re-serialized the growing bundle on every
+ * page. Divide the score by {@code pages}: the streaming cost per page should stay flat as the
+ * page count grows, while the tree merge grows with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FhirBundleAccumulatorBenchmark {
+
+    private static final int ENTRIES_PER_PAGE = 50;
+
+    @Param({"1", "10", "100", "500"})
+    public int pages;
+
+    private ObjectMapper objectMapper;
+    private FhirSearchPageScanner scanner;
+    private List<byte[]> pageBytes;
+    private List<String> pageStrings;
+
+    @Setup
+    public void setUp() {
+        objectMapper = JsonMapper.builder().build();
+        scanner = new FhirSearchPageScanner(objectMapper);
+        pageBytes = IntStream.range(0, pages).mapToObj(FhirBundleAccumulatorBenchmark::page).toList();
+        pageStrings = pageBytes.stream().map(bytes -> new String(bytes, StandardCharsets.UTF_8)).toList();
+    }
+
+    @Benchmark
+    public byte[] streamingMerge() {
+        FhirBundleAccumulator accumulator = new FhirBundleAccumulator(objectMapper);
+        for (byte[] page : pageBytes) {
+            accumulator.append(scanner.scan(page));
+        }
+        return accumulator.toBytes();
+    }
+
+    @Benchmark
+    public String treeMerge() {
+        String merged = pageStrings.get(0);
+        for (int i = 1; i < pageStrings.size(); i++) {
+            merged = mergeBundles(merged, pageStrings.get(i));
+        }
+        return merged;
+    }
+
+    /**
+     * The pairwise merge previously reduced over the pages by HealthLakeService.
+     */
+    private String mergeBundles(String bundle1, String bundle2) {
+        ObjectNode b1 = (ObjectNode) objectMapper.readTree(bundle1);
+        JsonNode b2 = objectMapper.readTree(bundle2);
+
+        ArrayNode entries1 = b1.has("entry") ? (ArrayNode) b1.get("entry") : b1.putArray("entry");
+        JsonNode entries2 = b2.path("entry");
+        if (entries2.isArray()) {
+            for (JsonNode entry : entries2) {
+                entries1.add(entry);
+            }
+        }
+        b1.put("total", entries1.size());
+        b1.remove("link");
+        return objectMapper.writeValueAsString(b1);
+    }
+
+    private static byte[] page(int index) {
+        StringBuilder json = new StringBuilder("{\"resourceType\":\"Bundle\",\"id\":\"page-").append(index)
+                .append("\",\"type\":\"searchset\",\"link\":[{\"relation\":\"next\",\"url\":\"https://hl/r4/Observation?page=")
+                .append(index + 1).append("\"}],\"entry\":[");
+        for (int i = 0; i < ENTRIES_PER_PAGE; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String id = index + "-" + i;
+            json.append("{\"fullUrl\":\"https://hl/r4/Observation/").append(id)
+                    .append("\",\"resource\":{\"resourceType\":\"Observation\",\"id\":\"").append(id)
+                    .append("\",\"status\":\"final\",\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",")
+                    .append("\"code\":\"2345-7\",\"display\":\"Glucose\"}]},\"subject\":{\"reference\":\"Patient/p1\"},")
+                    .append("\"valueQuantity\":{\"value\":").append(70 + i).append(",\"unit\":\"mg/dL\"}},")
+                    .append("\"search\":{\"mode\":\"match\"}}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
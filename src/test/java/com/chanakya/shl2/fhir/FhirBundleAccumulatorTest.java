@@ -0,0 +1,60 @@
+package com.chanakya.shl2.fhir;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FhirBundleAccumulatorTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final FhirSearchPageScanner scanner = new FhirSearchPageScanner(objectMapper);
+
+    @Test
+    void mergesPagesInOrderWithTheFinalTotalAndWithoutLinks() {
+        FhirBundleAccumulator accumulator = new FhirBundleAccumulator(objectMapper)
+                .append(page("""
+                        {"resourceType":"Bundle","id":"first","type":"searchset","total":3,\
+                        "link":[{"relation":"next","url":"https://hl/r4/Observation?page=2"}],\
+                        "entry":[{"resource":{"id":"o1"}},{"resource":{"id":"o2","valueString":"Zoë"}}]}"""))
+                .append(page("""
+                        {"resourceType":"Bundle","id":"second","meta":{"tag":[]},"type":"searchset",\
+                        "entry":[{"resource":{"id":"o3"}}]}"""))
+                .append(page("""
+                        {"resourceType":"Bundle","id":"third","type":"searchset","entry":[]}"""));
+
+        JsonNode merged = objectMapper.readTree(accumulator.toBytes());
+
+        assertThat(accumulator.getEntryCount()).isEqualTo(3);
+        assertThat(merged).isEqualTo(objectMapper.readTree("""
+                {"resourceType":"Bundle","id":"first","type":"searchset","total":3,\
+                "entry":[{"resource":{"id":"o1"}},{"resource":{"id":"o2","valueString":"Zoë"}},{"resource":{"id":"o3"}}]}"""));
+        assertThat(accumulator.toJson()).isEqualTo(new String(accumulator.toBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void anEmptySearchBecomesAnEmptyBundle() {
+        FhirBundleAccumulator accumulator = new FhirBundleAccumulator(objectMapper)
+                .append(page("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":0}"));
+
+        assertThat(objectMapper.readTree(accumulator.toBytes())).isEqualTo(objectMapper.readTree(
+                "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":0,\"entry\":[]}"));
+    }
+
+    @Test
+    void entriesAreCopiedByteForByte() {
+        String entry = "{ \"resource\" : {\"id\":\"o1\",\"valueString\":\"a\\u00e9 \\\"b\\\"\"} }";
+        FhirBundleAccumulator accumulator = new FhirBundleAccumulator(objectMapper)
+                .append(page("{\"entry\":[" + entry + "]}"));
+
+        assertThat(accumulator.toJson()).contains(entry);
+    }
+
+    private FhirSearchPage page(String json) {
+        return scanner.scan(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
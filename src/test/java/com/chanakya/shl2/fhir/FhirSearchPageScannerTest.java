@@ -0,0 +1,93 @@
+package com.chanakya.shl2.fhir;
+
+import com.chanakya.shl2.exception.HealthLakeException;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FhirSearchPageScannerTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final FhirSearchPageScanner scanner = new FhirSearchPageScanner(objectMapper);
+
+    @Test
+    void scansLinksTotalHeaderFieldsAndEntries() {
+        byte[] content = utf8("""
+                {"resourceType":"Bundle","id":"page-1","meta":{"lastUpdated":"2024-01-01T00:00:00Z"},\
+                "type":"searchset","total":2,\
+                "link":[{"relation":"self","url":"https://hl/r4/Observation?page=1"},\
+                {"relation":"next","url":"https://hl/r4/Observation?page=2"}],\
+                "entry":[{"fullUrl":"https://hl/r4/Observation/1","resource":{"resourceType":"Observation","id":"1"}},\
+                {"resource":{"resourceType":"Observation","id":"2","note":[{"text":"Zoë \\"q\\""}]}}]}""");
+
+        FhirSearchPage page = scanner.scan(content);
+
+        assertThat(page.nextUrl()).isEqualTo("https://hl/r4/Observation?page=2");
+        assertThat(page.hasNext()).isTrue();
+        assertThat(page.total()).isEqualTo(2);
+        assertThat(page.headerFields()).extracting(FhirSearchPage.Field::name)
+                .containsExactly("resourceType", "id", "meta", "type");
+        assertThat(slice(content, page.headerFields().get(2).value()))
+                .isEqualTo("{\"lastUpdated\":\"2024-01-01T00:00:00Z\"}");
+        assertThat(page.entries()).hasSize(2);
+        assertThat(objectMapper.readTree(slice(content, page.entries().get(1))).at("/resource/note/0/text").asString())
+                .isEqualTo("Zoë \"q\"");
+    }
+
+    @Test
+    void aPageWithoutANextLinkIsTheLast() {
+        FhirSearchPage page = scanner.scan(utf8("""
+                {"resourceType":"Bundle","link":[{"relation":"self","url":"https://hl/r4/Condition"}],"entry":[]}"""));
+
+        assertThat(page.hasNext()).isFalse();
+        assertThat(page.total()).isNull();
+        assertThat(page.entries()).isEmpty();
+    }
+
+    @Test
+    void returnsTheRawResourceOfAnEntry() {
+        byte[] content = utf8("""
+                {"entry":[{"search":{"mode":"match"},"resource":{"resourceType":"Condition","id":"c1"}},{"search":{}}]}""");
+        FhirSearchPage page = scanner.scan(content);
+
+        assertThat(scanner.resource(content, page.entries().get(0)))
+                .isEqualTo("{\"resourceType\":\"Condition\",\"id\":\"c1\"}");
+        assertThat(scanner.resource(content, page.entries().get(1))).isNull();
+    }
+
+    @Test
+    void scansBatchResponseEntriesInOrder() {
+        byte[] content = utf8("""
+                {"resourceType":"Bundle","type":"batch-response","entry":[\
+                {"resource":{"resourceType":"Bundle","type":"searchset","entry":[]},"response":{"status":"200 OK"}},\
+                {"response":{"status":"404 Not Found"}},\
+                {"resource":{"resourceType":"Patient","id":"p1"},"response":{"status":"200"}}]}""");
+
+        List<FhirBatchEntry> entries = scanner.scanBatchResponse(content);
+
+        assertThat(entries).extracting(FhirBatchEntry::isSuccess).containsExactly(true, false, true);
+        assertThat(slice(content, entries.get(2).resource())).isEqualTo("{\"resourceType\":\"Patient\",\"id\":\"p1\"}");
+        assertThat(scanner.scan(Arrays.copyOfRange(content,
+                entries.get(0).resource().start(), entries.get(0).resource().end())).entries()).isEmpty();
+    }
+
+    @Test
+    void rejectsAPageThatIsNotAnObject() {
+        assertThatThrownBy(() -> scanner.scan(utf8("[]"))).isInstanceOf(HealthLakeException.class);
+    }
+
+    private static byte[] utf8(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String slice(byte[] content, FhirSearchPage.Range range) {
+        return new String(content, range.start(), range.length(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package com.chanakya.shl2.fhir;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonRangesTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+
+    @Test
+    void locatesEveryKindOfValueByByteOffset() {
+        String json = """
+                {"string":"a \\"quoted\\" \\\\ value","unicode":"Zoë 患者","number":-12.5e3,"flag":true,\
+                "none":null,"object":{"nested":[1,{"deep":"x"}]},"array":[ "spaced" , 2 ],"last":7}""";
+
+        assertThat(valueSlices(json)).containsExactly(
+                "\"a \\\"quoted\\\" \\\\ value\"",
+                "\"Zoë 患者\"",
+                "-12.5e3",
+                "true",
+                "null",
+                "{\"nested\":[1,{\"deep\":\"x\"}]}",
+                "[ \"spaced\" , 2 ]",
+                "7");
+    }
+
+    @Test
+    void theParserContinuesCleanlyAfterASkippedString() {
+        String json = "{\"data\":\"" + "QUJD".repeat(10_000) + "\",\"after\":\"ok\"}";
+
+        assertThat(valueSlices(json)).hasSize(2).last().isEqualTo("\"ok\"");
+    }
+
+    private List<String> valueSlices(String json) {
+        byte[] content = json.getBytes(StandardCharsets.UTF_8);
+        List<String> slices = new ArrayList<>();
+        try (JsonParser parser = objectMapper.createParser(content)) {
+            assertThat(parser.nextToken()).isEqualTo(JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                parser.nextToken();
+                FhirSearchPage.Range range = JsonRanges.skipValue(parser, content);
+                slices.add(new String(content, range.start(), range.length(), StandardCharsets.UTF_8));
+            }
+        }
+        return slices;
+    }
+}
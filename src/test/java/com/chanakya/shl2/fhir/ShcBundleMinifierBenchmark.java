@@ -0,0 +1,104 @@
+package com.chanakya.shl2.fhir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minifying bundles of 10, 100 and 1000 resources: the token-by-token minifier against the
+ * tree-based one it replaced (parse, deep copy, three recursive walks, serialize). Run with
+ * {@code -prof gc} to compare allocation per bundle as well as time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ShcBundleMinifierBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int resources;
+
+    private ObjectMapper objectMapper;
+    private ShcBundleMinifier minifier;
+    private TreeBundleMinifier treeMinifier;
+    private byte[] bundle;
+
+    @Setup
+    public void setUp() {
+        objectMapper = JsonMapper.builder().build();
+        minifier = new ShcBundleMinifier(objectMapper);
+        treeMinifier = new TreeBundleMinifier(objectMapper);
+        bundle = bundle(resources);
+    }
+
+    @Benchmark
+    public byte[] streamingMinify() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bundle.length);
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            minifier.write(bundle, generator);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] treeMinify() {
+        return objectMapper.writeValueAsBytes(treeMinifier.minifyBundle(objectMapper.readTree(bundle)));
+    }
+
+    /**
+     * A Patient followed by Observations and Immunizations that reference it by absolute URL,
+     * with the narrative, meta and display text an unminified HealthLake export carries.
+     */
+    static byte[] bundle(int resources) {
+        StringBuilder json = new StringBuilder("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[");
+        for (int i = 0; i < resources; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            if (i == 0) {
+                json.append("{\"fullUrl\":\"https://hl/r4/Patient/p1\",\"resource\":{\"resourceType\":\"Patient\",")
+                        .append("\"id\":\"p1\",\"meta\":{\"versionId\":\"1\",\"lastUpdated\":\"2024-01-01T00:00:00Z\"},")
+                        .append("\"text\":{\"status\":\"generated\",\"div\":\"<div>Ann Smith</div>\"},")
+                        .append("\"name\":[{\"family\":\"Smith\",\"given\":[\"Ann\"],\"text\":\"Ann Smith\"}],")
+                        .append("\"birthDate\":\"1980-02-03\"}}");
+            } else if (i % 2 == 1) {
+                json.append("{\"fullUrl\":\"https://hl/r4/Observation/o").append(i)
+                        .append("\",\"resource\":{\"resourceType\":\"Observation\",\"id\":\"o").append(i)
+                        .append("\",\"meta\":{\"versionId\":\"2\"},\"status\":\"final\",")
+                        .append("\"text\":{\"status\":\"generated\",\"div\":\"<div>Glucose</div>\"},")
+                        .append("\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"2345-7\",")
+                        .append("\"display\":\"Glucose [Mass/volume] in Serum or Plasma\"}],\"text\":\"Glucose\"},")
+                        .append("\"subject\":{\"reference\":\"Patient/p1\"},")
+                        .append("\"valueQuantity\":{\"value\":").append(70 + i % 50).append(",\"unit\":\"mg/dL\"},")
+                        .append("\"note\":[{\"text\":\"fasting\"}]}}");
+            } else {
+                json.append("{\"fullUrl\":\"https://hl/r4/Immunization/i").append(i)
+                        .append("\",\"resource\":{\"resourceType\":\"Immunization\",\"id\":\"i").append(i)
+                        .append("\",\"meta\":{\"security\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-Confidentiality\",")
+                        .append("\"code\":\"N\"}]},\"status\":\"completed\",")
+                        .append("\"vaccineCode\":{\"text\":\"COVID-19\",\"coding\":[{\"system\":\"http://hl7.org/fhir/sid/cvx\",")
+                        .append("\"code\":\"207\",\"display\":\"SARS-COV-2 (COVID-19) vaccine, mRNA\"}]},")
+                        .append("\"patient\":{\"reference\":\"https://hl/r4/Patient/p1\"},")
+                        .append("\"occurrenceDateTime\":\"2021-0").append(1 + i % 9).append("-15\"}}");
+            }
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
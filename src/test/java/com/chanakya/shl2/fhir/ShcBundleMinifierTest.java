@@ -0,0 +1,94 @@
+package com.chanakya.shl2.fhir;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShcBundleMinifierTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final ShcBundleMinifier minifier = new ShcBundleMinifier(objectMapper);
+    private final TreeBundleMinifier treeMinifier = new TreeBundleMinifier(objectMapper);
+
+    @Test
+    void appliesEveryMinificationRule() {
+        String bundle = """
+                {"resourceType":"Bundle","type":"collection","entry":[
+                  {"fullUrl":"https://hl/r4/Patient/p1","resource":{"resourceType":"Patient","id":"p1",
+                    "meta":{"versionId":"3","lastUpdated":"2024-01-01T00:00:00Z"},
+                    "text":{"status":"generated","div":"<div>Zoë</div>"},
+                    "name":[{"family":"Zoë","given":["Ann"],"text":"Ann Zoë"}]}},
+                  {"fullUrl":"urn:uuid:0b7c","resource":{"resourceType":"Immunization","id":"i1",
+                    "meta":{"security":[{"system":"http://terminology.hl7.org/CodeSystem/v3-Confidentiality","code":"R"}],"source":"x"},
+                    "vaccineCode":{"text":"COVID-19 vaccine","coding":[{"system":"http://hl7.org/fhir/sid/cvx","code":"207","display":"Moderna"}]},
+                    "patient":{"reference":"Patient/p1","display":"Ann"},
+                    "performer":[{"actor":{"reference":"https://other/Practitioner/x"}}],
+                    "note":[{"text":"kept: an Annotation is not a CodeableConcept"}]}},
+                  {"fullUrl":"https://hl/r4/Observation/o1","resource":{"resourceType":"Observation","id":"o1",
+                    "code":{"coding":[{"code":"2345-7","display":"Glucose"}],"text":"Glucose"},
+                    "subject":{"reference":"urn:uuid:0b7c"},
+                    "contained":[{"resourceType":"Device","id":"d1","type":{"text":"kept"}}]}}
+                ]}""";
+
+        JsonNode minified = minify(bundle);
+
+        assertThat(minified).isEqualTo(treeMinify(bundle));
+        assertThat(minified.at("/entry/0/fullUrl").asString()).isEqualTo("resource:0");
+        assertThat(minified.at("/entry/0/resource").has("id")).isFalse();
+        assertThat(minified.at("/entry/0/resource").has("meta")).isFalse();
+        assertThat(minified.at("/entry/0/resource").has("text")).isFalse();
+        assertThat(minified.at("/entry/0/resource/name/0/text").asString()).isEqualTo("Ann Zoë");
+        assertThat(minified.at("/entry/1/resource/meta")).isEqualTo(objectMapper.readTree(
+                "{\"security\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-Confidentiality\",\"code\":\"R\"}]}"));
+        assertThat(minified.at("/entry/1/resource/vaccineCode")).isEqualTo(objectMapper.readTree(
+                "{\"coding\":[{\"system\":\"http://hl7.org/fhir/sid/cvx\",\"code\":\"207\"}]}"));
+        assertThat(minified.at("/entry/1/resource/patient/reference").asString()).isEqualTo("resource:0");
+        assertThat(minified.at("/entry/1/resource/performer/0/actor/reference").asString())
+                .isEqualTo("https://other/Practitioner/x");
+        assertThat(minified.at("/entry/2/resource/code").has("text")).isFalse();
+        assertThat(minified.at("/entry/2/resource/subject/reference").asString()).isEqualTo("resource:1");
+        assertThat(minified.at("/entry/2/resource/contained/0/id").asString()).isEqualTo("d1");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10, 100})
+    void matchesTheTreeMinifierOnGeneratedBundles(int resources) {
+        String bundle = new String(ShcBundleMinifierBenchmark.bundle(resources), StandardCharsets.UTF_8);
+
+        assertThat(minify(bundle)).isEqualTo(treeMinify(bundle));
+    }
+
+    @Test
+    void leavesABundleWithoutEntriesUnchanged() {
+        String bundle = "{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"meta\":{\"versionId\":\"1\"}}";
+
+        assertThat(minify(bundle)).isEqualTo(objectMapper.readTree(bundle)).isEqualTo(treeMinify(bundle));
+    }
+
+    @Test
+    void rejectsABundleThatIsNotAnObject() {
+        assertThatThrownBy(() -> minify("[]")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private JsonNode minify(String bundle) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            minifier.write(bundle.getBytes(StandardCharsets.UTF_8), generator);
+        }
+        return objectMapper.readTree(out.toString());
+    }
+
+    private JsonNode treeMinify(String bundle) {
+        return treeMinifier.minifyBundle(objectMapper.readTree(bundle));
+    }
+}
@@ -0,0 +1,124 @@
+package com.chanakya.shl2.fhir;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tree-based minifier SmartHealthCardService used before {@link ShcBundleMinifier}, kept
+ * as the reference the streaming minifier is checked and benchmarked against.
+ */
+final class TreeBundleMinifier {
+
+    private final ObjectMapper objectMapper;
+
+    TreeBundleMinifier(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    JsonNode minifyBundle(JsonNode bundle) {
+        ObjectNode minified = (ObjectNode) bundle.deepCopy();
+
+        JsonNode entries = minified.path("entry");
+        if (!entries.isArray()) {
+            return minified;
+        }
+
+        // First pass: build mapping from original fullUrl to resource:N
+        Map<String, String> referenceMap = new HashMap<>();
+        int index = 0;
+        for (JsonNode entry : entries) {
+            String originalUrl = textOrNull(entry.path("fullUrl"));
+            if (originalUrl != null) {
+                referenceMap.put(originalUrl, "resource:" + index);
+            }
+            JsonNode resource = entry.path("resource");
+            String resourceType = textOrNull(resource.path("resourceType"));
+            String resourceId = textOrNull(resource.path("id"));
+            if (resourceType != null && resourceId != null) {
+                referenceMap.put(resourceType + "/" + resourceId, "resource:" + index);
+            }
+            index++;
+        }
+
+        // Second pass: apply minification
+        index = 0;
+        for (JsonNode entry : entries) {
+            if (entry instanceof ObjectNode entryObj) {
+                entryObj.put("fullUrl", "resource:" + index);
+
+                JsonNode resource = entry.path("resource");
+                if (resource instanceof ObjectNode resourceObj) {
+                    resourceObj.remove("id");
+
+                    JsonNode meta = resourceObj.path("meta");
+                    if (meta instanceof ObjectNode metaObj) {
+                        JsonNode security = metaObj.path("security");
+                        if (security.isMissingNode() || security.isEmpty()) {
+                            resourceObj.remove("meta");
+                        } else {
+                            ObjectNode newMeta = objectMapper.createObjectNode();
+                            newMeta.set("security", security);
+                            resourceObj.set("meta", newMeta);
+                        }
+                    }
+
+                    resourceObj.remove("text");
+                    stripCodeableConceptText(resourceObj);
+                    rewriteReferences(resourceObj, referenceMap);
+                }
+
+                index++;
+            }
+        }
+
+        return minified;
+    }
+
+    private void rewriteReferences(JsonNode node, Map<String, String> referenceMap) {
+        if (node instanceof ObjectNode objNode) {
+            JsonNode refNode = objNode.path("reference");
+            if (refNode.isString()) {
+                String mapped = referenceMap.get(refNode.asString());
+                if (mapped != null) {
+                    objNode.put("reference", mapped);
+                }
+            }
+            for (String fieldName : objNode.propertyNames()) {
+                rewriteReferences(objNode.get(fieldName), referenceMap);
+            }
+        } else if (node instanceof ArrayNode arrayNode) {
+            for (JsonNode element : arrayNode) {
+                rewriteReferences(element, referenceMap);
+            }
+        }
+    }
+
+    private void stripCodeableConceptText(JsonNode node) {
+        if (node instanceof ObjectNode objNode) {
+            if (objNode.has("coding") && objNode.path("coding").isArray()) {
+                objNode.remove("text");
+                for (JsonNode coding : objNode.path("coding")) {
+                    if (coding instanceof ObjectNode codingObj) {
+                        codingObj.remove("display");
+                    }
+                }
+            }
+            for (String fieldName : objNode.propertyNames()) {
+                stripCodeableConceptText(objNode.get(fieldName));
+            }
+        } else if (node instanceof ArrayNode arrayNode) {
+            for (JsonNode element : arrayNode) {
+                stripCodeableConceptText(element);
+            }
+        }
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node.isString() ? node.asString() : null;
+    }
+}
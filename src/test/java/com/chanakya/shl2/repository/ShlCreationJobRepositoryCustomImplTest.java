@@ -0,0 +1,99 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.enums.JobStatus;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the claim and lease queries the job worker relies on: what a claim may take and what
+ * it writes, and that every update of a running job is conditional on the claiming attempt.
+ */
+class ShlCreationJobRepositoryCustomImplTest {
+
+    private static final Instant NOW = Instant.parse("2026-03-01T12:00:00Z");
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final ShlCreationJobRepositoryCustomImpl repository = new ShlCreationJobRepositoryCustomImpl(mongoTemplate);
+
+    @Test
+    void aClaimTakesTheOldestQueuedJobOrARunningJobWhoseLeaseLapsed() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        when(mongoTemplate.findAndModify(query.capture(), update.capture(), options.capture(),
+                eq(ShlCreationJobDocument.class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.claimNext(NOW, Duration.ofSeconds(30))).verifyComplete();
+
+        assertThat(query.getValue().getQueryObject()).isEqualTo(new Document()
+                .append("status", new Document("$in", List.of(JobStatus.QUEUED, JobStatus.RUNNING)))
+                .append("leaseUntil", new Document("$lte", NOW)));
+        assertThat(query.getValue().getSortObject()).isEqualTo(new Document("enqueuedAt", 1));
+        assertThat(update.getValue().getUpdateObject()).isEqualTo(new Document()
+                .append("$set", new Document()
+                        .append("status", JobStatus.RUNNING)
+                        .append("startedAt", NOW)
+                        .append("leaseUntil", NOW.plusSeconds(30)))
+                .append("$inc", new Document("attempts", 1)));
+        assertThat(options.getValue().isReturnNew()).isTrue();
+    }
+
+    @Test
+    void leaseRenewalsAndOutcomesApplyOnlyToTheClaimingAttempt() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.updateFirst(query.capture(), any(UpdateDefinition.class), eq(ShlCreationJobDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+
+        StepVerifier.create(repository.renewLease("job-1", 2, NOW)).expectNext(true).verifyComplete();
+        StepVerifier.create(repository.finish("job-1", 2, JobStatus.SUCCEEDED, null, NOW)).expectNext(true).verifyComplete();
+        StepVerifier.create(repository.requeue("job-1", 2, "boom", NOW)).expectNext(true).verifyComplete();
+
+        assertThat(query.getAllValues()).hasSize(3).allSatisfy(guard -> assertThat(guard.getQueryObject())
+                .isEqualTo(new Document()
+                        .append("_id", "job-1")
+                        .append("status", JobStatus.RUNNING)
+                        .append("attempts", 2)));
+    }
+
+    @Test
+    void aWorkerWhoseJobWasReclaimedLearnsItLostTheLease() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(ShlCreationJobDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+
+        StepVerifier.create(repository.renewLease("job-1", 1, NOW)).expectNext(false).verifyComplete();
+        StepVerifier.create(repository.finish("job-1", 1, JobStatus.SUCCEEDED, null, NOW)).expectNext(false).verifyComplete();
+    }
+
+    @Test
+    void aRenewalOnlyMovesTheLease() {
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        when(mongoTemplate.updateFirst(any(Query.class), update.capture(), eq(ShlCreationJobDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+
+        repository.renewLease("job-1", 1, NOW.plusSeconds(30)).block();
+
+        verify(mongoTemplate).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(ShlCreationJobDocument.class));
+        assertThat(update.getValue().getUpdateObject())
+                .isEqualTo(new Document("$set", new Document("leaseUntil", NOW.plusSeconds(30))));
+    }
+}
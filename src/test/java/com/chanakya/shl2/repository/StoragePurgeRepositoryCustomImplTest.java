@@ -0,0 +1,61 @@
+package com.chanakya.shl2.repository;
+
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the purge lease: a claim takes the most overdue purge, pushes it out by the lease and
+ * counts the attempt.
+ */
+class StoragePurgeRepositoryCustomImplTest {
+
+    private static final Instant NOW = Instant.parse("2026-03-01T12:00:00Z");
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final StoragePurgeRepositoryCustomImpl repository = new StoragePurgeRepositoryCustomImpl(mongoTemplate);
+
+    @Test
+    void aClaimLeasesTheMostOverduePurgeAndCountsTheAttempt() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        StoragePurgeDocument claimed = StoragePurgeDocument.builder().id("purge-1").attempts(1).build();
+        when(mongoTemplate.findAndModify(query.capture(), update.capture(), options.capture(),
+                eq(StoragePurgeDocument.class))).thenReturn(Mono.just(claimed));
+
+        StepVerifier.create(repository.claimNext(NOW, Duration.ofMinutes(5))).expectNext(claimed).verifyComplete();
+
+        assertThat(query.getValue().getQueryObject())
+                .isEqualTo(new Document("nextAttemptAt", new Document("$lte", NOW)));
+        assertThat(query.getValue().getSortObject()).isEqualTo(new Document("nextAttemptAt", 1));
+        assertThat(update.getValue().getUpdateObject()).isEqualTo(new Document()
+                .append("$set", new Document("nextAttemptAt", NOW.plusSeconds(300)))
+                .append("$inc", new Document("attempts", 1)));
+        assertThat(options.getValue().isReturnNew()).isTrue();
+    }
+
+    @Test
+    void anEmptyQueueClaimsNothing() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(StoragePurgeDocument.class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.claimNext(NOW, Duration.ofMinutes(5))).verifyComplete();
+    }
+}
@@ -0,0 +1,119 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the manifest content cache with a 1000-byte budget, on and off heap.
+ */
+class EmbeddedContentCacheTest {
+
+    private static final int MAX_BYTES = 1000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void returnsTheCachedCiphertext(boolean offHeap) {
+        EmbeddedContentCache cache = cache(offHeap);
+
+        cache.put("shl-files/shl-1/a.jwe", jwe('a', 100));
+
+        assertThat(cache.get("shl-files/shl-1/a.jwe")).isEqualTo(jwe('a', 100));
+        assertThat(cache.get("shl-files/shl-1/b.jwe")).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void evictsByContentBytesRatherThanEntryCount(boolean offHeap) throws InterruptedException {
+        EmbeddedContentCache cache = cache(offHeap);
+        List<String> keys = IntStream.range(0, 10).mapToObj(i -> "shl-files/shl-1/" + i + ".jwe").toList();
+
+        keys.forEach(key -> cache.put(key, jwe('x', 300)));
+        awaitEviction(() -> keys.stream().filter(key -> cache.get(key) != null).count() <= 3);
+
+        assertThat(meterRegistry.get("shl.manifest.content.cache.bytes").gauge().value())
+                .isLessThanOrEqualTo(MAX_BYTES);
+    }
+
+    @Test
+    void aFileLargerThanTheBudgetIsNotKept() throws InterruptedException {
+        EmbeddedContentCache cache = cache(false);
+
+        cache.put("shl-files/shl-1/big.jwe", jwe('b', MAX_BYTES + 1));
+
+        awaitEviction(() -> cache.get("shl-files/shl-1/big.jwe") == null);
+    }
+
+    @Test
+    void invalidatingRetiredKeysLeavesTheRestCached() {
+        EmbeddedContentCache cache = cache(false);
+        cache.put("shl-files/shl-1/old.jwe", jwe('o', 10));
+        cache.put("shl-files/shl-1/new.jwe", jwe('n', 10));
+
+        cache.invalidate(List.of("shl-files/shl-1/old.jwe", "shl-files/shl-1/unknown.jwe"));
+
+        assertThat(cache.get("shl-files/shl-1/old.jwe")).isNull();
+        assertThat(cache.get("shl-files/shl-1/new.jwe")).isEqualTo(jwe('n', 10));
+    }
+
+    @Test
+    void invalidatingAPrefixDropsOnlyThatShlsFiles() {
+        EmbeddedContentCache cache = cache(false);
+        cache.put("shl-files/shl-1/a.jwe", jwe('a', 10));
+        cache.put("shl-files/shl-1/b.jwe", jwe('b', 10));
+        cache.put("shl-files/shl-10/a.jwe", jwe('c', 10));
+
+        cache.invalidatePrefix("shl-files/shl-1/");
+
+        assertThat(cache.get("shl-files/shl-1/a.jwe")).isNull();
+        assertThat(cache.get("shl-files/shl-1/b.jwe")).isNull();
+        assertThat(cache.get("shl-files/shl-10/a.jwe")).isEqualTo(jwe('c', 10));
+    }
+
+    @Test
+    void aDisabledCacheHoldsNothing() {
+        EmbeddedContentCache cache = new EmbeddedContentCache(
+                ShlPropertiesFixture.load(Map.of("shl.content-cache.enabled", false)), meterRegistry);
+
+        cache.put("shl-files/shl-1/a.jwe", jwe('a', 10));
+        cache.invalidate(List.of("shl-files/shl-1/a.jwe"));
+        cache.invalidatePrefix("shl-files/");
+
+        assertThat(cache.get("shl-files/shl-1/a.jwe")).isNull();
+    }
+
+    private EmbeddedContentCache cache(boolean offHeap) {
+        return new EmbeddedContentCache(ShlPropertiesFixture.load(Map.of(
+                "shl.content-cache.max-bytes", MAX_BYTES,
+                "shl.content-cache.off-heap", offHeap)), meterRegistry);
+    }
+
+    /**
+     * Caffeine evicts on its maintenance executor, so the cache settles shortly after the puts.
+     */
+    private static void awaitEviction(BooleanSupplier evicted) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!evicted.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("cache was not trimmed to its byte budget");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static String jwe(char fill, int length) {
+        return String.valueOf(fill).repeat(length);
+    }
+}
@@ -0,0 +1,78 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.service.HealthLakeConcurrencyLimiter.CallType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HealthLakeConcurrencyLimiterTest {
+
+    private static final double INITIAL_LIMIT = 20;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HealthLakeConcurrencyLimiter limiter = new HealthLakeConcurrencyLimiter(
+            ShlPropertiesFixture.load(Map.of("shl.healthlake.limiter.max-retries", 0)), meterRegistry);
+
+    @Test
+    void aSuccessfulCallRaisesTheLimit() {
+        StepVerifier.create(limiter.execute(CallType.SEARCH, () -> Mono.just("ok")))
+                .expectNext("ok")
+                .verifyComplete();
+
+        assertThat(limit()).isEqualTo(INITIAL_LIMIT + 1 / INITIAL_LIMIT);
+    }
+
+    @Test
+    void aThrottledCallBacksOff() {
+        StepVerifier.create(limiter.execute(CallType.SEARCH, () -> Mono.error(httpError(429))))
+                .verifyError(WebClientResponseException.class);
+
+        assertThat(limit()).isEqualTo(INITIAL_LIMIT * 0.5);
+        assertThat(meterRegistry.get("shl.healthlake.limiter.throttled").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void aFailureThatIsNotCongestionLeavesTheLimitUnchanged() {
+        StepVerifier.create(limiter.execute(CallType.READ, () -> Mono.error(httpError(404))))
+                .verifyError(WebClientResponseException.class);
+        StepVerifier.create(limiter.execute(CallType.READ, () -> Mono.error(new IllegalStateException("boom"))))
+                .verifyError(IllegalStateException.class);
+
+        assertThat(limit()).isEqualTo(INITIAL_LIMIT);
+        assertThat(inFlight()).isZero();
+    }
+
+    @Test
+    void aCancelledCallLeavesTheLimitUnchanged() {
+        StepVerifier.create(limiter.execute(CallType.BINARY, Mono::never))
+                .expectSubscription()
+                .thenCancel()
+                .verify();
+
+        assertThat(limit()).isEqualTo(INITIAL_LIMIT);
+        assertThat(inFlight()).isZero();
+    }
+
+    private double limit() {
+        return meterRegistry.get("shl.healthlake.limiter.limit").gauge().value();
+    }
+
+    private double inFlight() {
+        return meterRegistry.get("shl.healthlake.limiter.in_flight").gauge().value();
+    }
+
+    private static WebClientResponseException httpError(int status) {
+        return WebClientResponseException.create(status, "HealthLake error", HttpHeaders.EMPTY, new byte[0],
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.exception.HealthLakeException;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Resolves DocumentReference attachments against a stubbed HealthLake. Binary/shared is
+ * referenced by two attachments and Binary/single by one; each payload is {@link #DATA_LENGTH}
+ * bytes of base64.
+ */
+class HealthLakeServiceAttachmentTest {
+
+    private static final String BASE_URL = "https://healthlake.test/datastore/ds/r4";
+    private static final int DATA_LENGTH = 1000;
+    private static final String BUNDLE = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":["
+            + "{\"resource\":{\"resourceType\":\"DocumentReference\",\"id\":\"d1\",\"content\":["
+            + "{\"attachment\":{\"url\":\"Binary/shared\"}},{\"attachment\":{\"url\":\"Binary/single\"}}]}},"
+            + "{\"resource\":{\"resourceType\":\"DocumentReference\",\"id\":\"d2\",\"content\":["
+            + "{\"attachment\":{\"url\":\"Binary/shared\"}}]}}]}";
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final Map<String, Integer> binaryFetches = new ConcurrentHashMap<>();
+
+    @Test
+    void aSharedBinaryIsFetchedOnceAndInlinedIntoEveryReference() {
+        JsonNode bundle = fetchDocuments(Map.of());
+
+        assertThat(binaryFetches).containsExactlyInAnyOrderEntriesOf(Map.of("shared", 1, "single", 1));
+        assertThat(data(bundle, "/entry/0/resource/content/0/attachment")).isEqualTo(payload("shared"));
+        assertThat(data(bundle, "/entry/0/resource/content/1/attachment")).isEqualTo(payload("single"));
+        assertThat(data(bundle, "/entry/1/resource/content/0/attachment")).isEqualTo(payload("shared"));
+    }
+
+    @Test
+    void theBundleBudgetChargesASharedBinaryOncePerReference() {
+        // Room for two payloads; the shared Binary resolves first and takes both
+        JsonNode bundle = fetchDocuments(Map.of(
+                "shl.healthlake.attachments.max-bundle-bytes", 2 * DATA_LENGTH + 1,
+                "shl.healthlake.attachments.concurrency", 1));
+
+        assertThat(data(bundle, "/entry/0/resource/content/0/attachment")).isEqualTo(payload("shared"));
+        assertThat(data(bundle, "/entry/1/resource/content/0/attachment")).isEqualTo(payload("shared"));
+        assertThat(url(bundle, "/entry/0/resource/content/1/attachment")).isEqualTo("Binary/single");
+    }
+
+    @Test
+    void anExhaustedBudgetFailsTheFetchUnderTheFailPolicy() {
+        StepVerifier.create(healthLakeService(Map.of(
+                                "shl.healthlake.attachments.max-bundle-bytes", DATA_LENGTH + 1,
+                                "shl.healthlake.attachments.oversize-policy", "FAIL"))
+                        .fetchResourcesByCategory("p1", List.of(FhirCategory.CLINICAL_DOCUMENTS), null, null, false))
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(HealthLakeException.class)
+                        .hasMessageContaining("bundle attachment budget exhausted"))
+                .verify();
+    }
+
+    @Test
+    void anOversizeAttachmentKeepsItsUrlUnderTheKeepUrlPolicy() {
+        JsonNode bundle = fetchDocuments(Map.of("shl.healthlake.attachments.max-attachment-bytes", DATA_LENGTH - 1));
+
+        assertThat(url(bundle, "/entry/0/resource/content/0/attachment")).isEqualTo("Binary/shared");
+        assertThat(url(bundle, "/entry/0/resource/content/1/attachment")).isEqualTo("Binary/single");
+        assertThat(url(bundle, "/entry/1/resource/content/0/attachment")).isEqualTo("Binary/shared");
+    }
+
+    @Test
+    void anOversizeAttachmentFailsTheFetchUnderTheFailPolicy() {
+        StepVerifier.create(healthLakeService(Map.of(
+                                "shl.healthlake.attachments.max-attachment-bytes", DATA_LENGTH - 1,
+                                "shl.healthlake.attachments.oversize-policy", "FAIL"))
+                        .fetchResourcesByCategory("p1", List.of(FhirCategory.CLINICAL_DOCUMENTS), null, null, false))
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(HealthLakeException.class)
+                        .hasMessageContaining("data exceeds max attachment bytes"))
+                .verify();
+    }
+
+    private JsonNode fetchDocuments(Map<String, Object> overrides) {
+        FhirBundleWrapper wrapper = healthLakeService(overrides)
+                .fetchResourcesByCategory("p1", List.of(FhirCategory.CLINICAL_DOCUMENTS), null, null, false)
+                .single()
+                .block();
+        return objectMapper.readTree(wrapper.getBundleJson());
+    }
+
+    private HealthLakeService healthLakeService(Map<String, Object> overrides) {
+        Map<String, Object> settings = new HashMap<>(overrides);
+        settings.putIfAbsent("shl.healthlake.batch-enabled", false);
+        ShlProperties properties = ShlPropertiesFixture.load(settings);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WebClient webClient = WebClient.builder()
+                .baseUrl(BASE_URL)
+                .exchangeFunction(request -> {
+                    String path = request.url().getPath();
+                    String body;
+                    if (path.contains("/Binary/")) {
+                        String id = path.substring(path.lastIndexOf('/') + 1);
+                        binaryFetches.merge(id, 1, Integer::sum);
+                        body = "{\"resourceType\":\"Binary\",\"id\":\"" + id
+                                + "\",\"contentType\":\"application/pdf\",\"data\":\"" + payload(id) + "\"}";
+                    } else {
+                        body = BUNDLE;
+                    }
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, "application/fhir+json")
+                            .body(body)
+                            .build());
+                })
+                .build();
+        return new HealthLakeService(
+                webClient,
+                new HealthLakeConcurrencyLimiter(properties, meterRegistry),
+                new FhirBundleCache(properties, meterRegistry),
+                objectMapper,
+                meterRegistry,
+                properties);
+    }
+
+    private static String payload(String binaryId) {
+        return (binaryId.toUpperCase() + "AAAA").repeat(DATA_LENGTH).substring(0, DATA_LENGTH);
+    }
+
+    private static String data(JsonNode bundle, String attachment) {
+        return bundle.at(attachment + "/data").asString();
+    }
+
+    private static String url(JsonNode bundle, String attachment) {
+        return bundle.at(attachment + "/url").asString();
+    }
+}
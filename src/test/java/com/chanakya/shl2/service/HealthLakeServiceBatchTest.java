@@ -0,0 +1,122 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.fhir.FhirBundleWrapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HealthLakeServiceBatchTest {
+
+    private static final List<FhirCategory> CATEGORIES = List.of(FhirCategory.CONDITIONS, FhirCategory.LAB_RESULTS);
+
+    private final ShlProperties properties = ShlPropertiesFixture.load(Map.of("shl.healthlake.batch-enabled", true));
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FhirBundleCache bundleCache = new FhirBundleCache(properties, meterRegistry);
+    private final Sinks.One<Void> release = Sinks.one();
+    private final AtomicInteger batchRequests = new AtomicInteger();
+    private final AtomicInteger searchRequests = new AtomicInteger();
+    private boolean failLabResults;
+    private final HealthLakeService healthLakeService = healthLakeService();
+
+    @Test
+    void batchedCategoriesAreCachedAndCoalesceWithSingleFetches() {
+        StepVerifier.create(healthLakeService.fetchResourcesByCategory("p1", CATEGORIES, null, null)
+                        .mergeWith(healthLakeService.fetchResourcesByCategory(
+                                "p1", List.of(FhirCategory.LAB_RESULTS), null, null)))
+                .then(() -> release.tryEmitEmpty())
+                .expectNextCount(3)
+                .verifyComplete();
+
+        assertThat(batchRequests).hasValue(1);
+        assertThat(searchRequests).hasValue(0);
+        assertThat(bundleCache.get("p1", FhirCategory.CONDITIONS, null, null)).isNotNull();
+        assertThat(bundleCache.get("p1", FhirCategory.LAB_RESULTS, null, null)).isNotNull();
+    }
+
+    @Test
+    void aBatchInFlightDuringInvalidationIsNotCached() {
+        StepVerifier.create(healthLakeService.fetchResourcesByCategory("p1", CATEGORIES, null, null))
+                .then(() -> healthLakeService.invalidatePatient("p1"))
+                .then(() -> release.tryEmitEmpty())
+                .expectNextCount(2)
+                .verifyComplete();
+
+        assertThat(bundleCache.get("p1", FhirCategory.CONDITIONS, null, null)).isNull();
+        assertThat(bundleCache.get("p1", FhirCategory.LAB_RESULTS, null, null)).isNull();
+    }
+
+    @Test
+    void aFailedBatchEntryFallsBackToASearch() {
+        failLabResults = true;
+
+        StepVerifier.create(healthLakeService.fetchResourcesByCategory("p1", CATEGORIES, null, null)
+                        .map(FhirBundleWrapper::getCategory))
+                .then(() -> release.tryEmitEmpty())
+                .expectNextCount(2)
+                .verifyComplete();
+
+        assertThat(batchRequests).hasValue(1);
+        assertThat(searchRequests).hasValue(1);
+        assertThat(bundleCache.get("p1", FhirCategory.LAB_RESULTS, null, null)).isNotNull();
+    }
+
+    private HealthLakeService healthLakeService() {
+        WebClient webClient = WebClient.builder()
+                .baseUrl("https://healthlake.test/datastore/ds/r4")
+                .exchangeFunction(request -> {
+                    if (request.method() == HttpMethod.POST) {
+                        batchRequests.incrementAndGet();
+                        return release.asMono().then(Mono.fromSupplier(() -> json(batchResponse())));
+                    }
+                    searchRequests.incrementAndGet();
+                    return Mono.just(json(searchset("Observation")));
+                })
+                .build();
+        return new HealthLakeService(
+                webClient,
+                new HealthLakeConcurrencyLimiter(properties, meterRegistry),
+                bundleCache,
+                JsonMapper.builder().build(),
+                meterRegistry,
+                properties);
+    }
+
+    private String batchResponse() {
+        String labResults = failLabResults
+                ? "{\"response\":{\"status\":\"500 Internal Server Error\"}}"
+                : "{\"resource\":" + searchset("Observation") + ",\"response\":{\"status\":\"200 OK\"}}";
+        return "{\"resourceType\":\"Bundle\",\"type\":\"batch-response\",\"entry\":["
+                + "{\"resource\":" + searchset("Condition") + ",\"response\":{\"status\":\"200 OK\"}},"
+                + labResults + "]}";
+    }
+
+    private static String searchset(String resourceType) {
+        return "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[{\"resource\":{\"resourceType\":\""
+                + resourceType + "\",\"id\":\"r1\"}}]}";
+    }
+
+    private static ClientResponse json(String body) {
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+json")
+                .body(body)
+                .build();
+    }
+}
@@ -0,0 +1,99 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HealthLakeServiceStreamingTest {
+
+    private static final String BASE_URL = "https://healthlake.test/datastore/ds/r4";
+    private static final int PAGES = 3;
+    private static final int ENTRIES_PER_PAGE = 3;
+
+    private final AtomicInteger pageFetches = new AtomicInteger();
+
+    @Test
+    void requestingOneLineFetchesOnlyTheFirstPage() {
+        StepVerifier.create(healthLakeService().streamResourcesByCategory(
+                        "p1", List.of(FhirCategory.LAB_RESULTS), null, null), 0)
+                .thenRequest(1)
+                .expectNextCount(1)
+                .then(() -> assertThat(pageFetches).hasValue(1))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void theNextPageIsFetchedOnlyOnceTheCurrentOneIsDrained() {
+        StepVerifier.create(healthLakeService().streamResourcesByCategory(
+                        "p1", List.of(FhirCategory.LAB_RESULTS), null, null), 0)
+                .thenRequest(ENTRIES_PER_PAGE)
+                .expectNextCount(ENTRIES_PER_PAGE)
+                .then(() -> assertThat(pageFetches).hasValue(1))
+                .thenRequest(1)
+                .expectNextMatches(line -> line.resource().contains("\"id\":\"obs-2-0\""))
+                .then(() -> assertThat(pageFetches).hasValue(2))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount((long) PAGES * ENTRIES_PER_PAGE - ENTRIES_PER_PAGE - 1)
+                .verifyComplete();
+
+        assertThat(pageFetches).hasValue(PAGES);
+    }
+
+    private HealthLakeService healthLakeService() {
+        ShlProperties properties = ShlPropertiesFixture.load();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WebClient webClient = WebClient.builder()
+                .baseUrl(BASE_URL)
+                .exchangeFunction(request -> {
+                    pageFetches.incrementAndGet();
+                    String page = UriComponentsBuilder.fromUri(request.url()).build()
+                            .getQueryParams().getFirst("page");
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, "application/fhir+json")
+                            .body(searchPage(page != null ? Integer.parseInt(page) : 1))
+                            .build());
+                })
+                .build();
+        return new HealthLakeService(
+                webClient,
+                new HealthLakeConcurrencyLimiter(properties, meterRegistry),
+                new FhirBundleCache(properties, meterRegistry),
+                JsonMapper.builder().build(),
+                meterRegistry,
+                properties);
+    }
+
+    private static String searchPage(int page) {
+        StringBuilder json = new StringBuilder("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"link\":[");
+        if (page < PAGES) {
+            json.append("{\"relation\":\"next\",\"url\":\"").append(BASE_URL)
+                    .append("/Observation?patient=p1&category=laboratory&page=").append(page + 1).append("\"}");
+        }
+        json.append("],\"entry\":[");
+        for (int i = 0; i < ENTRIES_PER_PAGE; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"resource\":{\"resourceType\":\"Observation\",\"id\":\"obs-")
+                    .append(page).append('-').append(i).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+}
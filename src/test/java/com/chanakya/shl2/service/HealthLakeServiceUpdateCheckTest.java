@@ -0,0 +1,111 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlProperties;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks a category for changes against a stubbed HealthLake that reports {@link #updatedSince}
+ * resources updated after the watermark and {@link #total} resources overall.
+ */
+class HealthLakeServiceUpdateCheckTest {
+
+    private static final String BASE_URL = "https://healthlake.test/datastore/ds/r4";
+    private static final Instant WATERMARK = Instant.parse("2026-03-01T12:00:00Z");
+    private static final List<FhirCategory> LABS = List.of(FhirCategory.LAB_RESULTS);
+
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private int updatedSince;
+    private int total;
+
+    @Test
+    void aDeletionIsReportedAsAnUpdateEvenThoughNothingWasUpdatedSinceTheWatermark() {
+        updatedSince = 0;
+        total = 2;
+
+        HealthLakeService.UpdateCheck check = check(Map.of(FhirCategory.LAB_RESULTS, 3));
+
+        assertThat(check.updated()).containsExactly(FhirCategory.LAB_RESULTS);
+        assertThat(check.unchangedCounts()).isEmpty();
+        assertThat(queries).hasSize(2);
+    }
+
+    @Test
+    void anUntouchedCategoryReportsItsCurrentCount() {
+        updatedSince = 0;
+        total = 3;
+
+        HealthLakeService.UpdateCheck check = check(Map.of(FhirCategory.LAB_RESULTS, 3));
+
+        assertThat(check.updated()).isEmpty();
+        assertThat(check.unchangedCounts()).containsExactlyEntriesOf(Map.of(FhirCategory.LAB_RESULTS, 3));
+        assertThat(queries).containsExactly(
+                "patient=p1&category=laboratory&_lastUpdated=gt" + WATERMARK + "&_summary=count",
+                "patient=p1&category=laboratory&_summary=count");
+    }
+
+    @Test
+    void anUpdateSinceTheWatermarkSkipsTheTotalQuery() {
+        updatedSince = 1;
+        total = 3;
+
+        HealthLakeService.UpdateCheck check = check(Map.of(FhirCategory.LAB_RESULTS, 3));
+
+        assertThat(check.updated()).containsExactly(FhirCategory.LAB_RESULTS);
+        assertThat(queries).hasSize(1);
+    }
+
+    @Test
+    void aCategoryWithoutARecordedCountIsReportedWithoutQuerying() {
+        HealthLakeService.UpdateCheck check = check(Map.of());
+
+        assertThat(check.updated()).containsExactly(FhirCategory.LAB_RESULTS);
+        assertThat(queries).isEmpty();
+    }
+
+    private HealthLakeService.UpdateCheck check(Map<FhirCategory, Integer> counts) {
+        return healthLakeService()
+                .findUpdatedCategories("p1", LABS, null, null, Map.of(FhirCategory.LAB_RESULTS, WATERMARK), counts)
+                .block();
+    }
+
+    private HealthLakeService healthLakeService() {
+        ShlProperties properties = ShlPropertiesFixture.load();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WebClient webClient = WebClient.builder()
+                .baseUrl(BASE_URL)
+                .exchangeFunction(request -> {
+                    String query = request.url().getQuery();
+                    queries.add(query);
+                    int count = query.contains("_lastUpdated=") ? updatedSince : total;
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, "application/fhir+json")
+                            .body("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":" + count + "}")
+                            .build());
+                })
+                .build();
+        return new HealthLakeService(
+                webClient,
+                new HealthLakeConcurrencyLimiter(properties, meterRegistry),
+                new FhirBundleCache(properties, meterRegistry),
+                JsonMapper.builder().build(),
+                meterRegistry,
+                properties);
+    }
+}
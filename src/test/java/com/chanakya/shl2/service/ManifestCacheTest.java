@@ -0,0 +1,66 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.model.document.ShlFileDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ManifestCacheTest {
+
+    private static final Instant VERSION = Instant.parse("2024-01-01T00:00:00Z");
+    private static final List<ManifestCache.PresignedFile> FILES = List.of(new ManifestCache.PresignedFile(
+            ShlFileDocument.builder().shlId("shl-1").s3Key("shl-files/shl-1/a.jwe").build(), "https://s3/a"));
+
+    private final ManifestCache manifestCache = new ManifestCache(ShlPropertiesFixture.load(), new SimpleMeterRegistry());
+
+    @Test
+    void servesOnlyRequestsThatReadTheSameShlVersion() {
+        manifestCache.put(manifestCache.beginFill("shl-1", "p1", VERSION), FILES, Instant.now());
+
+        assertThat(manifestCache.get("shl-1", VERSION)).isEqualTo(FILES);
+        // Another instance refreshed the SHL, so its updatedAt moved on without a local invalidation
+        assertThat(manifestCache.get("shl-1", VERSION.plusSeconds(1))).isNull();
+    }
+
+    @Test
+    void aFillOvertakenByItsShlsInvalidationIsDropped() {
+        ManifestCache.Fill stale = manifestCache.beginFill("shl-1", "p1", VERSION);
+        ManifestCache.Fill other = manifestCache.beginFill("shl-2", "p1", VERSION);
+
+        manifestCache.invalidate("shl-1");
+        manifestCache.put(stale, FILES, Instant.now());
+        manifestCache.put(other, FILES, Instant.now());
+
+        assertThat(manifestCache.get("shl-1", VERSION)).isNull();
+        // Invalidating one SHL no longer discards fills of every other SHL
+        assertThat(manifestCache.get("shl-2", VERSION)).isEqualTo(FILES);
+    }
+
+    @Test
+    void aPatientInvalidationDropsCachedAndInFlightManifestsOfThatPatientOnly() {
+        manifestCache.put(manifestCache.beginFill("shl-1", "p1", VERSION), FILES, Instant.now());
+        ManifestCache.Fill inFlight = manifestCache.beginFill("shl-2", "p1", VERSION);
+        ManifestCache.Fill otherPatient = manifestCache.beginFill("shl-3", "p2", VERSION);
+
+        manifestCache.invalidatePatient("p1");
+        manifestCache.put(inFlight, FILES, Instant.now());
+        manifestCache.put(otherPatient, FILES, Instant.now());
+
+        assertThat(manifestCache.get("shl-1", VERSION)).isNull();
+        assertThat(manifestCache.get("shl-2", VERSION)).isNull();
+        assertThat(manifestCache.get("shl-3", VERSION)).isEqualTo(FILES);
+    }
+
+    @Test
+    void aFillStartedAfterAnInvalidationIsCached() {
+        manifestCache.invalidate("shl-1");
+        manifestCache.put(manifestCache.beginFill("shl-1", "p1", VERSION), FILES, Instant.now());
+
+        assertThat(manifestCache.get("shl-1", VERSION)).isEqualTo(FILES);
+    }
+}
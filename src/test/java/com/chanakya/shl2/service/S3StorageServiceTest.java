@@ -0,0 +1,372 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the S3 backend against a local S3 stub through the endpoint override, the same way a
+ * deployment points it at an S3-compatible store.
+ */
+class S3StorageServiceTest {
+
+    private static final String BUCKET = "shl-test";
+    private static final String KEY = "shl-files/shl-1/file.jwe";
+    private static final byte[] CONTENT = "eyJhbGciOiJkaXIiLCJlbmMiOiJBMjU2R0NNIn0..iv.ciphertext.tag"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"5d41402abc4b2a76b9719d911017c592\"";
+    private static final Pattern BYTE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final String UPLOAD_KEY = "shl-files/shl-1/large.jwe";
+    private static final String UPLOAD_ID = "upload-1";
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final int CONCURRENCY = 3;
+    private static final int CHUNK = 256 * 1024;
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Long> receivedParts = new ConcurrentHashMap<>();
+    private final AtomicInteger partsInFlight = new AtomicInteger();
+    private final AtomicInteger maxPartsInFlight = new AtomicInteger();
+    private final CountDownLatch releaseParts = new CountDownLatch(1);
+    private volatile boolean holdParts;
+    private volatile int failingPart = -1;
+    private volatile long putObjectLength = -1;
+    private ExecutorService stubExecutor;
+    private HttpServer server;
+    private S3AsyncClient s3Client;
+    private S3Presigner s3Presigner;
+    private S3StorageService storage;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serveObject);
+        // Parts are served on their own threads, so parallel uploads are actually concurrent
+        stubExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(stubExecutor);
+        server.start();
+
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"));
+        s3Client = S3AsyncClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .forcePathStyle(true)
+                .endpointOverride(endpoint)
+                .build();
+        s3Presigner = S3Presigner.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(credentials)
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .endpointOverride(endpoint)
+                .build();
+        storage = new S3StorageService(s3Client, s3Presigner,
+                ShlPropertiesFixture.load(Map.of(
+                        "shl.aws.s3-bucket-name", BUCKET,
+                        "shl.aws.s3.multipart-part-size-bytes", PART_SIZE,
+                        "shl.aws.s3.multipart-concurrency", CONCURRENCY)));
+    }
+
+    @AfterEach
+    void stopStub() {
+        releaseParts.countDown();
+        s3Client.close();
+        s3Presigner.close();
+        server.stop(0);
+        stubExecutor.shutdownNow();
+    }
+
+    @Test
+    void forwardsASingleRangeAndStreamsThePartialContent() {
+        BlobStore.ObjectStream object = storage.downloadStream(KEY, "bytes=2-5", null).block();
+
+        assertThat(object.status()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(object.contentRange()).isEqualTo("bytes 2-5/" + CONTENT.length);
+        assertThat(object.contentLength()).isEqualTo(4);
+        assertThat(object.eTag()).isEqualTo(ETAG);
+        assertThat(bytes(object.content())).isEqualTo(Arrays.copyOfRange(CONTENT, 2, 6));
+    }
+
+    @Test
+    void aMatchingIfNoneMatchIsNotModified() {
+        BlobStore.ObjectStream object = storage.downloadStream(KEY, null, ETAG).block();
+
+        assertThat(object.status()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(object.eTag()).isEqualTo(ETAG);
+        assertThat(bytes(object.content())).isEmpty();
+    }
+
+    @Test
+    void anUnsatisfiableRangeReportsTheObjectSize() {
+        BlobStore.ObjectStream object = storage.downloadStream(KEY, "bytes=1000-", null).block();
+
+        assertThat(object.status()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(object.contentRange()).isEqualTo("bytes */" + CONTENT.length);
+        assertThat(requests).anyMatch(request -> request.startsWith("HEAD "));
+    }
+
+    @Test
+    void aPresignedUrlFetchesTheObject() throws Exception {
+        String url = storage.generateDownloadUrl(KEY, Duration.ofMinutes(5));
+
+        assertThat(url).startsWith("http://127.0.0.1:" + server.getAddress().getPort() + "/" + BUCKET + "/" + KEY + "?");
+        assertThat(url).contains("X-Amz-Expires=300", "X-Amz-Credential=AKIDEXAMPLE", "X-Amz-Signature=");
+
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void aStreamThatFitsInOnePartIsASinglePutObject() {
+        long length = storage.upload(UPLOAD_KEY, chunks(PART_SIZE - 1), null).block();
+
+        assertThat(length).isEqualTo(PART_SIZE - 1);
+        assertThat(putObjectLength).isEqualTo(PART_SIZE - 1);
+        assertThat(requests).noneMatch(request -> request.contains("uploadId=") || request.contains("?uploads"));
+    }
+
+    @Test
+    void aLargerStreamIsSplitIntoPartsUploadedInParallel() {
+        long total = 3L * PART_SIZE + 1000;
+
+        long length = storage.upload(UPLOAD_KEY, chunks(total), null).block();
+
+        assertThat(length).isEqualTo(total);
+        assertThat(receivedParts).containsExactlyInAnyOrderEntriesOf(Map.of(
+                1, (long) PART_SIZE, 2, (long) PART_SIZE, 3, (long) PART_SIZE, 4, 1000L));
+        assertThat(maxPartsInFlight.get()).isBetween(2, CONCURRENCY);
+        assertThat(requests).anyMatch(request -> request.startsWith("POST ") && request.contains("uploadId=" + UPLOAD_ID));
+        assertThat(requests).noneMatch(request -> request.startsWith("DELETE "));
+    }
+
+    @Test
+    void aFailedPartAbortsTheUpload() {
+        failingPart = 2;
+
+        StepVerifier.create(storage.upload(UPLOAD_KEY, chunks(3L * PART_SIZE), null))
+                .verifyError(S3Exception.class);
+
+        assertThat(requests).anyMatch(request -> request.startsWith("DELETE ") && request.contains("uploadId=" + UPLOAD_ID));
+        assertThat(requests).noneMatch(request -> request.startsWith("POST ") && request.contains("uploadId="));
+    }
+
+    @Test
+    void aCancelledUploadIsAbortedAndBuffersOnlyTheInFlightParts() throws Exception {
+        holdParts = true;
+        AtomicLong produced = new AtomicLong();
+
+        Disposable upload = storage.upload(UPLOAD_KEY, chunks(20L * PART_SIZE)
+                        .doOnNext(chunk -> produced.addAndGet(chunk.remaining())), null)
+                .subscribe();
+        awaitTrue(() -> partsInFlight.get() == CONCURRENCY);
+        Thread.sleep(200);
+
+        assertThat(partsInFlight.get()).isEqualTo(CONCURRENCY);
+        // The parts in flight, the one being filled and at most one chunk of prefetch
+        assertThat(produced.get()).isLessThanOrEqualTo((CONCURRENCY + 1L) * PART_SIZE + CHUNK);
+
+        upload.dispose();
+
+        awaitTrue(() -> requests.stream()
+                .anyMatch(request -> request.startsWith("DELETE ") && request.contains("uploadId=" + UPLOAD_ID)));
+        assertThat(requests).noneMatch(request -> request.startsWith("POST ") && request.contains("uploadId="));
+    }
+
+    /**
+     * Serves {@link #CONTENT} at bucket/key with S3's conditional and range semantics. Like S3,
+     * an unsatisfiable range is an InvalidRange error without a Content-Range header.
+     */
+    private void serveObject(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        requests.add(method + " " + exchange.getRequestURI());
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        try (exchange) {
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                serveUpload(exchange, method);
+                return;
+            }
+            if (!exchange.getRequestURI().getPath().equals("/" + BUCKET + "/" + KEY)) {
+                sendError(exchange, 404, "NoSuchKey");
+                return;
+            }
+            if ("HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(CONTENT.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range != null ? BYTE_RANGE.matcher(range) : null;
+            if (matcher == null || !matcher.matches()) {
+                exchange.sendResponseHeaders(200, CONTENT.length);
+                exchange.getResponseBody().write(CONTENT);
+                return;
+            }
+            int start = matcher.group(1).isEmpty() ? 0 : Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2).isEmpty() ? CONTENT.length - 1
+                    : Math.min(CONTENT.length - 1, Integer.parseInt(matcher.group(2)));
+            if (start >= CONTENT.length || start > end) {
+                sendError(exchange, 416, "InvalidRange");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            exchange.getResponseBody().write(CONTENT, start, end - start + 1);
+        }
+    }
+
+    /**
+     * Accepts PutObject and the multipart calls for any key. Parts are held for a moment, or
+     * until released when {@link #holdParts} is set, so that uploads overlap.
+     */
+    private void serveUpload(HttpExchange exchange, String method) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        long length = decodedLength(exchange, exchange.getRequestBody().readAllBytes().length);
+        if (query == null && "PUT".equals(method)) {
+            putObjectLength = length;
+            exchange.sendResponseHeaders(200, -1);
+        } else if ("POST".equals(method) && query.startsWith("uploads")) {
+            sendXml(exchange, "<InitiateMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>" + UPLOAD_KEY
+                    + "</Key><UploadId>" + UPLOAD_ID + "</UploadId></InitiateMultipartUploadResult>");
+        } else if ("PUT".equals(method)) {
+            int partNumber = Integer.parseInt(queryParam(query, "partNumber"));
+            maxPartsInFlight.accumulateAndGet(partsInFlight.incrementAndGet(), Math::max);
+            try {
+                if (holdParts) {
+                    releaseParts.await();
+                } else {
+                    Thread.sleep(300);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                partsInFlight.decrementAndGet();
+            }
+            if (partNumber == failingPart) {
+                sendError(exchange, 400, "InvalidArgument");
+                return;
+            }
+            receivedParts.put(partNumber, length);
+            exchange.getResponseHeaders().set("ETag", "\"part-" + partNumber + "\"");
+            exchange.sendResponseHeaders(200, -1);
+        } else if ("POST".equals(method)) {
+            sendXml(exchange, "<CompleteMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>" + UPLOAD_KEY
+                    + "</Key><ETag>" + ETAG + "</ETag></CompleteMultipartUploadResult>");
+        } else {
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+
+    /**
+     * The payload size, which the SDK sends in a header when it frames the body with chunk
+     * signatures or checksum trailers.
+     */
+    private static long decodedLength(HttpExchange exchange, int bodyLength) {
+        String decoded = exchange.getRequestHeaders().getFirst("x-amz-decoded-content-length");
+        return decoded != null ? Long.parseLong(decoded) : bodyLength;
+    }
+
+    private static String queryParam(String query, String name) {
+        for (String param : query.split("&")) {
+            if (param.startsWith(name + "=")) {
+                return param.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void sendXml(HttpExchange exchange, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code
+                + "</Code><Message>" + code + "</Message></Error>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * {@code total} bytes in {@link #CHUNK}-sized buffers, generated as they are requested.
+     */
+    private static Flux<ByteBuffer> chunks(long total) {
+        return Flux.generate(() -> 0L, (sent, sink) -> {
+            if (sent >= total) {
+                sink.complete();
+                return sent;
+            }
+            int n = (int) Math.min(CHUNK, total - sent);
+            sink.next(ByteBuffer.wrap(new byte[n]));
+            return sent + n;
+        });
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static byte[] bytes(Flux<ByteBuffer> content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.toStream().forEach(buffer -> {
+            byte[] chunk = new byte[buffer.remaining()];
+            buffer.get(chunk);
+            out.writeBytes(chunk);
+        });
+        return out.toByteArray();
+    }
+}
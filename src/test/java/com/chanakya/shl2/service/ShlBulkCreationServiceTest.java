@@ -0,0 +1,161 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.MongoRoundTrips;
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.exception.HealthLakeException;
+import com.chanakya.shl2.model.document.ShlDocument;
+import com.chanakya.shl2.model.dto.request.CreateShlRequest;
+import com.chanakya.shl2.model.dto.response.BulkShlResult;
+import com.chanakya.shl2.model.dto.response.CreateShlResponse;
+import com.chanakya.shl2.model.enums.FhirCategory;
+import com.chanakya.shl2.model.enums.ShlStatus;
+import com.chanakya.shl2.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs bulk creation against mocked persistence. A request's patient id decides how completing
+ * its SHL goes: {@code ok-*} succeeds, {@code fail-*} fails and {@code hang-*} never finishes.
+ * Inserted SHLs get the id {@code shl-<patientId>}.
+ */
+class ShlBulkCreationServiceTest {
+
+    private final ShlCreationService shlCreationService = mock(ShlCreationService.class);
+    private final ShlRepository shlRepository = mock(ShlRepository.class);
+    private final ShlBulkCreationService bulkCreationService = new ShlBulkCreationService(
+            shlCreationService,
+            shlRepository,
+            mock(Validator.class),
+            new MongoRoundTrips(new SimpleMeterRegistry()),
+            ShlPropertiesFixture.load(Map.of(
+                    "shl.bulk.insert-batch-size", 10,
+                    "shl.bulk.insert-batch-window-millis", 10)),
+            new SimpleMeterRegistry());
+
+    @BeforeEach
+    void setUp() {
+        when(shlCreationService.buildShl(any(), eq(ShlStatus.PENDING))).thenAnswer(invocation -> Mono.just(
+                ShlDocument.builder()
+                        .patientId(invocation.<CreateShlRequest>getArgument(0).patientId())
+                        .status(ShlStatus.PENDING)
+                        .build()));
+        when(shlRepository.saveAll(anyIterable()))
+                .thenAnswer(invocation -> Flux.fromIterable(assignIds(invocation.getArgument(0))));
+        when(shlCreationService.completePendingShl(any(), anyBoolean())).thenAnswer(invocation -> {
+            ShlDocument shl = invocation.getArgument(0);
+            if (shl.getPatientId().startsWith("fail")) {
+                return Mono.error(new HealthLakeException("HealthLake unavailable"));
+            }
+            if (shl.getPatientId().startsWith("hang")) {
+                return Mono.never();
+            }
+            return Mono.just(new CreateShlResponse("shlink:/" + shl.getId(), "token", null, null, null));
+        });
+        when(shlCreationService.revokePendingShl(anyString())).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void aFailedItemBecomesAnErrorLineAndOnlyItsPendingShlIsRevoked() {
+        List<BulkShlResult> results = bulkCreationService.createShls(requests("ok-1", "fail-2", "ok-3"))
+                .collectList()
+                .block();
+
+        assertThat(results).hasSize(4);
+        assertThat(results.subList(0, 3))
+                .filteredOn(result -> result.error() != null)
+                .singleElement()
+                .satisfies(result -> {
+                    assertThat(result.index()).isEqualTo(1);
+                    assertThat(result.error().error()).isEqualTo("healthlake_error");
+                });
+        BulkShlResult.Summary summary = results.get(3).summary();
+        assertThat(summary.created()).isEqualTo(2);
+        assertThat(summary.failed()).isEqualTo(1);
+        verify(shlCreationService).revokePendingShl("shl-fail-2");
+        verify(shlCreationService, never()).revokePendingShl("shl-ok-1");
+        verify(shlCreationService, never()).revokePendingShl("shl-ok-3");
+        verify(shlCreationService, never()).revokeShl(anyString());
+    }
+
+    @Test
+    void aFailedRevokeStillReportsTheItemsError() {
+        when(shlCreationService.revokePendingShl("shl-fail-1"))
+                .thenReturn(Mono.error(new IllegalStateException("mongo unavailable")));
+
+        StepVerifier.create(bulkCreationService.createShls(requests("fail-1")))
+                .expectNextMatches(result -> result.error() != null && result.error().error().equals("healthlake_error"))
+                .expectNextMatches(result -> result.summary() != null && result.summary().failed() == 1)
+                .verifyComplete();
+    }
+
+    @Test
+    void cancellingTheStreamRevokesTheShlsStillPending() {
+        StepVerifier.create(bulkCreationService.createShls(requests("ok-1", "hang-2", "hang-3")))
+                .expectNextMatches(result -> result.shl() != null)
+                .thenCancel()
+                .verify();
+
+        verify(shlCreationService).revokePendingShl("shl-hang-2");
+        verify(shlCreationService).revokePendingShl("shl-hang-3");
+        verify(shlCreationService, never()).revokePendingShl("shl-ok-1");
+    }
+
+    @Test
+    void anInsertThatLandsAfterTheCancelIsRevoked() {
+        Sinks.Empty<Void> insertLanded = Sinks.empty();
+        when(shlRepository.saveAll(anyIterable())).thenAnswer(invocation -> insertLanded.asMono()
+                .thenMany(Flux.fromIterable(assignIds(invocation.getArgument(0)))));
+
+        StepVerifier.create(bulkCreationService.createShls(requests("ok-1")))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(200))
+                .thenCancel()
+                .verify();
+        verify(shlCreationService, never()).revokePendingShl(anyString());
+
+        insertLanded.tryEmitEmpty();
+
+        verify(shlCreationService).revokePendingShl("shl-ok-1");
+        verify(shlCreationService, never()).completePendingShl(any(), anyBoolean());
+    }
+
+    private static List<ShlDocument> assignIds(Iterable<ShlDocument> documents) {
+        List<ShlDocument> saved = new ArrayList<>();
+        for (ShlDocument shl : documents) {
+            shl.setId("shl-" + shl.getPatientId());
+            saved.add(shl);
+        }
+        return saved;
+    }
+
+    private static Flux<CreateShlRequest> requests(String... patientIds) {
+        return Flux.fromArray(patientIds).map(patientId -> new CreateShlRequest(patientId,
+                List.of(FhirCategory.CONDITIONS), null, null, Instant.now().plus(1, ChronoUnit.DAYS), null, null,
+                Set.of(), false, false, null));
+    }
+}
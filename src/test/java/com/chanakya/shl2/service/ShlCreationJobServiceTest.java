@@ -0,0 +1,182 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.crypto.ShlPayloadEncoder;
+import com.chanakya.shl2.model.document.ShlCreationJobDocument;
+import com.chanakya.shl2.model.enums.JobStatus;
+import com.chanakya.shl2.repository.ShlCreationJobRepository;
+import com.chanakya.shl2.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the job worker on virtual time: polls every 2 seconds, 30-second leases renewed every
+ * 10 seconds, and two attempts per job.
+ */
+class ShlCreationJobServiceTest {
+
+    private static final String JOB_ID = "job-1";
+    private static final String SHL_ID = "shl-1";
+
+    private final ShlCreationJobRepository jobRepository = mock(ShlCreationJobRepository.class);
+    private final ShlCreationService shlCreationService = mock(ShlCreationService.class);
+    private VirtualTimeScheduler scheduler;
+    private ShlCreationJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = VirtualTimeScheduler.getOrSet();
+        jobService = new ShlCreationJobService(jobRepository, mock(ShlRepository.class), shlCreationService,
+                mock(ShlPayloadEncoder.class),
+                ShlPropertiesFixture.load(Map.of(
+                        "shl.jobs.poll-interval-seconds", 2,
+                        "shl.jobs.lease-seconds", 30,
+                        "shl.jobs.max-attempts", 2)),
+                new SimpleMeterRegistry());
+        when(jobRepository.countByStatus(any())).thenReturn(Mono.just(0L));
+        when(jobRepository.renewLease(anyString(), anyInt(), any())).thenReturn(Mono.just(true));
+        when(jobRepository.finish(anyString(), anyInt(), any(), any(), any())).thenReturn(Mono.just(true));
+        when(jobRepository.requeue(anyString(), anyInt(), any(), any())).thenReturn(Mono.just(true));
+        when(shlCreationService.revokePendingShl(SHL_ID)).thenReturn(Mono.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.destroy();
+        VirtualTimeScheduler.reset();
+    }
+
+    @Test
+    void aHeartbeatRenewsTheLeaseUntilTheRunEnds() {
+        Sinks.One<Boolean> populated = Sinks.one();
+        claim(1);
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any())).thenReturn(populated.asMono());
+
+        jobService.start();
+        scheduler.advanceTimeBy(Duration.ofSeconds(35));
+
+        verify(jobRepository, times(3)).renewLease(eq(JOB_ID), eq(1), any());
+
+        populated.tryEmitValue(true);
+        scheduler.advanceTimeBy(Duration.ofMinutes(5));
+
+        verify(jobRepository).finish(eq(JOB_ID), eq(1), eq(JobStatus.SUCCEEDED), isNull(), any());
+        verify(jobRepository, times(3)).renewLease(eq(JOB_ID), eq(1), any());
+    }
+
+    @Test
+    void aLostLeaseCancelsTheRunWithoutWritingItsOutcome() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        claim(1);
+        when(jobRepository.renewLease(eq(JOB_ID), eq(1), any())).thenReturn(Mono.just(false));
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any()))
+                .thenReturn(Mono.<Boolean>never().doOnCancel(() -> cancelled.set(true)));
+
+        jobService.start();
+        scheduler.advanceTimeBy(Duration.ofSeconds(15));
+
+        assertThat(cancelled).isTrue();
+        verify(jobRepository, never()).finish(anyString(), anyInt(), any(), any(), any());
+        verify(jobRepository, never()).requeue(anyString(), anyInt(), any(), any());
+    }
+
+    @Test
+    void aFailedHeartbeatWriteDoesNotStopTheRun() {
+        Sinks.One<Boolean> populated = Sinks.one();
+        claim(1);
+        when(jobRepository.renewLease(eq(JOB_ID), eq(1), any()))
+                .thenReturn(Mono.error(new IllegalStateException("mongo unavailable")), Mono.just(true));
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any())).thenReturn(populated.asMono());
+
+        jobService.start();
+        scheduler.advanceTimeBy(Duration.ofSeconds(25));
+        populated.tryEmitValue(true);
+        scheduler.advanceTime();
+
+        verify(jobRepository, times(2)).renewLease(eq(JOB_ID), eq(1), any());
+        verify(jobRepository).finish(eq(JOB_ID), eq(1), eq(JobStatus.SUCCEEDED), isNull(), any());
+    }
+
+    @Test
+    void theShlIsOnlyActivatedWhileTheLeaseIsHeld() {
+        claim(1);
+        when(jobRepository.renewLease(eq(JOB_ID), eq(1), any())).thenReturn(Mono.just(false));
+        // Stands in for the pipeline: activation is attempted only once beforeActivation completes
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any()))
+                .thenAnswer(invocation -> invocation.<Mono<Void>>getArgument(2).thenReturn(true));
+
+        jobService.start();
+        scheduler.advanceTime();
+
+        verify(jobRepository).renewLease(eq(JOB_ID), eq(1), any());
+        verify(jobRepository, never()).finish(anyString(), anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void aFailedAttemptIsRequeuedWithBackoff() {
+        claim(1);
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any()))
+                .thenReturn(Mono.error(new IllegalStateException("HealthLake unavailable")));
+
+        Instant before = Instant.now();
+        jobService.start();
+        scheduler.advanceTime();
+
+        verify(jobRepository).requeue(eq(JOB_ID), eq(1), eq("HealthLake unavailable"),
+                argThat(notBefore -> !notBefore.isBefore(before.plusSeconds(4))));
+        verify(shlCreationService, never()).revokePendingShl(any());
+    }
+
+    @Test
+    void theLastFailedAttemptFailsTheJobAndRevokesTheShl() {
+        claim(2);
+        when(shlCreationService.populatePendingShl(eq(SHL_ID), any(), any()))
+                .thenReturn(Mono.error(new IllegalStateException("HealthLake unavailable")));
+
+        jobService.start();
+        scheduler.advanceTime();
+
+        verify(jobRepository).finish(eq(JOB_ID), eq(2), eq(JobStatus.FAILED), eq("HealthLake unavailable"), any());
+        verify(shlCreationService).revokePendingShl(SHL_ID);
+        verify(jobRepository, never()).requeue(anyString(), anyInt(), any(), any());
+    }
+
+    /**
+     * The first poll claims the job as attempt {@code attempt}; later polls find the queue empty.
+     */
+    private void claim(int attempt) {
+        Instant now = Instant.now();
+        when(jobRepository.claimNext(any(), any())).thenReturn(Mono.just(ShlCreationJobDocument.builder()
+                .id(JOB_ID)
+                .shlId(SHL_ID)
+                .status(JobStatus.RUNNING)
+                .attempts(attempt)
+                .enqueuedAt(now)
+                .startedAt(now)
+                .leaseUntil(now.plusSeconds(30))
+                .build()), Mono.empty());
+    }
+}
@@ -0,0 +1,174 @@
+package com.chanakya.shl2.service;
+
+import com.chanakya.shl2.config.ShlPropertiesFixture;
+import com.chanakya.shl2.model.document.StoragePurgeDocument;
+import com.chanakya.shl2.repository.StoragePurgeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the purge worker on virtual time: polls every 10 seconds, at most 5 DeleteObjects calls
+ * a second, 2000 keys per pass and three attempts per purge.
+ */
+class StoragePurgeServiceTest {
+
+    private static final Duration SPACING = Duration.ofMillis(200);
+
+    private final StoragePurgeRepository purgeRepository = mock(StoragePurgeRepository.class);
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private VirtualTimeScheduler scheduler;
+    private StoragePurgeService purgeService;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = VirtualTimeScheduler.getOrSet();
+        purgeService = new StoragePurgeService(purgeRepository, blobStore,
+                ShlPropertiesFixture.load(Map.of(
+                        "shl.purge.poll-interval-seconds", 10,
+                        "shl.purge.max-keys-per-drain", 2000,
+                        "shl.purge.max-attempts", 3,
+                        "shl.purge.delete-requests-per-second", 5)),
+                meterRegistry);
+        when(purgeRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(purgeRepository.deleteById(anyString())).thenReturn(Mono.empty());
+        when(purgeRepository.count()).thenReturn(Mono.just(0L));
+        when(purgeRepository.findFirstByOrderByEnqueuedAtAsc()).thenReturn(Mono.empty());
+        when(blobStore.deleteBatch(anyList())).thenReturn(Mono.just(List.of()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        purgeService.destroy();
+        VirtualTimeScheduler.reset();
+    }
+
+    @Test
+    void theFirstDeleteGoesOutAtOnceAndLaterOnesAreSpaced() {
+        claim(prefixPurge(1));
+        when(blobStore.listKeys("shl-files/shl-1/")).thenReturn(Flux.fromIterable(keys(1500)));
+
+        purgeService.start();
+        scheduler.advanceTime();
+
+        verify(blobStore, times(1)).deleteBatch(anyList());
+
+        scheduler.advanceTimeBy(SPACING);
+
+        verify(blobStore, times(2)).deleteBatch(anyList());
+        verify(purgeRepository).deleteById("purge-1");
+    }
+
+    @Test
+    void aPrefixLargerThanThePassIsWorkedOffWithoutUsingUpItsAttempts() {
+        claim(prefixPurge(1));
+        when(blobStore.listKeys("shl-files/shl-1/")).thenReturn(Flux.fromIterable(keys(2500)));
+        ArgumentCaptor<StoragePurgeDocument> saved = ArgumentCaptor.forClass(StoragePurgeDocument.class);
+
+        Instant before = Instant.now();
+        purgeService.start();
+        scheduler.advanceTimeBy(SPACING);
+
+        verify(blobStore, times(2)).deleteBatch(anyList());
+        verify(purgeRepository).save(saved.capture());
+        assertThat(saved.getValue().getPrefix()).isEqualTo("shl-files/shl-1/");
+        assertThat(saved.getValue().getKeys()).isNull();
+        assertThat(saved.getValue().getAttempts()).isZero();
+        assertThat(saved.getValue().getNextAttemptAt()).isBetween(before, Instant.now());
+        verify(purgeRepository, never()).deleteById(anyString());
+    }
+
+    @Test
+    void aPartialFailureRetriesOnlyTheFailedKeysWithBackoff() {
+        claim(keyPurge(1, "a", "b", "c"));
+        when(blobStore.deleteBatch(List.of("a", "b", "c"))).thenReturn(Mono.just(List.of("b")));
+        ArgumentCaptor<StoragePurgeDocument> saved = ArgumentCaptor.forClass(StoragePurgeDocument.class);
+
+        Instant before = Instant.now();
+        purgeService.start();
+        scheduler.advanceTime();
+
+        verify(purgeRepository).save(saved.capture());
+        assertThat(saved.getValue().getKeys()).containsExactly("b");
+        assertThat(saved.getValue().getNextAttemptAt()).isAfterOrEqualTo(before.plusSeconds(20));
+        verify(purgeRepository, never()).deleteById(anyString());
+        assertThat(meterRegistry.counter("shl.storage.purge.deleted").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("shl.storage.purge.failed").count()).isEqualTo(1);
+    }
+
+    @Test
+    void aFailedCallRetriesEveryKeyOfTheBatch() {
+        claim(keyPurge(1, "a", "b"));
+        when(blobStore.deleteBatch(List.of("a", "b")))
+                .thenReturn(Mono.error(new IllegalStateException("S3 unavailable")));
+        ArgumentCaptor<StoragePurgeDocument> saved = ArgumentCaptor.forClass(StoragePurgeDocument.class);
+
+        purgeService.start();
+        scheduler.advanceTime();
+
+        verify(purgeRepository).save(saved.capture());
+        assertThat(saved.getValue().getKeys()).containsExactly("a", "b");
+    }
+
+    @Test
+    void aPurgeOutOfAttemptsIsAbandoned() {
+        claim(keyPurge(3, "a", "b"));
+        when(blobStore.deleteBatch(List.of("a", "b"))).thenReturn(Mono.just(List.of("b")));
+
+        purgeService.start();
+        scheduler.advanceTime();
+
+        verify(purgeRepository).deleteById("purge-1");
+        verify(purgeRepository, never()).save(any());
+        assertThat(meterRegistry.counter("shl.storage.purge.abandoned").count()).isEqualTo(1);
+    }
+
+    /**
+     * The first poll claims the purge; every later claim finds the queue empty.
+     */
+    private void claim(StoragePurgeDocument purge) {
+        when(purgeRepository.claimNext(any(), any())).thenReturn(Mono.just(purge), Mono.empty());
+    }
+
+    private static StoragePurgeDocument prefixPurge(int attempts) {
+        return StoragePurgeDocument.builder()
+                .id("purge-1")
+                .prefix("shl-files/shl-1/")
+                .attempts(attempts)
+                .build();
+    }
+
+    private static StoragePurgeDocument keyPurge(int attempts, String... keys) {
+        return StoragePurgeDocument.builder()
+                .id("purge-1")
+                .keys(List.of(keys))
+                .attempts(attempts)
+                .build();
+    }
+
+    private static List<String> keys(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "shl-files/shl-1/" + i).toList();
+    }
+}
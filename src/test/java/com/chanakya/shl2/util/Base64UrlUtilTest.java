@@ -0,0 +1,64 @@
+package com.chanakya.shl2.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Base64UrlUtilTest {
+
+    @Test
+    void encodeIntoAndDecodeIntoMatchTheJdkCodecAtEveryLengthAndOffset() {
+        Random random = new Random(7);
+        for (int length = 0; length < 100; length++) {
+            byte[] src = new byte[length + 5];
+            random.nextBytes(src);
+            String expected = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOfRange(src, 3, 3 + length));
+
+            byte[] encoded = new byte[Base64UrlUtil.encodedLength(length) + 6];
+            int end = Base64UrlUtil.encodeInto(src, 3, length, encoded, 4);
+            assertThat(end - 4).isEqualTo(Base64UrlUtil.encodedLength(length));
+            assertThat(new String(encoded, 4, end - 4, StandardCharsets.US_ASCII)).isEqualTo(expected);
+
+            byte[] decoded = new byte[length + 2];
+            int decodedEnd = Base64UrlUtil.decodeInto(encoded, 4, end - 4, decoded, 2);
+            assertThat(decodedEnd).isEqualTo(length + 2);
+            assertThat(Arrays.copyOfRange(decoded, 2, decodedEnd)).isEqualTo(Arrays.copyOfRange(src, 3, 3 + length));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"AB", "AAB", "QUJDRF"})
+    void rejectsNonCanonicalTrailingBits(String encoded) {
+        assertThatThrownBy(() -> decode(encoded))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Non-canonical");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"AA==", "AAA="})
+    void rejectsPadding(String encoded) {
+        assertThatThrownBy(() -> decode(encoded)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"A", "AAAAA", "AA+A", "AA/A", "AA A"})
+    void rejectsInvalidLengthsAndCharacters(String encoded) {
+        assertThatThrownBy(() -> decode(encoded)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] decode(String encoded) {
+        byte[] src = encoded.getBytes(StandardCharsets.US_ASCII);
+        byte[] dst = new byte[src.length];
+        Base64UrlUtil.decodeInto(src, 0, src.length, dst, 0);
+        return dst;
+    }
+}